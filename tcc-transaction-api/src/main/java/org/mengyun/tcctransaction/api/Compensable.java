@@ -27,6 +27,16 @@ public @interface Compensable {
 
     public boolean asyncCancel() default false;
 
+    public boolean parallelConfirm() default false;
+
+    public boolean parallelCancel() default false;
+
+    /**
+     * milliseconds the try phase of a root transaction may take before it is cancelled, 0 waits for the recovery job.
+     * the cancel does not wait for the body of the method to return, its later participant calls fail.
+     */
+    public long tryTimeout() default 0;
+
     class NullableTransactionContextEditor implements TransactionContextEditor {
 
         @Override
@@ -0,0 +1,22 @@
+package org.mengyun.tcctransaction.api;
+
+import java.security.SecureRandom;
+
+/**
+ * random (version 4) UUID bytes from a shared SecureRandom, the ids generated before TimeOrderedXidGenerator.
+ */
+public class RandomXidGenerator implements XidGenerator {
+
+    private final SecureRandom numberGenerator = new SecureRandom();
+
+    @Override
+    public byte[] generate() {
+        byte[] bytes = new byte[16];
+        numberGenerator.nextBytes(bytes);
+        bytes[6] &= 0x0f;
+        bytes[6] |= 0x40;
+        bytes[8] &= 0x3f;
+        bytes[8] |= 0x80;
+        return bytes;
+    }
+}
@@ -0,0 +1,66 @@
+package org.mengyun.tcctransaction.api;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UUIDv7 layout: 48 bits epoch millis, 12 bits sequence, then 30 bits node id and 32 random bits.
+ * ids of one generator are strictly increasing (a CAS on the millis and sequence, no lock),
+ * so new records are appended to the end of the GLOBAL_TX_ID,BRANCH_QUALIFIER index instead of scattered over it.
+ * the node id is random unless set, give each node its own id to rule out collisions between nodes entirely.
+ */
+public class TimeOrderedXidGenerator implements XidGenerator {
+
+    private static final int SEQUENCE_BITS = 12;
+
+    private static final long NODE_ID_MASK = (1L << 30) - 1;
+
+    private final AtomicLong lastTimestamp = new AtomicLong();
+
+    private volatile long nodeId = new SecureRandom().nextLong() & NODE_ID_MASK;
+
+    public void setNodeId(long nodeId) {
+        this.nodeId = nodeId & NODE_ID_MASK;
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public byte[] generate() {
+
+        long timestamp = nextTimestamp();
+
+        long mostSigBits = ((timestamp >>> SEQUENCE_BITS) << 16) | 0x7000L | (timestamp & ((1L << SEQUENCE_BITS) - 1));
+        long leastSigBits = 0x8000000000000000L | (nodeId << 32) | (ThreadLocalRandom.current().nextInt() & 0xffffffffL);
+
+        byte[] bytes = new byte[16];
+
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (mostSigBits >>> (56 - 8 * i));
+            bytes[i + 8] = (byte) (leastSigBits >>> (56 - 8 * i));
+        }
+
+        return bytes;
+    }
+
+    /**
+     * current millis shifted left by the sequence bits, or the last value plus one if the clock has not moved
+     * (or went backwards), the sequence overflowing into the millis keeps the ids increasing.
+     */
+    private long nextTimestamp() {
+
+        long now = System.currentTimeMillis() << SEQUENCE_BITS;
+
+        while (true) {
+            long last = lastTimestamp.get();
+            long next = now > last ? now : last + 1;
+
+            if (lastTimestamp.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.util.UUID;
 
 /**
  * Created by changmingxie on 10/26/15.
+ * treated as immutable once created, so it is shared by the transaction, its contexts and participants instead of copied.
  */
 public class TransactionXid implements Xid, Serializable {
 
@@ -20,20 +21,58 @@ public class TransactionXid implements Xid, Serializable {
 
     private byte[] branchQualifier;
 
+    private transient int hash;
+
+    private transient String key;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static volatile XidGenerator xidGenerator = new TimeOrderedXidGenerator();
+
+    /**
+     * replaces the generator of global transaction ids and branch qualifiers for the whole JVM.
+     */
+    public static void setXidGenerator(XidGenerator xidGenerator) {
+        TransactionXid.xidGenerator = xidGenerator;
+    }
+
+    public static XidGenerator getXidGenerator() {
+        return xidGenerator;
+    }
+
     public TransactionXid() {
-        globalTransactionId = uuidToByteArray(UUID.randomUUID());
-        branchQualifier = uuidToByteArray(UUID.randomUUID());
+        globalTransactionId = xidGenerator.generate();
+        branchQualifier = xidGenerator.generate();
     }
 
+    /**
+     * @deprecated the xid is shared and used as a map key, create a new TransactionXid instead.
+     * only allowed before the hash or the key is computed, e.g. by a deserializer.
+     */
+    @Deprecated
     public void setGlobalTransactionId(byte[] globalTransactionId) {
+        checkMutable();
         this.globalTransactionId = globalTransactionId;
     }
 
+    /**
+     * @deprecated the xid is shared and used as a map key, create a new TransactionXid instead.
+     * only allowed before the hash or the key is computed, e.g. by a deserializer.
+     */
+    @Deprecated
     public void setBranchQualifier(byte[] branchQualifier) {
+        checkMutable();
         this.branchQualifier = branchQualifier;
     }
 
     public TransactionXid(Object uniqueIdentity) {
+
+        if (uniqueIdentity == null) {
+            this.globalTransactionId = xidGenerator.generate();
+            this.branchQualifier = xidGenerator.generate();
+            return;
+        }
+
         this.globalTransactionId = uuidToByteArray(UUID.nameUUIDFromBytes("UniqueIdentity".getBytes()));
 
         UUID branchUuid = null;
@@ -60,7 +99,7 @@ public class TransactionXid implements Xid, Serializable {
 
     public TransactionXid(byte[] globalTransactionId) {
         this.globalTransactionId = globalTransactionId;
-        this.branchQualifier = uuidToByteArray(UUID.randomUUID());
+        this.branchQualifier = xidGenerator.generate();
     }
 
     public TransactionXid(byte[] globalTransactionId, byte[] branchQualifier) {
@@ -83,16 +122,47 @@ public class TransactionXid implements Xid, Serializable {
         return branchQualifier;
     }
 
+    /**
+     * hex of the global transaction id and the branch qualifier joined by ':', also the storage key of the transaction.
+     * computed once per instance, valueOf(String) turns it back into the xid.
+     */
     @Override
     public String toString() {
 
+        String result = key;
+
+        if (result == null) {
+            result = toHex(globalTransactionId, branchQualifier);
+            key = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * the key format used before the hex encoding, two name-based UUIDs (MD5 of each part),
+     * only needed to find records written by older versions.
+     */
+    public static String toLegacyString(Xid xid) {
+
         StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append(UUID.nameUUIDFromBytes(globalTransactionId).toString());
-        stringBuilder.append(":").append(UUID.nameUUIDFromBytes(branchQualifier).toString());
+        stringBuilder.append(UUID.nameUUIDFromBytes(xid.getGlobalTransactionId()).toString());
+        stringBuilder.append(":").append(UUID.nameUUIDFromBytes(xid.getBranchQualifier()).toString());
 
         return stringBuilder.toString();
     }
 
+    public static TransactionXid valueOf(String key) {
+
+        int index = key.indexOf(':');
+
+        if (index < 0) {
+            throw new IllegalArgumentException("illegal xid key:" + key);
+        }
+
+        return new TransactionXid(fromHex(key, 0, index), fromHex(key, index + 1, key.length()));
+    }
+
     public TransactionXid clone() {
 
         byte[] cloneGlobalTransactionId = null;
@@ -112,11 +182,16 @@ public class TransactionXid implements Xid, Serializable {
     }
 
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + this.getFormatId();
-        result = prime * result + Arrays.hashCode(branchQualifier);
-        result = prime * result + Arrays.hashCode(globalTransactionId);
+        int result = hash;
+
+        if (result == 0) {
+            final int prime = 31;
+            result = 1;
+            result = prime * result + this.getFormatId();
+            result = prime * result + Arrays.hashCode(branchQualifier);
+            result = prime * result + Arrays.hashCode(globalTransactionId);
+            hash = result;
+        }
         return result;
     }
 
@@ -139,19 +214,59 @@ public class TransactionXid implements Xid, Serializable {
         return true;
     }
 
+    private void checkMutable() {
+        if (hash != 0 || key != null) {
+            throw new IllegalStateException("xid already in use, cannot be changed: " + this);
+        }
+    }
+
+    private static String toHex(byte[] globalTransactionId, byte[] branchQualifier) {
+
+        char[] chars = new char[globalTransactionId.length * 2 + 1 + branchQualifier.length * 2];
+
+        int index = appendHex(globalTransactionId, chars, 0);
+        chars[index++] = ':';
+        appendHex(branchQualifier, chars, index);
+
+        return new String(chars);
+    }
+
+    private static int appendHex(byte[] bytes, char[] chars, int index) {
+        for (byte b : bytes) {
+            chars[index++] = HEX_DIGITS[(b >> 4) & 0x0f];
+            chars[index++] = HEX_DIGITS[b & 0x0f];
+        }
+        return index;
+    }
+
+    private static byte[] fromHex(String key, int start, int end) {
+
+        if ((end - start) % 2 != 0) {
+            throw new IllegalArgumentException("illegal xid key:" + key);
+        }
+
+        byte[] bytes = new byte[(end - start) / 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(key.charAt(start + 2 * i), 16);
+            int low = Character.digit(key.charAt(start + 2 * i + 1), 16);
+
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("illegal xid key:" + key);
+            }
+
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+
+        return bytes;
+    }
+
     private static byte[] uuidToByteArray(UUID uuid) {
         ByteBuffer bb = ByteBuffer.wrap(new byte[16]);
         bb.putLong(uuid.getMostSignificantBits());
         bb.putLong(uuid.getLeastSignificantBits());
         return bb.array();
     }
-
-    private static UUID byteArrayToUUID(byte[] bytes) {
-        ByteBuffer bb = ByteBuffer.wrap(bytes);
-        long firstLong = bb.getLong();
-        long secondLong = bb.getLong();
-        return new UUID(firstLong, secondLong);
-    }
 }
 
 
@@ -0,0 +1,10 @@
+package org.mengyun.tcctransaction.api;
+
+/**
+ * generates the 16 bytes used as global transaction id and as branch qualifier of a TransactionXid.
+ * implementations are shared by all threads and must be thread-safe.
+ */
+public interface XidGenerator {
+
+    byte[] generate();
+}
@@ -0,0 +1,25 @@
+package org.mengyun.tcctransaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * thrown when one or more participants failed while confirming or cancelling them in parallel,
+ * all the failures are kept, the first one is used as the cause.
+ */
+public class ParallelTerminationException extends SystemException {
+
+    private static final long serialVersionUID = -2409474286521950371L;
+
+    private final List<Throwable> failures;
+
+    public ParallelTerminationException(List<Throwable> failures) {
+        super(String.format("%d participant(s) failed while terminating in parallel", failures.size()), failures.get(0));
+        this.failures = Collections.unmodifiableList(new ArrayList<Throwable>(failures));
+    }
+
+    public List<Throwable> getFailures() {
+        return failures;
+    }
+}
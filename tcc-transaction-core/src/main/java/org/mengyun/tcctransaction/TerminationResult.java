@@ -0,0 +1,87 @@
+package org.mengyun.tcctransaction;
+
+import org.mengyun.tcctransaction.api.TransactionStatus;
+
+import javax.transaction.xa.Xid;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * outcome of confirming or cancelling a transaction, one ParticipantResult per participant invoked,
+ * participants completed by an earlier attempt are not invoked again.
+ * the transaction record is deleted only if all participants succeeded, otherwise it is left to the recovery job.
+ */
+public class TerminationResult {
+
+    private final Xid xid;
+
+    private final TransactionStatus status;
+
+    private final List<ParticipantResult> participantResults;
+
+    public TerminationResult(Xid xid, TransactionStatus status, List<ParticipantResult> participantResults) {
+        this.xid = xid;
+        this.status = status;
+        this.participantResults = Collections.unmodifiableList(new ArrayList<ParticipantResult>(participantResults));
+    }
+
+    public Xid getXid() {
+        return xid;
+    }
+
+    /**
+     * CONFIRMING for commit, CANCELLING for rollback.
+     */
+    public TransactionStatus getStatus() {
+        return status;
+    }
+
+    public List<ParticipantResult> getParticipantResults() {
+        return participantResults;
+    }
+
+    public boolean isSuccessful() {
+        for (ParticipantResult participantResult : participantResults) {
+            if (!participantResult.isSuccessful()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<Throwable> getFailures() {
+        List<Throwable> failures = new ArrayList<Throwable>();
+
+        for (ParticipantResult participantResult : participantResults) {
+            if (!participantResult.isSuccessful()) {
+                failures.add(participantResult.getFailure());
+            }
+        }
+        return failures;
+    }
+
+    public static class ParticipantResult {
+
+        private final Participant participant;
+
+        private final Throwable failure;
+
+        public ParticipantResult(Participant participant, Throwable failure) {
+            this.participant = participant;
+            this.failure = failure;
+        }
+
+        public Participant getParticipant() {
+            return participant;
+        }
+
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        public boolean isSuccessful() {
+            return failure == null;
+        }
+    }
+}
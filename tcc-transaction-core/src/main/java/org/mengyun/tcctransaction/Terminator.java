@@ -2,11 +2,10 @@ package org.mengyun.tcctransaction;
 
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionContextEditor;
-import org.mengyun.tcctransaction.support.FactoryBuilder;
+import org.mengyun.tcctransaction.support.TerminatorInvoker;
 import org.mengyun.tcctransaction.utils.StringUtils;
 
 import java.io.Serializable;
-import java.lang.reflect.Method;
 
 /**
  * Created by changmingxie on 10/30/15.
@@ -27,15 +26,10 @@ public class Terminator implements Serializable {
 
             try {
 
-                Object target = FactoryBuilder.factoryOf(invocationContext.getTargetClass()).getInstance();
-
-                Method method = null;
-
-                method = target.getClass().getMethod(invocationContext.getMethodName(), invocationContext.getParameterTypes());
-
-                FactoryBuilder.factoryOf(transactionContextEditorClass).getInstance().set(transactionContext, target, method, invocationContext.getArgs());
-
-                return method.invoke(target, invocationContext.getArgs());
+                return TerminatorInvoker.invokerOf(invocationContext.getTargetClass(),
+                        invocationContext.getMethodName(),
+                        invocationContext.getParameterTypes(),
+                        transactionContextEditorClass).invoke(transactionContext, invocationContext.getArgs());
 
             } catch (Exception e) {
                 throw new SystemException(e);
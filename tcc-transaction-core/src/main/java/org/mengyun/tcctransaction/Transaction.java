@@ -9,10 +9,15 @@ import org.mengyun.tcctransaction.common.TransactionType;
 import javax.transaction.xa.Xid;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Created by changmingxie on 10/26/15.
@@ -35,10 +40,29 @@ public class Transaction implements Serializable {
 
     private long version = 1;
 
-    private List<Participant> participants = new ArrayList<Participant>();
+    private List<Participant> participants = new ArrayList<Participant>(4);
 
     private Map<String, Object> attachments = new ConcurrentHashMap<String, Object>();
 
+    /**
+     * bit i set once participants[i] is confirmed/cancelled, so retries skip it.
+     * persisted by the repositories next to the content (see TransactionRepository.updateCompletion), not inside it.
+     */
+    private transient byte[] completedParticipants;
+
+    /**
+     * the instance whose DurableTerminationQueue terminates this transaction and until when its lease runs, null and 0 if none.
+     * persisted by the repositories next to the content, a repository that does not persist them reads back null and 0.
+     */
+    private transient volatile String owner;
+
+    private transient volatile long leaseExpireTimeMillis;
+
+    /**
+     * what the repositories and the try timeout track of this instance, not part of the content.
+     */
+    private transient TransientState transientState;
+
     public Transaction() {
 
     }
@@ -62,13 +86,35 @@ public class Transaction implements Serializable {
         this.transactionType = transactionType;
     }
 
-    public void enlistParticipant(Participant participant) {
+    public synchronized void enlistParticipant(Participant participant) {
         participants.add(participant);
+
+        TransientState state = transientState();
+        state.unflushedEnlistment = true;
+        state.contentChanged = true;
+    }
+
+    public boolean isUnpersisted() {
+        return transientState().unpersisted;
+    }
+
+    public void markUnpersisted() {
+        transientState().unpersisted = true;
+    }
+
+    public boolean hasUnflushedEnlistment() {
+        return transientState().unflushedEnlistment;
+    }
+
+    public void markFlushed() {
+        TransientState state = transientState();
+        state.unpersisted = false;
+        state.unflushedEnlistment = false;
     }
 
 
     public Xid getXid() {
-        return xid.clone();
+        return xid;
     }
 
     public TransactionStatus getStatus() {
@@ -90,18 +136,286 @@ public class Transaction implements Serializable {
 
 
     public void commit() {
+        terminate(true);
+    }
 
-        for (Participant participant : participants) {
-            participant.commit();
+    public void rollback() {
+        terminate(false);
+    }
+
+    private void terminate(boolean isCommit) {
+        for (int i = 0; i < participants.size(); i++) {
+            if (!isParticipantCompleted(i)) {
+                terminate(participants.get(i), isCommit);
+                markParticipantCompleted(i);
+            }
         }
     }
 
-    public void rollback() {
-        for (Participant participant : participants) {
+    /**
+     * confirm all participants at the same time on the executor, falls back to serial commit if executor is null.
+     * failures of all participants are gathered into a ParallelTerminationException.
+     */
+    public void commit(ExecutorService executorService) {
+        terminate(executorService, true);
+    }
+
+    /**
+     * cancel all participants at the same time on the executor, falls back to serial rollback if executor is null.
+     * failures of all participants are gathered into a ParallelTerminationException.
+     */
+    public void rollback(ExecutorService executorService) {
+        terminate(executorService, false);
+    }
+
+    private void terminate(ExecutorService executorService, final boolean isCommit) {
+
+        List<Integer> pendingIndexes = getPendingParticipantIndexes();
+
+        if (executorService == null || pendingIndexes.size() <= 1) {
+            terminate(isCommit);
+            return;
+        }
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(pendingIndexes.size() - 1);
+
+        for (int i = 1; i < pendingIndexes.size(); i++) {
+            final int index = pendingIndexes.get(i);
+            futures.add(executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    terminate(participants.get(index), isCommit);
+                    markParticipantCompleted(index);
+                    return null;
+                }
+            }));
+        }
+
+        List<Throwable> failures = new ArrayList<Throwable>();
+
+        //the first participant runs on the caller thread, saves one hand-off.
+        try {
+            terminate(participants.get(pendingIndexes.get(0)), isCommit);
+            markParticipantCompleted(pendingIndexes.get(0));
+        } catch (Throwable throwable) {
+            failures.add(throwable);
+        }
+
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                failures.add(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failures.add(e);
+                break;
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new ParallelTerminationException(failures);
+        }
+    }
+
+    static void terminate(Participant participant, boolean isCommit) {
+        if (isCommit) {
+            participant.commit();
+        } else {
             participant.rollback();
         }
     }
 
+    /**
+     * indexes of the participants not confirmed/cancelled yet, in enlistment order.
+     */
+    public List<Integer> getPendingParticipantIndexes() {
+        List<Integer> pendingIndexes = new ArrayList<Integer>(participants.size());
+
+        for (int i = 0; i < participants.size(); i++) {
+            if (!isParticipantCompleted(i)) {
+                pendingIndexes.add(i);
+            }
+        }
+        return pendingIndexes;
+    }
+
+    public synchronized boolean isParticipantCompleted(int index) {
+        return completedParticipants != null
+                && (index >> 3) < completedParticipants.length
+                && (completedParticipants[index >> 3] & (1 << (index & 7))) != 0;
+    }
+
+    public synchronized void markParticipantCompleted(int index) {
+
+        if (completedParticipants == null || (index >> 3) >= completedParticipants.length) {
+            completedParticipants = Arrays.copyOf(completedParticipants == null ? new byte[0] : completedParticipants, (index >> 3) + 1);
+        }
+
+        completedParticipants[index >> 3] |= 1 << (index & 7);
+        transientState().completionChanged = true;
+    }
+
+    /**
+     * a copy of the completion bits, null if no participant completed yet.
+     */
+    public synchronized byte[] getCompletedParticipants() {
+        return completedParticipants == null ? null : completedParticipants.clone();
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public long getLeaseExpireTimeMillis() {
+        return leaseExpireTimeMillis;
+    }
+
+    public void setLease(String owner, long leaseExpireTimeMillis) {
+        this.owner = owner;
+        this.leaseExpireTimeMillis = leaseExpireTimeMillis;
+    }
+
+    /**
+     * adds the persisted completion bits, bits are only ever set so merging keeps whichever copy is more complete.
+     */
+    public synchronized void mergeCompletedParticipants(byte[] bits) {
+
+        if (bits == null || bits.length == 0) {
+            return;
+        }
+
+        if (completedParticipants == null || completedParticipants.length < bits.length) {
+            completedParticipants = Arrays.copyOf(completedParticipants == null ? new byte[0] : completedParticipants, bits.length);
+        }
+
+        for (int i = 0; i < bits.length; i++) {
+            completedParticipants[i] |= bits[i];
+        }
+    }
+
+    public int getSerializedSize() {
+        return transientState().serializedSize;
+    }
+
+    public void setSerializedSize(int serializedSize) {
+        transientState().serializedSize = serializedSize;
+    }
+
+    public synchronized void setParallelCancelOnTryTimeout(boolean parallelCancel) {
+        transientState().parallelCancelOnTryTimeout = parallelCancel;
+    }
+
+    public synchronized boolean isParallelCancelOnTryTimeout() {
+        return transientState().parallelCancelOnTryTimeout;
+    }
+
+    /**
+     * moves a transaction still TRYING to CANCELLING, returns true if it is to be cancelled now.
+     * returns false if the try phase has ended meanwhile, or if try calls are in flight: the cancel is then due
+     * when the last of them ends (see endTryCall).
+     */
+    public synchronized boolean expireTrying() {
+
+        if (status != TransactionStatus.TRYING) {
+            return false;
+        }
+
+        TransientState state = transientState();
+
+        status = TransactionStatus.CANCELLING;
+        state.tryTimedOut = true;
+        return state.tryCallCount == 0;
+    }
+
+    /**
+     * counts a participant try call in, returns false if the try has timed out and the call must not be made.
+     */
+    public synchronized boolean beginTryCall() {
+
+        TransientState state = transientState();
+
+        if (state.tryTimedOut) {
+            return false;
+        }
+
+        state.tryCallCount++;
+        return true;
+    }
+
+    /**
+     * counts a participant try call out, returns true if it was the last one in flight when the try timed out,
+     * the cancel deferred by expireTrying is then due.
+     */
+    public synchronized boolean endTryCall() {
+        TransientState state = transientState();
+        state.tryCallCount--;
+        return state.tryTimedOut && state.tryCallCount == 0;
+    }
+
+    public synchronized boolean isTryTimedOut() {
+        return transientState().tryTimedOut;
+    }
+
+    public synchronized boolean isContentChanged() {
+        return transientState().contentChanged;
+    }
+
+    /**
+     * to be called after changing the attachments of a transaction already written, so the next update writes the whole content.
+     */
+    public synchronized void markContentChanged() {
+        TransientState state = transientState();
+        state.contentChanged = true;
+        state.attachmentsChanged = true;
+    }
+
+    /**
+     * clears the flag before the content is serialized and returns whether it was set,
+     * a participant enlisted meanwhile sets it again.
+     */
+    public synchronized boolean clearContentChanged() {
+        TransientState state = transientState();
+        boolean changed = state.contentChanged;
+        state.contentChanged = false;
+        return changed;
+    }
+
+    /**
+     * the participants enlisted since the content was last written, null if the whole content has to be rewritten.
+     */
+    public synchronized List<Participant> getUnpersistedParticipants() {
+
+        TransientState state = transientState();
+
+        if (state.attachmentsChanged || state.persistedParticipantCount > participants.size()) {
+            return null;
+        }
+
+        return new ArrayList<Participant>(participants.subList(state.persistedParticipantCount, participants.size()));
+    }
+
+    public synchronized int getPersistedParticipantCount() {
+        return transientState().persistedParticipantCount;
+    }
+
+    /**
+     * records that the content written (or read) holds the first participantCount participants and the current attachments.
+     */
+    public synchronized void markContentPersisted(int participantCount) {
+        TransientState state = transientState();
+        state.persistedParticipantCount = participantCount;
+        state.attachmentsChanged = false;
+    }
+
+    public synchronized boolean isCompletionChanged() {
+        return transientState().completionChanged;
+    }
+
+    public synchronized void markCompletionPersisted() {
+        transientState().completionChanged = false;
+    }
+
     public int getRetriedCount() {
         return retriedCount;
     }
@@ -134,17 +448,94 @@ public class Transaction implements Serializable {
         return lastUpdateTime;
     }
 
+    public long getLastUpdateTimeMillis() {
+        return lastUpdateTime.getTime();
+    }
+
     public void setLastUpdateTime(Date date) {
         this.lastUpdateTime = date;
     }
 
+    public void setLastUpdateTime(long lastUpdateTime) {
+        this.lastUpdateTime = new Date(lastUpdateTime);
+    }
+
     public Date getCreateTime() {
         return createTime;
     }
 
+    public long getCreateTimeMillis() {
+        return createTime.getTime();
+    }
+
     public void updateTime() {
         this.lastUpdateTime = new Date();
     }
 
+    /**
+     * created on first use, deserializers skip the transient fields and some skip the constructors too.
+     */
+    private synchronized TransientState transientState() {
+        if (transientState == null) {
+            transientState = new TransientState();
+        }
+        return transientState;
+    }
 
+    /**
+     * the transient write-tracking and try timeout state, guarded by the lock of the transaction like the methods using it.
+     */
+    private static class TransientState {
+
+        /**
+         * true while the transaction only lives in memory, the record is created by the first flush.
+         */
+        boolean unpersisted = false;
+
+        /**
+         * true while enlisted participants have not been written to the repository yet.
+         */
+        boolean unflushedEnlistment = false;
+
+        /**
+         * true while participants or attachments changed since the content was last written, a status-only update then won't do.
+         */
+        boolean contentChanged = false;
+
+        /**
+         * true while attachments changed since the content was last written, appending the new participants then won't do.
+         */
+        boolean attachmentsChanged = false;
+
+        /**
+         * participants[0, persistedParticipantCount) are written to the repository, a repository keeping a participant log
+         * appends only the ones enlisted after.
+         */
+        int persistedParticipantCount = 0;
+
+        /**
+         * true while participants completed since the bits were last persisted.
+         */
+        boolean completionChanged = false;
+
+        /**
+         * true once the try timeout moved the transaction from TRYING to CANCELLING.
+         */
+        boolean tryTimedOut = false;
+
+        /**
+         * whether the cancel of a timed out try fans out the participants.
+         */
+        boolean parallelCancelOnTryTimeout = false;
+
+        /**
+         * participant try calls in flight, the cancel of a timed out try waits for them.
+         */
+        int tryCallCount = 0;
+
+        /**
+         * bytes of the serialized content last written or read by the repository, 0 if unknown, weighs the transaction in caches.
+         */
+        int serializedSize;
+    }
 }
@@ -5,10 +5,26 @@ import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.api.TransactionXid;
 import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.support.DurableTerminationQueue;
+import org.mengyun.tcctransaction.support.HashedWheelTimer;
+import org.mengyun.tcctransaction.support.TransactionDeleteQueue;
 
+import javax.transaction.xa.Xid;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * Created by changmingxie on 10/26/15.
@@ -19,10 +35,31 @@ public class TransactionManager {
 
     private TransactionRepository transactionRepository;
 
-    private static final ThreadLocal<Deque<Transaction>> CURRENT = new ThreadLocal<Deque<Transaction>>();
+    /**
+     * holds the only transaction of the thread directly, a deque is allocated only when transactions are nested,
+     * so short-lived (virtual) threads do not pay for a collection per thread.
+     */
+    private static final ThreadLocal<Object> CURRENT = new ThreadLocal<Object>();
 
     private ExecutorService executorService;
 
+    private ExecutorService participantExecutorService;
+
+    private boolean parallelTerminate = false;
+
+    private boolean coalesceEnlistment = false;
+
+    private TransactionDeleteQueue transactionDeleteQueue;
+
+    private DurableTerminationQueue durableTerminationQueue;
+
+    private HashedWheelTimer tryTimeoutTimer;
+
+    /**
+     * pending try timeouts of root transactions, removed when the try phase ends or the timeout fires.
+     */
+    private final ConcurrentHashMap<Xid, HashedWheelTimer.Timeout> tryTimeouts = new ConcurrentHashMap<Xid, HashedWheelTimer.Timeout>();
+
     public void setTransactionRepository(TransactionRepository transactionRepository) {
         this.transactionRepository = transactionRepository;
     }
@@ -31,6 +68,80 @@ public class TransactionManager {
         this.executorService = executorService;
     }
 
+    public void setParticipantExecutorService(ExecutorService participantExecutorService) {
+        this.participantExecutorService = participantExecutorService;
+    }
+
+    public void setParallelTerminate(boolean parallelTerminate) {
+        this.parallelTerminate = parallelTerminate;
+    }
+
+    public boolean isParallelTerminate() {
+        return parallelTerminate;
+    }
+
+    /**
+     * when enabled, creating the transaction record and persisting enlisted participants is deferred
+     * until a try call carrying the transaction context is about to be made, or the try phase ends.
+     * each such call still costs one write, the saving is the create at begin and the writes of participants
+     * whose try carries no context, which are merged into the next write.
+     */
+    public void setCoalesceEnlistment(boolean coalesceEnlistment) {
+        this.coalesceEnlistment = coalesceEnlistment;
+    }
+
+    public boolean isCoalesceEnlistment() {
+        return coalesceEnlistment;
+    }
+
+    /**
+     * when set, the records of successfully confirmed or cancelled transactions are deleted in batches off the calling thread.
+     */
+    public void setTransactionDeleteQueue(TransactionDeleteQueue transactionDeleteQueue) {
+        this.transactionDeleteQueue = transactionDeleteQueue;
+    }
+
+    public TransactionDeleteQueue getTransactionDeleteQueue() {
+        return transactionDeleteQueue;
+    }
+
+    /**
+     * true if the transaction is finished and its record is only waiting in the delete queue.
+     */
+    public boolean isDeletePending(Xid xid) {
+        return transactionDeleteQueue != null && transactionDeleteQueue.isPending(xid);
+    }
+
+    /**
+     * when set, async confirms/cancels go to the durable queue instead of the async executor,
+     * the executor is still used whenever the queue is full.
+     */
+    public void setDurableTerminationQueue(DurableTerminationQueue durableTerminationQueue) {
+        this.durableTerminationQueue = durableTerminationQueue;
+    }
+
+    public DurableTerminationQueue getDurableTerminationQueue() {
+        return durableTerminationQueue;
+    }
+
+    /**
+     * true if the transaction is waiting in or being terminated by the durable termination queue.
+     */
+    public boolean isTerminationPending(Xid xid) {
+        return durableTerminationQueue != null && durableTerminationQueue.isPending(xid);
+    }
+
+    /**
+     * timer enforcing the tryTimeout of root compensable methods, without it tryTimeout is ignored.
+     */
+    public void setTryTimeoutTimer(HashedWheelTimer tryTimeoutTimer) {
+        this.tryTimeoutTimer = tryTimeoutTimer;
+    }
+
+    public HashedWheelTimer getTryTimeoutTimer() {
+        return tryTimeoutTimer;
+    }
+
     public TransactionManager() {
 
 
@@ -38,14 +149,14 @@ public class TransactionManager {
 
     public Transaction begin(Object uniqueIdentify) {
         Transaction transaction = new Transaction(uniqueIdentify,TransactionType.ROOT);
-        transactionRepository.create(transaction);
+        create(transaction);
         registerTransaction(transaction);
         return transaction;
     }
 
     public Transaction begin() {
         Transaction transaction = new Transaction(TransactionType.ROOT);
-        transactionRepository.create(transaction);
+        create(transaction);
         registerTransaction(transaction);
         return transaction;
     }
@@ -53,7 +164,7 @@ public class TransactionManager {
     public Transaction propagationNewBegin(TransactionContext transactionContext) {
 
         Transaction transaction = new Transaction(transactionContext);
-        transactionRepository.create(transaction);
+        create(transaction);
 
         registerTransaction(transaction);
         return transaction;
@@ -72,21 +183,42 @@ public class TransactionManager {
     }
 
     public void commit(boolean asyncCommit) {
+        commit(asyncCommit, false);
+    }
 
-        final Transaction transaction = getCurrentTransaction();
+    public void commit(boolean asyncCommit, final boolean parallelCommit) {
+        commit(getCurrentTransaction(), asyncCommit, parallelCommit);
+    }
 
-        transaction.changeStatus(TransactionStatus.CONFIRMING);
+    /**
+     * commits the given transaction, which need not be bound to the calling thread.
+     */
+    public void commit(final Transaction transaction, boolean asyncCommit, final boolean parallelCommit) {
 
-        transactionRepository.update(transaction);
+        if (!endTrying(transaction, TransactionStatus.CONFIRMING)) {
+            throw new TryTimeoutException(transaction.getXid());
+        }
+
+        if (asyncCommit && durableTerminationQueue != null) {
+            //the owner goes with the CONFIRMING status, no write of its own.
+            durableTerminationQueue.lease(transaction);
+        }
+
+        persist(transaction);
 
         if (asyncCommit) {
+
+            if (durableTerminationQueue != null && durableTerminationQueue.offer(transaction, getParticipantExecutorService(parallelCommit))) {
+                return;
+            }
+
             try {
                 Long statTime = System.currentTimeMillis();
 
                 executorService.submit(new Runnable() {
                     @Override
                     public void run() {
-                        commitTransaction(transaction);
+                        commitTransaction(transaction, parallelCommit);
                     }
                 });
                 logger.debug("async submit cost time:" + (System.currentTimeMillis() - statTime));
@@ -95,25 +227,45 @@ public class TransactionManager {
                 throw new ConfirmingException(commitException);
             }
         } else {
-            commitTransaction(transaction);
+            commitTransaction(transaction, parallelCommit);
         }
     }
 
-
     public void rollback(boolean asyncRollback) {
+        rollback(asyncRollback, false);
+    }
 
-        final Transaction transaction = getCurrentTransaction();
-        transaction.changeStatus(TransactionStatus.CANCELLING);
+    public void rollback(boolean asyncRollback, final boolean parallelRollback) {
+        rollback(getCurrentTransaction(), asyncRollback, parallelRollback);
+    }
+
+    /**
+     * rolls back the given transaction, which need not be bound to the calling thread.
+     */
+    public void rollback(final Transaction transaction, boolean asyncRollback, final boolean parallelRollback) {
+
+        if (!endTrying(transaction, TransactionStatus.CANCELLING)) {
+            //already being cancelled by the try timeout.
+            return;
+        }
 
-        transactionRepository.update(transaction);
+        if (asyncRollback && durableTerminationQueue != null) {
+            durableTerminationQueue.lease(transaction);
+        }
+
+        persist(transaction);
 
         if (asyncRollback) {
 
+            if (durableTerminationQueue != null && durableTerminationQueue.offer(transaction, getParticipantExecutorService(parallelRollback))) {
+                return;
+            }
+
             try {
                 executorService.submit(new Runnable() {
                     @Override
                     public void run() {
-                        rollbackTransaction(transaction);
+                        rollbackTransaction(transaction, parallelRollback);
                     }
                 });
             } catch (Throwable rollbackException) {
@@ -122,60 +274,407 @@ public class TransactionManager {
             }
         } else {
 
-            rollbackTransaction(transaction);
+            rollbackTransaction(transaction, parallelRollback);
+        }
+    }
+
+    public CompletionStage<TerminationResult> commitAsync() {
+        return commitAsync(getCurrentTransaction(), false);
+    }
+
+    /**
+     * marks the transaction CONFIRMING and returns at once, participants are confirmed on the async executor
+     * (or each on the participant executor if parallel). the stage completes with the outcome of every participant,
+     * it completes exceptionally with ConfirmingException if the work could not be submitted or the record could not be deleted.
+     */
+    public CompletionStage<TerminationResult> commitAsync(Transaction transaction, boolean parallelCommit) {
+
+        if (!endTrying(transaction, TransactionStatus.CONFIRMING)) {
+            return failed(new TryTimeoutException(transaction.getXid()));
         }
+
+        persist(transaction);
+
+        return terminateAsync(transaction, true, parallelCommit);
+    }
+
+    public CompletionStage<TerminationResult> rollbackAsync() {
+        return rollbackAsync(getCurrentTransaction(), false);
     }
 
+    /**
+     * marks the transaction CANCELLING and returns at once, see commitAsync.
+     */
+    public CompletionStage<TerminationResult> rollbackAsync(Transaction transaction, boolean parallelRollback) {
+
+        if (!endTrying(transaction, TransactionStatus.CANCELLING)) {
+            return failed(new TryTimeoutException(transaction.getXid()));
+        }
+
+        persist(transaction);
+
+        return terminateAsync(transaction, false, parallelRollback);
+    }
+
+    /**
+     * returns the executor to fan out participants on, or null if participants should be terminated one by one.
+     */
+    public ExecutorService getParticipantExecutorService(boolean parallel) {
+        return (parallel || parallelTerminate) ? participantExecutorService : null;
+    }
+
+    /**
+     * cancels the root transaction if its try phase has not ended within timeoutMillis, so the resources reserved by
+     * the participants tried so far are released at once instead of after recoverDuration.
+     * the cancel runs on the async executor once no participant try call is in flight (see beginTryCall), it does not
+     * wait for the body of the root method, which cannot be interrupted: its later enlistments, try calls and the commit
+     * fail with TryTimeoutException.
+     */
+    public void scheduleTryTimeout(final Transaction transaction, long timeoutMillis, final boolean parallelCancel) {
+
+        if (tryTimeoutTimer == null || timeoutMillis <= 0) {
+            return;
+        }
+
+        transaction.setParallelCancelOnTryTimeout(parallelCancel);
+
+        tryTimeouts.put(transaction.getXid(), tryTimeoutTimer.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                tryTimeouts.remove(transaction.getXid());
+                //expiring takes the transaction lock, which enlistments hold across a repository write, not on the timer thread.
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        expireTrying(transaction);
+                    }
+                }, "expire the try phase of transaction " + transaction.getXid());
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * stops the try timeout of a transaction whose try phase ended without confirm or cancel, e.g. on a delay cancel exception.
+     * the timeout may still fire concurrently, which expireTrying tolerates.
+     */
+    public void cancelTryTimeout(Transaction transaction) {
+
+        if (transaction == null) {
+            return;
+        }
+
+        HashedWheelTimer.Timeout tryTimeout = tryTimeouts.remove(transaction.getXid());
+
+        if (tryTimeout != null) {
+            tryTimeout.cancel();
+        }
+    }
+
+    /**
+     * brackets a participant try call: a cancel reaching the participant before its try would be followed by the try,
+     * whose reservation nothing releases, so the try timeout defers the cancel until no try call is in flight.
+     * throws TryTimeoutException if the try has timed out, the call must not be made.
+     */
+    public void beginTryCall(Transaction transaction) {
+        if (!transaction.beginTryCall()) {
+            throw new TryTimeoutException(transaction.getXid());
+        }
+    }
+
+    public void endTryCall(final Transaction transaction) {
+
+        if (!transaction.endTryCall()) {
+            return;
+        }
+
+        logger.warn("try phase of compensable transaction " + transaction.getXid() + " timed out, cancels it as its last try call returned.");
+
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                cancelTimedOut(transaction);
+            }
+        }, "cancel the timed out transaction " + transaction.getXid());
+    }
+
+    private void expireTrying(Transaction transaction) {
+
+        if (!transaction.expireTrying()) {
+            return;
+        }
+
+        logger.warn("try phase of compensable transaction " + transaction.getXid() + " timed out, cancels it.");
+
+        cancelTimedOut(transaction);
+    }
+
+    private void cancelTimedOut(Transaction transaction) {
 
-    private void commitTransaction(Transaction transaction) {
         try {
-            transaction.commit();
-            transactionRepository.delete(transaction);
+            persist(transaction);
+        } catch (Throwable persistException) {
+            logger.warn("failed to persist the timed out transaction " + transaction.getXid() + ", recovery job will cancel it.", persistException);
+            return;
+        }
+
+        try {
+            rollbackTransaction(transaction, transaction.isParallelCancelOnTryTimeout());
+        } catch (CancellingException e) {
+            //logged by rollbackTransaction, left to the recovery job.
+        }
+    }
+
+    /**
+     * runs the task on the async executor, or on the calling thread without one.
+     */
+    private void execute(Runnable task, String description) {
+        try {
+            if (executorService == null) {
+                task.run();
+            } else {
+                executorService.execute(task);
+            }
+        } catch (Throwable submitException) {
+            logger.warn("failed to " + description + ", recovery job will cancel it.", submitException);
+        }
+    }
+
+    /**
+     * ends the try phase, stopping its timeout, and moves the transaction to status.
+     * returns false if the try timeout has already moved it to CANCELLING.
+     */
+    private boolean endTrying(Transaction transaction, TransactionStatus status) {
+        synchronized (transaction) {
+            cancelTryTimeout(transaction);
+
+            if (transaction.isTryTimedOut()) {
+                return false;
+            }
+
+            transaction.changeStatus(status);
+            return true;
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable throwable) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    private void commitTransaction(Transaction transaction, boolean parallelCommit) {
+        try {
+            transaction.commit(getParticipantExecutorService(parallelCommit));
+            delete(transaction);
         } catch (Throwable commitException) {
             logger.warn("compensable transaction confirm failed, recovery job will try to confirm later.", commitException);
+            updateCompletion(transaction);
             throw new ConfirmingException(commitException);
         }
     }
 
-    private void rollbackTransaction(Transaction transaction) {
+    private void rollbackTransaction(Transaction transaction, boolean parallelRollback) {
         try {
-            transaction.rollback();
-            transactionRepository.delete(transaction);
+            transaction.rollback(getParticipantExecutorService(parallelRollback));
+            delete(transaction);
         } catch (Throwable rollbackException) {
             logger.warn("compensable transaction rollback failed, recovery job will try to rollback later.", rollbackException);
+            updateCompletion(transaction);
             throw new CancellingException(rollbackException);
         }
     }
 
+    private CompletableFuture<TerminationResult> terminateAsync(final Transaction transaction, final boolean isCommit, boolean parallel) {
+
+        final List<Integer> pendingIndexes = transaction.getPendingParticipantIndexes();
+
+        ExecutorService participantExecutor = getParticipantExecutorService(parallel);
+
+        CompletableFuture<List<TerminationResult.ParticipantResult>> participantResults;
+
+        if (participantExecutor == null || pendingIndexes.size() <= 1) {
+
+            participantResults = submit(new Callable<List<TerminationResult.ParticipantResult>>() {
+                @Override
+                public List<TerminationResult.ParticipantResult> call() {
+                    List<TerminationResult.ParticipantResult> results = new ArrayList<TerminationResult.ParticipantResult>(pendingIndexes.size());
+                    for (int index : pendingIndexes) {
+                        results.add(terminateParticipant(transaction, index, isCommit));
+                    }
+                    return results;
+                }
+            }, executorService);
+
+        } else {
+
+            final List<CompletableFuture<TerminationResult.ParticipantResult>> futures = new ArrayList<CompletableFuture<TerminationResult.ParticipantResult>>(pendingIndexes.size());
+
+            for (final int index : pendingIndexes) {
+                futures.add(submit(new Callable<TerminationResult.ParticipantResult>() {
+                    @Override
+                    public TerminationResult.ParticipantResult call() {
+                        return terminateParticipant(transaction, index, isCommit);
+                    }
+                }, participantExecutor));
+            }
+
+            participantResults = CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]))
+                    .thenApply(new Function<Void, List<TerminationResult.ParticipantResult>>() {
+                        @Override
+                        public List<TerminationResult.ParticipantResult> apply(Void ignore) {
+                            List<TerminationResult.ParticipantResult> results = new ArrayList<TerminationResult.ParticipantResult>(futures.size());
+                            for (CompletableFuture<TerminationResult.ParticipantResult> future : futures) {
+                                results.add(future.join());
+                            }
+                            return results;
+                        }
+                    });
+        }
+
+        final CompletableFuture<TerminationResult> result = new CompletableFuture<TerminationResult>();
+
+        participantResults.whenComplete(new BiConsumer<List<TerminationResult.ParticipantResult>, Throwable>() {
+            @Override
+            public void accept(List<TerminationResult.ParticipantResult> results, Throwable throwable) {
+
+                if (throwable != null) {
+                    logger.warn(String.format("compensable transaction async %s submit failed, recovery job will try later.", isCommit ? "confirm" : "rollback"), throwable);
+                    result.completeExceptionally(isCommit ? new ConfirmingException(throwable) : new CancellingException(throwable));
+                    return;
+                }
+
+                TerminationResult terminationResult = new TerminationResult(transaction.getXid(), transaction.getStatus(), results);
+
+                if (!terminationResult.isSuccessful()) {
+                    logger.warn(String.format("compensable transaction %s failed, recovery job will try later.", isCommit ? "confirm" : "rollback"),
+                            new ParallelTerminationException(terminationResult.getFailures()));
+                    updateCompletion(transaction);
+                    result.complete(terminationResult);
+                    return;
+                }
+
+                try {
+                    delete(transaction);
+                    result.complete(terminationResult);
+                } catch (Throwable deleteException) {
+                    result.completeExceptionally(isCommit ? new ConfirmingException(deleteException) : new CancellingException(deleteException));
+                }
+            }
+        });
+
+        return result;
+    }
+
+    private void delete(Transaction transaction) {
+        if (transactionDeleteQueue == null || !transactionDeleteQueue.offer(transaction)) {
+            transactionRepository.delete(transaction);
+        }
+    }
+
+    private static TerminationResult.ParticipantResult terminateParticipant(Transaction transaction, int index, boolean isCommit) {
+
+        Participant participant = transaction.getParticipants().get(index);
+
+        try {
+            Transaction.terminate(participant, isCommit);
+            transaction.markParticipantCompleted(index);
+            return new TerminationResult.ParticipantResult(participant, null);
+        } catch (Throwable throwable) {
+            return new TerminationResult.ParticipantResult(participant, throwable);
+        }
+    }
+
+    /**
+     * remembers the participants already confirmed/cancelled after a partial failure, best effort:
+     * if it cannot be written the retries invoke those participants again, which they have to tolerate anyway.
+     */
+    private void updateCompletion(Transaction transaction) {
+        try {
+            transactionRepository.updateCompletion(transaction);
+        } catch (Throwable updateException) {
+            logger.warn("failed to persist completed participants of transaction " + transaction.getXid(), updateException);
+        }
+    }
+
+    /**
+     * runs the callable on the executor without parking the caller, the returned future also completes
+     * if the executor rejects the task or drops it (TerminateThreadPoolExecutor cancels dropped futures).
+     */
+    private static <T> CompletableFuture<T> submit(Callable<T> callable, Executor executor) {
+
+        final CompletableFuture<T> promise = new CompletableFuture<T>();
+
+        FutureTask<T> task = new FutureTask<T>(callable) {
+            @Override
+            protected void done() {
+                try {
+                    promise.complete(get());
+                } catch (ExecutionException e) {
+                    promise.completeExceptionally(e.getCause());
+                } catch (Throwable e) {
+                    promise.completeExceptionally(e);
+                }
+            }
+        };
+
+        try {
+            if (executor == null) {
+                task.run();
+            } else {
+                executor.execute(task);
+            }
+        } catch (Throwable submitException) {
+            promise.completeExceptionally(submitException);
+        }
+
+        return promise;
+    }
+
     public Transaction getCurrentTransaction() {
-        if (isTransactionActive()) {
-            return CURRENT.get().peek();
+        Object current = CURRENT.get();
+
+        if (current instanceof Transaction) {
+            return (Transaction) current;
+        } else if (current != null) {
+            return ((Deque<Transaction>) current).peek();
         }
         return null;
     }
 
     public boolean isTransactionActive() {
-        Deque<Transaction> transactions = CURRENT.get();
-        return transactions != null && !transactions.isEmpty();
+        return CURRENT.get() != null;
     }
 
 
     private void registerTransaction(Transaction transaction) {
 
-        if (CURRENT.get() == null) {
-            CURRENT.set(new LinkedList<Transaction>());
-        }
+        Object current = CURRENT.get();
 
-        CURRENT.get().push(transaction);
+        if (current == null) {
+            CURRENT.set(transaction);
+        } else if (current instanceof Transaction) {
+            Deque<Transaction> transactions = new ArrayDeque<Transaction>(4);
+            transactions.push((Transaction) current);
+            transactions.push(transaction);
+            CURRENT.set(transactions);
+        } else {
+            ((Deque<Transaction>) current).push(transaction);
+        }
     }
 
     public void cleanAfterCompletion(Transaction transaction) {
         if (isTransactionActive() && transaction != null) {
             Transaction currentTransaction = getCurrentTransaction();
             if (currentTransaction == transaction) {
-                CURRENT.get().pop();
-                if (CURRENT.get().size() == 0) {
+                Object current = CURRENT.get();
+                if (current instanceof Transaction) {
                     CURRENT.remove();
+                } else {
+                    Deque<Transaction> transactions = (Deque<Transaction>) current;
+                    transactions.pop();
+                    if (transactions.size() == 0) {
+                        CURRENT.remove();
+                    }
                 }
             } else {
                 throw new SystemException("Illegal transaction when clean after completion");
@@ -184,8 +683,114 @@ public class TransactionManager {
     }
 
     public void enlistParticipant(Participant participant) {
-        Transaction transaction = this.getCurrentTransaction();
-        transaction.enlistParticipant(participant);
-        transactionRepository.update(transaction);
+        enlistParticipant(this.getCurrentTransaction(), participant);
+    }
+
+    /**
+     * participants may be enlisted from several threads of a forked try phase, adding and persisting
+     * hold the transaction lock so every write sees the participants in enlistment order.
+     */
+    public void enlistParticipant(Transaction transaction, Participant participant) {
+        synchronized (transaction) {
+            if (transaction.isTryTimedOut()) {
+                throw new TryTimeoutException(transaction.getXid());
+            }
+
+            transaction.enlistParticipant(participant);
+
+            if (!coalesceEnlistment) {
+                persist(transaction);
+            }
+        }
+    }
+
+    /**
+     * writes the deferred record and enlistments of current transaction in one repository call,
+     * must be called before a try call carrying the transaction context leaves the process.
+     */
+    public void flushEnlistment() {
+        flushEnlistment(this.getCurrentTransaction());
+    }
+
+    public void flushEnlistment(Transaction transaction) {
+
+        if (transaction == null) {
+            return;
+        }
+
+        synchronized (transaction) {
+            if (transaction.isUnpersisted() || transaction.hasUnflushedEnlistment()) {
+                persist(transaction);
+            }
+        }
+    }
+
+    private void create(Transaction transaction) {
+        if (coalesceEnlistment) {
+            transaction.markUnpersisted();
+        } else {
+            transactionRepository.create(transaction);
+            transaction.markFlushed();
+        }
+    }
+
+    private void persist(Transaction transaction) {
+        synchronized (transaction) {
+            if (transaction.isUnpersisted()) {
+                transactionRepository.create(transaction);
+            } else {
+                transactionRepository.update(transaction);
+            }
+            transaction.markFlushed();
+        }
+    }
+
+    /**
+     * binds the current transaction to the thread running the task, so compensable calls made by the task
+     * enlist into the same transaction. returns the task itself if no transaction is active.
+     */
+    public Runnable wrap(final Runnable task) {
+
+        final Transaction transaction = getCurrentTransaction();
+
+        if (transaction == null) {
+            return task;
+        }
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                registerTransaction(transaction);
+                try {
+                    task.run();
+                } finally {
+                    cleanAfterCompletion(transaction);
+                }
+            }
+        };
+    }
+
+    /**
+     * see wrap(Runnable).
+     */
+    public <T> Callable<T> wrap(final Callable<T> task) {
+
+        final Transaction transaction = getCurrentTransaction();
+
+        if (transaction == null) {
+            return task;
+        }
+
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                registerTransaction(transaction);
+                try {
+                    return task.call();
+                } finally {
+                    cleanAfterCompletion(transaction);
+                }
+            }
+        };
     }
 }
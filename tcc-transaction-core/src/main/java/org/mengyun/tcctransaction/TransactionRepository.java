@@ -1,8 +1,10 @@
 package org.mengyun.tcctransaction;
 
 import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.repository.Page;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -15,9 +17,55 @@ public interface TransactionRepository {
 
     int update(Transaction transaction);
 
+    /**
+     * persists only which participants are completed (Transaction.getCompletedParticipants), called after a
+     * confirm/cancel attempt failed part way so that the retries skip the participants that already succeeded.
+     * a repository without a cheaper write rewrites the whole record.
+     */
+    default int updateCompletion(Transaction transaction) {
+        return update(transaction);
+    }
+
     int delete(Transaction transaction);
 
+    /**
+     * deletes the records of the given transactions in as few round trips as the store allows, returns the number deleted.
+     * a repository without a batch delete deletes them one by one.
+     */
+    default int deleteAll(List<Transaction> transactions) {
+
+        int deleted = 0;
+
+        for (Transaction transaction : transactions) {
+            deleted += delete(transaction);
+        }
+
+        return deleted;
+    }
+
+    /**
+     * moves the lease of the records owned by owner (Transaction.getOwner) to leaseExpireTime, returns the number renewed.
+     * a repository that does not persist owners renews nothing.
+     */
+    default int renewLease(String owner, Date leaseExpireTime) {
+        return 0;
+    }
+
     Transaction findByXid(TransactionXid xid);
 
     List<Transaction> findAllUnmodifiedSince(Date date);
+
+    /**
+     * at most pageSize of the transactions unmodified since date, starting after offset (null for the first page).
+     * a full scan pages through them with the returned next offset, so only one page is held in memory at a time.
+     * a repository that cannot page returns all of them as the only page.
+     */
+    default Page<Transaction> findAllUnmodifiedSince(Date date, String offset, int pageSize) {
+
+        if (offset != null) {
+            return new Page<Transaction>(Collections.<Transaction>emptyList(), null);
+        }
+
+        return new Page<Transaction>(findAllUnmodifiedSince(date), null);
+    }
 }
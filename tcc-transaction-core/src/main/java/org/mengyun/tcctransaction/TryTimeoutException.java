@@ -0,0 +1,13 @@
+package org.mengyun.tcctransaction;
+
+import javax.transaction.xa.Xid;
+
+/**
+ * the try phase outlasted the tryTimeout of the root compensable method, the transaction is being cancelled.
+ */
+public class TryTimeoutException extends RuntimeException {
+
+    public TryTimeoutException(Xid xid) {
+        super("try phase of transaction " + xid + " timed out, the transaction is cancelled.");
+    }
+}
@@ -1,15 +1,11 @@
 package org.mengyun.tcctransaction.interceptor;
 
 import org.aspectj.lang.ProceedingJoinPoint;
-import org.aspectj.lang.reflect.MethodSignature;
 import org.mengyun.tcctransaction.api.Compensable;
 import org.mengyun.tcctransaction.api.Propagation;
 import org.mengyun.tcctransaction.api.TransactionContext;
-import org.mengyun.tcctransaction.api.UniqueIdentity;
 import org.mengyun.tcctransaction.common.MethodRole;
-import org.mengyun.tcctransaction.support.FactoryBuilder;
 
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 
 /**
@@ -19,29 +15,35 @@ public class CompensableMethodContext {
 
     ProceedingJoinPoint pjp = null;
 
-    Method method = null;
-
-    Compensable compensable = null;
-
-    Propagation propagation = null;
+    CompensableMethodMetadata metadata = null;
 
     TransactionContext transactionContext = null;
 
     public CompensableMethodContext(ProceedingJoinPoint pjp) {
         this.pjp = pjp;
-        this.method = getCompensableMethod();
-        this.compensable = method.getAnnotation(Compensable.class);
-        this.propagation = compensable.propagation();
-        this.transactionContext = FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance().get(pjp.getTarget(), method, pjp.getArgs());
+        this.metadata = CompensableMethodMetadata.of(pjp);
+
+        if (metadata == null) {
+            throw new RuntimeException(String.format("join point not found method, point is : %s", pjp.getSignature().getName()));
+        }
+
+        this.transactionContext = metadata.getTransactionContextEditor().get(pjp.getTarget(), metadata.getMethod(), pjp.getArgs());
+    }
+
+    public ProceedingJoinPoint getJoinPoint() {
+        return pjp;
+    }
 
+    public CompensableMethodMetadata getMetadata() {
+        return metadata;
     }
 
     public Compensable getAnnotation() {
-        return compensable;
+        return metadata.getCompensable();
     }
 
     public Propagation getPropagation() {
-        return propagation;
+        return metadata.getPropagation();
     }
 
     public TransactionContext getTransactionContext() {
@@ -49,42 +51,20 @@ public class CompensableMethodContext {
     }
 
     public Method getMethod() {
-        return method;
+        return metadata.getMethod();
     }
 
     public Object getUniqueIdentity() {
-        Annotation[][] annotations = this.getMethod().getParameterAnnotations();
 
-        for (int i = 0; i < annotations.length; i++) {
-            for (Annotation annotation : annotations[i]) {
-                if (annotation.annotationType().equals(UniqueIdentity.class)) {
+        int index = metadata.getUniqueIdentityIndex();
 
-                    Object[] params = pjp.getArgs();
-                    Object unqiueIdentity = params[i];
-
-                    return unqiueIdentity;
-                }
-            }
-        }
-
-        return null;
+        return index < 0 ? null : pjp.getArgs()[index];
     }
 
+    public MethodRole getMethodRole(boolean isTransactionActive) {
 
-    private Method getCompensableMethod() {
-        Method method = ((MethodSignature) (pjp.getSignature())).getMethod();
-
-        if (method.getAnnotation(Compensable.class) == null) {
-            try {
-                method = pjp.getTarget().getClass().getMethod(method.getName(), method.getParameterTypes());
-            } catch (NoSuchMethodException e) {
-                return null;
-            }
-        }
-        return method;
-    }
+        Propagation propagation = metadata.getPropagation();
 
-    public MethodRole getMethodRole(boolean isTransactionActive) {
         if ((propagation.equals(Propagation.REQUIRED) && !isTransactionActive && transactionContext == null) ||
                 propagation.equals(Propagation.REQUIRES_NEW)) {
             return MethodRole.ROOT;
@@ -98,4 +78,4 @@ public class CompensableMethodContext {
     public Object proceed() throws Throwable {
         return this.pjp.proceed();
     }
-}
\ No newline at end of file
+}
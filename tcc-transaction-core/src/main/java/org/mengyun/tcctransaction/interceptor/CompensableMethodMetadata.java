@@ -0,0 +1,163 @@
+package org.mengyun.tcctransaction.interceptor;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.Propagation;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
+import org.mengyun.tcctransaction.api.UniqueIdentity;
+import org.mengyun.tcctransaction.support.FactoryBuilder;
+import org.mengyun.tcctransaction.utils.ReflectionUtils;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * immutable metadata of a compensable join point, resolved once per (signature method, target class)
+ * and shared by CompensableTransactionInterceptor and ResourceCoordinatorInterceptor.
+ */
+public final class CompensableMethodMetadata {
+
+    private static ConcurrentHashMap<MetadataKey, CompensableMethodMetadata> metadataMap = new ConcurrentHashMap<MetadataKey, CompensableMethodMetadata>();
+
+    private final Method signatureMethod;
+
+    private final Method method;
+
+    private final Compensable compensable;
+
+    private final Propagation propagation;
+
+    private final TransactionContextEditor transactionContextEditor;
+
+    private final Class<?> declaringType;
+
+    private final int uniqueIdentityIndex;
+
+    private CompensableMethodMetadata(Method signatureMethod, Method method, Class<?> targetClass) {
+        this.signatureMethod = signatureMethod;
+        this.method = method;
+        this.compensable = method.getAnnotation(Compensable.class);
+        this.propagation = compensable.propagation();
+        this.transactionContextEditor = FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance();
+        this.declaringType = ReflectionUtils.getDeclaringType(targetClass, method.getName(), method.getParameterTypes());
+        this.uniqueIdentityIndex = findUniqueIdentityIndex(method);
+    }
+
+    /**
+     * returns the metadata of the join point, or null if no @Compensable method is found for it.
+     */
+    public static CompensableMethodMetadata of(ProceedingJoinPoint pjp) {
+
+        Method signatureMethod = ((MethodSignature) pjp.getSignature()).getMethod();
+        Class<?> targetClass = pjp.getTarget().getClass();
+
+        MetadataKey key = new MetadataKey(signatureMethod, targetClass);
+
+        CompensableMethodMetadata metadata = metadataMap.get(key);
+
+        if (metadata == null) {
+
+            Method method = getCompensableMethod(signatureMethod, targetClass);
+
+            if (method == null) {
+                return null;
+            }
+
+            metadata = new CompensableMethodMetadata(signatureMethod, method, targetClass);
+
+            CompensableMethodMetadata existing = metadataMap.putIfAbsent(key, metadata);
+
+            if (existing != null) {
+                metadata = existing;
+            }
+        }
+
+        return metadata;
+    }
+
+    public Method getSignatureMethod() {
+        return signatureMethod;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public Compensable getCompensable() {
+        return compensable;
+    }
+
+    public Propagation getPropagation() {
+        return propagation;
+    }
+
+    public TransactionContextEditor getTransactionContextEditor() {
+        return transactionContextEditor;
+    }
+
+    public Class<?> getDeclaringType() {
+        return declaringType;
+    }
+
+    public int getUniqueIdentityIndex() {
+        return uniqueIdentityIndex;
+    }
+
+    private static Method getCompensableMethod(Method signatureMethod, Class<?> targetClass) {
+
+        if (signatureMethod.getAnnotation(Compensable.class) != null) {
+            return signatureMethod;
+        }
+
+        try {
+            Method method = targetClass.getMethod(signatureMethod.getName(), signatureMethod.getParameterTypes());
+            return method.getAnnotation(Compensable.class) != null ? method : null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static int findUniqueIdentityIndex(Method method) {
+
+        Annotation[][] annotations = method.getParameterAnnotations();
+
+        for (int i = 0; i < annotations.length; i++) {
+            for (Annotation annotation : annotations[i]) {
+                if (annotation.annotationType().equals(UniqueIdentity.class)) {
+                    return i;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    private static final class MetadataKey {
+
+        private final Method signatureMethod;
+
+        private final Class<?> targetClass;
+
+        MetadataKey(Method signatureMethod, Class<?> targetClass) {
+            this.signatureMethod = signatureMethod;
+            this.targetClass = targetClass;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (other == null || getClass() != other.getClass()) return false;
+
+            MetadataKey that = (MetadataKey) other;
+
+            return signatureMethod.equals(that.signatureMethod) && targetClass.equals(that.targetClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * signatureMethod.hashCode() + targetClass.hashCode();
+        }
+    }
+}
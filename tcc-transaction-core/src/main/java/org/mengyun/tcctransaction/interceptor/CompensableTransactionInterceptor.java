@@ -8,14 +8,24 @@ import org.mengyun.tcctransaction.NoExistedTransactionException;
 import org.mengyun.tcctransaction.SystemException;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.utils.ReflectionUtils;
 import org.mengyun.tcctransaction.utils.TransactionUtils;
 
+import javax.transaction.xa.Xid;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
 
 /**
  * Created by changmingxie on 10/30/15.
@@ -28,10 +38,22 @@ public class CompensableTransactionInterceptor {
 
     private Set<Class<? extends Exception>> delayCancelExceptions = new HashSet<Class<? extends Exception>>();
 
+    private ResourceCoordinatorInterceptor resourceCoordinatorInterceptor;
+
+    private final ConcurrentMap<Xid, InFlightTermination> inFlightTerminations = new ConcurrentHashMap<Xid, InFlightTermination>();
+
     public void setTransactionManager(TransactionManager transactionManager) {
         this.transactionManager = transactionManager;
     }
 
+    /**
+     * fuses participant enlistment into this interceptor, so one advice handles a compensable call
+     * and the separate resource coordinator aspect must not be applied.
+     */
+    public void setResourceCoordinatorInterceptor(ResourceCoordinatorInterceptor resourceCoordinatorInterceptor) {
+        this.resourceCoordinatorInterceptor = resourceCoordinatorInterceptor;
+    }
+
     public void setDelayCancelExceptions(Set<Class<? extends Exception>> delayCancelExceptions) {
         this.delayCancelExceptions.addAll(delayCancelExceptions);
     }
@@ -52,7 +74,7 @@ public class CompensableTransactionInterceptor {
             case PROVIDER:
                 return providerMethodProceed(compensableMethodContext);
             default:
-                return pjp.proceed();
+                return proceed(compensableMethodContext, resourceCoordinatorInterceptor == null ? null : transactionManager.getCurrentTransaction());
         }
     }
 
@@ -67,6 +89,10 @@ public class CompensableTransactionInterceptor {
 
         boolean asyncCancel = compensableMethodContext.getAnnotation().asyncCancel();
 
+        boolean parallelConfirm = compensableMethodContext.getAnnotation().parallelConfirm();
+
+        boolean parallelCancel = compensableMethodContext.getAnnotation().parallelCancel();
+
         Set<Class<? extends Exception>> allDelayCancelExceptions = new HashSet<Class<? extends Exception>>();
         allDelayCancelExceptions.addAll(this.delayCancelExceptions);
         allDelayCancelExceptions.addAll(Arrays.asList(compensableMethodContext.getAnnotation().delayCancelExceptions()));
@@ -75,21 +101,29 @@ public class CompensableTransactionInterceptor {
 
             transaction = transactionManager.begin(compensableMethodContext.getUniqueIdentity());
 
+            transactionManager.scheduleTryTimeout(transaction, compensableMethodContext.getAnnotation().tryTimeout(), parallelCancel);
+
             try {
-                returnValue = compensableMethodContext.proceed();
+                returnValue = proceed(compensableMethodContext, transaction);
             } catch (Throwable tryingException) {
 
                 if (!isDelayCancelException(tryingException, allDelayCancelExceptions)) {
 
                     logger.warn(String.format("compensable transaction trying failed. transaction content:%s", JSON.toJSONString(transaction)), tryingException);
 
-                    transactionManager.rollback(asyncCancel);
+                    transactionManager.rollback(asyncCancel, parallelCancel);
+                } else {
+                    transactionManager.cancelTryTimeout(transaction);
                 }
 
                 throw tryingException;
             }
 
-            transactionManager.commit(asyncConfirm);
+            if (isAsyncTrying(compensableMethodContext.getMethod(), returnValue)) {
+                return completeWhenTried(transaction, (CompletionStage<?>) returnValue, compensableMethodContext.getAnnotation(), allDelayCancelExceptions);
+            }
+
+            transactionManager.commit(asyncConfirm, parallelConfirm);
 
         } finally {
             transactionManager.cleanAfterCompletion(transaction);
@@ -107,38 +141,162 @@ public class CompensableTransactionInterceptor {
 
         boolean asyncCancel = compensableMethodContext.getAnnotation().asyncCancel();
 
-        try {
+        boolean parallelConfirm = compensableMethodContext.getAnnotation().parallelConfirm();
 
-            switch (TransactionStatus.valueOf(compensableMethodContext.getTransactionContext().getStatus())) {
-                case TRYING:
+        boolean parallelCancel = compensableMethodContext.getAnnotation().parallelCancel();
+
+        switch (TransactionStatus.valueOf(compensableMethodContext.getTransactionContext().getStatus())) {
+            case TRYING:
+                try {
                     transaction = transactionManager.propagationNewBegin(compensableMethodContext.getTransactionContext());
-                    return compensableMethodContext.proceed();
-                case CONFIRMING:
+                    return proceed(compensableMethodContext, transaction);
+                } finally {
+                    transactionManager.cleanAfterCompletion(transaction);
+                }
+            case CONFIRMING:
+                terminateOnce(compensableMethodContext.getTransactionContext(), TransactionStatus.CONFIRMING, asyncConfirm, parallelConfirm);
+                break;
+            case CANCELLING:
+                terminateOnce(compensableMethodContext.getTransactionContext(), TransactionStatus.CANCELLING, asyncCancel, parallelCancel);
+                break;
+        }
+
+        Method method = compensableMethodContext.getMethod();
+
+        return ReflectionUtils.getNullValue(method.getReturnType());
+    }
+
+    /**
+     * single flight per xid: a confirm/cancel arriving while the same one is in flight in this process (recovery retries,
+     * async confirms of several nodes) waits for it and shares its outcome instead of loading the record again
+     * and racing it on the repository.
+     */
+    private void terminateOnce(TransactionContext transactionContext, TransactionStatus status, boolean async, boolean parallel) throws Throwable {
+
+        InFlightTermination inFlight = new InFlightTermination(status);
+
+        while (true) {
+
+            InFlightTermination existing = inFlightTerminations.putIfAbsent(transactionContext.getXid(), inFlight);
+
+            if (existing == null) {
+                break;
+            }
+
+            try {
+                existing.future.get();
+
+                if (existing.status == status) {
+                    return;
+                }
+            } catch (ExecutionException e) {
+                if (existing.status == status) {
+                    throw e.getCause();
+                }
+            }
+            //a confirm and a cancel of one branch only overlap if the root changed its mind, this one goes next.
+        }
+
+        Transaction transaction = null;
+
+        Throwable failure = null;
+
+        try {
+            transaction = transactionManager.propagationExistBegin(transactionContext);
+
+            if (status == TransactionStatus.CONFIRMING) {
+                transactionManager.commit(async, parallel);
+            } else {
+                transactionManager.rollback(async, parallel);
+            }
+        } catch (NoExistedTransactionException exception) {
+            //the transaction has been committed or rolled back, ignore it.
+        } catch (Throwable throwable) {
+            failure = throwable;
+        } finally {
+            try {
+                transactionManager.cleanAfterCompletion(transaction);
+            } catch (Throwable throwable) {
+                failure = failure == null ? throwable : failure;
+            }
+        }
+
+        //removed before completing, a waiter woken up by the future never finds this entry again and spins on it.
+        inFlightTerminations.remove(transactionContext.getXid(), inFlight);
+
+        if (failure != null) {
+            inFlight.future.completeExceptionally(failure);
+            throw failure;
+        }
+
+        inFlight.future.complete(null);
+    }
+
+    /**
+     * the try phase of a method declared to return CompletableFuture/CompletionStage ends when the returned stage completes,
+     * a stage returned through a wider declared type such as Object is a plain value.
+     */
+    private boolean isAsyncTrying(Method method, Object returnValue) {
+        Class<?> returnType = method.getReturnType();
+        return returnValue instanceof CompletionStage && (returnType == CompletableFuture.class || returnType == CompletionStage.class);
+    }
+
+    /**
+     * confirms the transaction when the try stage completes normally, cancels it otherwise, then completes the returned future
+     * with the try outcome. confirm/cancel runs on the thread completing the try stage unless asyncConfirm/asyncCancel is set.
+     * the transaction is unbound from the calling thread when the method returns and is never bound to the threads running
+     * the stage, participants must be enlisted by the method body itself or by tasks bound with TransactionManager.wrap,
+     * which the returned stage waits for.
+     */
+    private CompletableFuture<Object> completeWhenTried(final Transaction transaction, CompletionStage<?> tryingStage,
+                                                        final Compensable compensable, final Set<Class<? extends Exception>> allDelayCancelExceptions) {
+
+        final CompletableFuture<Object> result = new CompletableFuture<Object>();
+
+        tryingStage.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object value, Throwable throwable) {
+
+                if (throwable == null) {
                     try {
-                        transaction = transactionManager.propagationExistBegin(compensableMethodContext.getTransactionContext());
-                        transactionManager.commit(asyncConfirm);
-                    } catch (NoExistedTransactionException excepton) {
-                        //the transaction has been commit,ignore it.
+                        transactionManager.commit(transaction, compensable.asyncConfirm(), compensable.parallelConfirm());
+                        result.complete(value);
+                    } catch (Throwable commitException) {
+                        result.completeExceptionally(commitException);
                     }
-                    break;
-                case CANCELLING:
+                    return;
+                }
+
+                Throwable tryingException = (throwable instanceof CompletionException && throwable.getCause() != null) ? throwable.getCause() : throwable;
+
+                if (!isDelayCancelException(tryingException, allDelayCancelExceptions)) {
+
+                    logger.warn(String.format("compensable transaction trying failed. transaction content:%s", JSON.toJSONString(transaction)), tryingException);
 
                     try {
-                        transaction = transactionManager.propagationExistBegin(compensableMethodContext.getTransactionContext());
-                        transactionManager.rollback(asyncCancel);
-                    } catch (NoExistedTransactionException exception) {
-                        //the transaction has been rollback,ignore it.
+                        transactionManager.rollback(transaction, compensable.asyncCancel(), compensable.parallelCancel());
+                    } catch (Throwable rollbackException) {
+                        result.completeExceptionally(rollbackException);
+                        return;
                     }
-                    break;
+                } else {
+                    transactionManager.cancelTryTimeout(transaction);
+                }
+
+                result.completeExceptionally(tryingException);
             }
+        });
 
-        } finally {
-            transactionManager.cleanAfterCompletion(transaction);
-        }
+        return result;
+    }
 
-        Method method = compensableMethodContext.getMethod();
+    private Object proceed(CompensableMethodContext compensableMethodContext, Transaction transaction) throws Throwable {
 
-        return ReflectionUtils.getNullValue(method.getReturnType());
+        if (resourceCoordinatorInterceptor == null) {
+            return compensableMethodContext.proceed();
+        }
+
+        return resourceCoordinatorInterceptor.interceptTransactionContextMethod(compensableMethodContext.getJoinPoint(), compensableMethodContext.getMetadata(), transaction);
     }
 
     private boolean isDelayCancelException(Throwable throwable, Set<Class<? extends Exception>> delayCancelExceptions) {
@@ -158,4 +316,14 @@ public class CompensableTransactionInterceptor {
         return false;
     }
 
+    private static class InFlightTermination {
+
+        private final TransactionStatus status;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+        InFlightTermination(TransactionStatus status) {
+            this.status = status;
+        }
+    }
 }
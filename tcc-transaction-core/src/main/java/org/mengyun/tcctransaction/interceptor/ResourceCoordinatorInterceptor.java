@@ -1,18 +1,17 @@
 package org.mengyun.tcctransaction.interceptor;
 
 import org.aspectj.lang.ProceedingJoinPoint;
-import org.aspectj.lang.reflect.MethodSignature;
 import org.mengyun.tcctransaction.InvocationContext;
 import org.mengyun.tcctransaction.Participant;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.TryTimeoutException;
 import org.mengyun.tcctransaction.api.Compensable;
 import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.api.TransactionXid;
-import org.mengyun.tcctransaction.support.FactoryBuilder;
-import org.mengyun.tcctransaction.utils.CompensableMethodUtils;
-import org.mengyun.tcctransaction.utils.ReflectionUtils;
+import org.mengyun.tcctransaction.common.TransactionType;
 
 import java.lang.reflect.Method;
 
@@ -32,41 +31,85 @@ public class ResourceCoordinatorInterceptor {
 
         Transaction transaction = transactionManager.getCurrentTransaction();
 
-        if (transaction != null) {
+        if (transaction != null && transaction.getStatus() == TransactionStatus.TRYING) {
 
-            switch (transaction.getStatus()) {
-                case TRYING:
-                    enlistParticipant(pjp);
-                    break;
-                case CONFIRMING:
-                    break;
-                case CANCELLING:
-                    break;
+            CompensableMethodMetadata metadata = CompensableMethodMetadata.of(pjp);
+            if (metadata == null) {
+                throw new RuntimeException(String.format("join point not found method, point is : %s", pjp.getSignature().getName()));
             }
+
+            return proceedTrying(pjp, metadata, transaction);
         }
 
-        return pjp.proceed(pjp.getArgs());
+        return proceed(pjp, transaction);
+    }
+
+    /**
+     * used by the fused advice, the metadata and the current transaction are already resolved by the caller.
+     */
+    public Object interceptTransactionContextMethod(ProceedingJoinPoint pjp, CompensableMethodMetadata metadata, Transaction transaction) throws Throwable {
+
+        if (transaction != null && transaction.getStatus() == TransactionStatus.TRYING) {
+            return proceedTrying(pjp, metadata, transaction);
+        }
+
+        return proceed(pjp, transaction);
+    }
+
+    /**
+     * enlists the participant and makes its try call, the try timeout does not cancel while it is in flight.
+     * the root compensable method itself, always the first participant of its root transaction, is not counted:
+     * its body spans the whole try phase, the cancel goes ahead while it runs and its later try calls are rejected.
+     */
+    private Object proceedTrying(ProceedingJoinPoint pjp, CompensableMethodMetadata metadata, Transaction transaction) throws Throwable {
+
+        boolean rootMethod = transaction.getTransactionType() == TransactionType.ROOT && transaction.getParticipants().isEmpty();
+
+        enlistParticipant(pjp, metadata, transaction);
+
+        if (rootMethod) {
+            return pjp.proceed(pjp.getArgs());
+        }
+
+        transactionManager.beginTryCall(transaction);
+
+        try {
+            return pjp.proceed(pjp.getArgs());
+        } finally {
+            transactionManager.endTryCall(transaction);
+        }
     }
 
-    private void enlistParticipant(ProceedingJoinPoint pjp) throws IllegalAccessException, InstantiationException {
+    private Object proceed(ProceedingJoinPoint pjp, Transaction transaction) throws Throwable {
 
-        Method method = CompensableMethodUtils.getCompensableMethod(pjp);
-        if (method == null) {
-            throw new RuntimeException(String.format("join point not found method, point is : %s", pjp.getSignature().getName()));
+        if (transaction != null && transaction.isTryTimedOut()) {
+            //a try call after the timeout would not be enlisted, nothing would cancel it.
+            throw new TryTimeoutException(transaction.getXid());
         }
-        Compensable compensable = method.getAnnotation(Compensable.class);
+
+        return pjp.proceed(pjp.getArgs());
+    }
+
+    private void enlistParticipant(ProceedingJoinPoint pjp, CompensableMethodMetadata metadata, Transaction transaction) {
+
+        Method method = metadata.getMethod();
+        Compensable compensable = metadata.getCompensable();
 
         String confirmMethodName = compensable.confirmMethod();
         String cancelMethodName = compensable.cancelMethod();
 
-        Transaction transaction = transactionManager.getCurrentTransaction();
         TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
 
-        if (FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance().get(pjp.getTarget(), method, pjp.getArgs()) == null) {
-            FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance().set(new TransactionContext(xid, TransactionStatus.TRYING.getId()), pjp.getTarget(), ((MethodSignature) pjp.getSignature()).getMethod(), pjp.getArgs());
+        TransactionContextEditor transactionContextEditor = metadata.getTransactionContextEditor();
+
+        TransactionContext transactionContext = transactionContextEditor.get(pjp.getTarget(), method, pjp.getArgs());
+
+        if (transactionContext == null) {
+            transactionContextEditor.set(new TransactionContext(xid, TransactionStatus.TRYING.getId()), pjp.getTarget(), metadata.getSignatureMethod(), pjp.getArgs());
+            transactionContext = transactionContextEditor.get(pjp.getTarget(), method, pjp.getArgs());
         }
 
-        Class targetClass = ReflectionUtils.getDeclaringType(pjp.getTarget().getClass(), method.getName(), method.getParameterTypes());
+        Class targetClass = metadata.getDeclaringType();
 
         InvocationContext confirmInvocation = new InvocationContext(targetClass,
                 confirmMethodName,
@@ -83,7 +126,14 @@ public class ResourceCoordinatorInterceptor {
                         cancelInvocation,
                         compensable.transactionContextEditor());
 
-        transactionManager.enlistParticipant(participant);
+        transactionManager.enlistParticipant(transaction, participant);
+
+        if (transactionContext != null) {
+            //the editor carries the context, so the try may start a branch in another process, whose cancel needs
+            //this participant to be durable first. it can't tell a remote callee from a local one, every such call is flushed,
+            //only participants whose editor carries no context (NullableTransactionContextEditor) are coalesced.
+            transactionManager.flushEnlistment(transaction);
+        }
 
     }
 
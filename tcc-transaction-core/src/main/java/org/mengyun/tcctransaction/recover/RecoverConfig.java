@@ -1,5 +1,7 @@
 package org.mengyun.tcctransaction.recover;
 
+import org.mengyun.tcctransaction.support.TerminateThreadPoolExecutor;
+
 import java.util.Set;
 
 /**
@@ -18,4 +20,77 @@ public interface RecoverConfig {
     public void setDelayCancelExceptions(Set<Class<? extends Exception>> delayRecoverExceptions);
 
     public int getAsyncTerminateThreadPoolSize();
+
+    //the settings below have defaults, the ones of DefaultRecoverConfig, so existing implementations keep compiling.
+
+    public default int getAsyncTerminateQueueSize() {
+        return 1024;
+    }
+
+    public default TerminateThreadPoolExecutor.RejectPolicy getAsyncTerminateRejectPolicy() {
+        return TerminateThreadPoolExecutor.RejectPolicy.RECOVERY;
+    }
+
+    public default boolean isParallelTerminate() {
+        return false;
+    }
+
+    public default int getParallelTerminateThreadPoolSize() {
+        return Runtime.getRuntime().availableProcessors() * 8;
+    }
+
+    public default boolean isCoalesceEnlistment() {
+        return false;
+    }
+
+    public default boolean isVirtualThreadEnabled() {
+        return false;
+    }
+
+    public default int getRecoverConcurrency() {
+        return 1;
+    }
+
+    public default boolean isAsyncDelete() {
+        return false;
+    }
+
+    public default int getAsyncDeleteBatchSize() {
+        return 100;
+    }
+
+    public default int getAsyncDeleteQueueSize() {
+        return 4096;
+    }
+
+    public default boolean isDurableAsyncTerminate() {
+        return false;
+    }
+
+    public default int getDurableTerminateWorkerCount() {
+        return Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    public default int getDurableTerminateBatchSize() {
+        return 100;
+    }
+
+    public default int getDurableTerminateRecoverDelay() {
+        return 10;
+    }
+
+    /**
+     * id of this instance on the records it queues durably, the same across its restarts. null for the host name and domain.
+     */
+    public default String getDurableTerminateOwner() {
+        return null;
+    }
+
+    public default int getDurableTerminateLeaseDuration() {
+        return 30;
+    }
+
+    public default int getRecoverPageSize() {
+        return 500;
+    }
 }
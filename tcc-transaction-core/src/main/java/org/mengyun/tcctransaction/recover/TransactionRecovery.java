@@ -8,11 +8,20 @@ import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.TransactionRepository;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.Page;
+import org.mengyun.tcctransaction.support.TerminateThreadPoolExecutor;
 import org.mengyun.tcctransaction.support.TransactionConfigurator;
+import org.mengyun.tcctransaction.support.VirtualThreadExecutors;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 /**
  * Created by changmingxie on 11/10/15.
@@ -23,72 +32,192 @@ public class TransactionRecovery {
 
     private TransactionConfigurator transactionConfigurator;
 
+    private volatile ExecutorService recoverExecutorService;
+
+    /**
+     * pages through the error transactions and recovers each page before loading the next,
+     * so only recoverPageSize transactions are held in memory however many are stuck.
+     */
     public void startRecover() {
 
-        List<Transaction> transactions = loadErrorTransactions();
+        long currentTimeInMillis = Calendar.getInstance().getTimeInMillis();
 
-        recoverErrorTransactions(transactions);
-    }
+        Date date = new Date(currentTimeInMillis - transactionConfigurator.getRecoverConfig().getRecoverDuration() * 1000);
 
-    private List<Transaction> loadErrorTransactions() {
+        String offset = null;
 
+        do {
+            Page<Transaction> page = loadErrorTransactions(date, offset);
 
-        long currentTimeInMillis = Calendar.getInstance().getTimeInMillis();
+            recoverErrorTransactions(page.getData());
+
+            offset = page.getNextOffset();
+
+        } while (offset != null && !Thread.currentThread().isInterrupted());
+    }
+
+    private Page<Transaction> loadErrorTransactions(Date date, String offset) {
 
         TransactionRepository transactionRepository = transactionConfigurator.getTransactionRepository();
         RecoverConfig recoverConfig = transactionConfigurator.getRecoverConfig();
 
-        return transactionRepository.findAllUnmodifiedSince(new Date(currentTimeInMillis - recoverConfig.getRecoverDuration() * 1000));
+        return transactionRepository.findAllUnmodifiedSince(date, offset, recoverConfig.getRecoverPageSize());
     }
 
     private void recoverErrorTransactions(List<Transaction> transactions) {
 
+        ExecutorService recoverExecutorService = getRecoverExecutorService();
+
+        if (recoverExecutorService == null) {
+            for (Transaction transaction : transactions) {
+                recoverErrorTransaction(transaction);
+            }
+            return;
+        }
+
+        //at most recoverConcurrency transactions are recovered at the same time, whatever the executor is.
+        final Semaphore permits = new Semaphore(transactionConfigurator.getRecoverConfig().getRecoverConcurrency());
 
-        for (Transaction transaction : transactions) {
+        List<Future<?>> futures = new ArrayList<Future<?>>(transactions.size());
 
-            if (transaction.getRetriedCount() > transactionConfigurator.getRecoverConfig().getMaxRetryCount()) {
+        for (final Transaction transaction : transactions) {
 
-                logger.error(String.format("recover failed with max retry count,will not try again. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)));
-                continue;
-            }
+            permits.acquireUninterruptibly();
 
-            if (transaction.getTransactionType().equals(TransactionType.BRANCH)
-                    && (transaction.getCreateTime().getTime() +
-                    transactionConfigurator.getRecoverConfig().getMaxRetryCount() *
-                            transactionConfigurator.getRecoverConfig().getRecoverDuration() * 1000
-                    > System.currentTimeMillis())) {
-                continue;
+            try {
+                futures.add(recoverExecutorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            recoverErrorTransaction(transaction);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
             }
-            
+        }
+
+        for (Future<?> future : futures) {
             try {
-                transaction.addRetriedCount();
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                logger.error("recover failed", e.getCause());
+            }
+        }
+    }
 
-                if (transaction.getStatus().equals(TransactionStatus.CONFIRMING)) {
+    private void recoverErrorTransaction(Transaction transaction) {
 
-                    transaction.changeStatus(TransactionStatus.CONFIRMING);
-                    transactionConfigurator.getTransactionRepository().update(transaction);
-                    transaction.commit();
-                    transactionConfigurator.getTransactionRepository().delete(transaction);
+        if (transactionConfigurator.getTransactionManager().isDeletePending(transaction.getXid())
+                || transactionConfigurator.getTransactionManager().isTerminationPending(transaction.getXid())) {
+            return;
+        }
+
+        if (transaction.getRetriedCount() > transactionConfigurator.getRecoverConfig().getMaxRetryCount()) {
+
+            logger.error(String.format("recover failed with max retry count,will not try again. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)));
+            return;
+        }
 
-                } else if (transaction.getStatus().equals(TransactionStatus.CANCELLING)
-                        || transaction.getTransactionType().equals(TransactionType.ROOT)) {
+        if (transaction.getTransactionType().equals(TransactionType.BRANCH)
+                && (transaction.getCreateTimeMillis() +
+                transactionConfigurator.getRecoverConfig().getMaxRetryCount() *
+                        transactionConfigurator.getRecoverConfig().getRecoverDuration() * 1000
+                > System.currentTimeMillis())) {
+            return;
+        }
+        
+        try {
+            if ((transaction.getStatus().equals(TransactionStatus.CONFIRMING) || transaction.getStatus().equals(TransactionStatus.CANCELLING))
+                    && transaction.getPendingParticipantIndexes().isEmpty()) {
+
+                //all participants completed and persisted as such, only the delete failed.
+                transactionConfigurator.getTransactionRepository().delete(transaction);
+                return;
+            }
 
-                    transaction.changeStatus(TransactionStatus.CANCELLING);
-                    transactionConfigurator.getTransactionRepository().update(transaction);
-                    transaction.rollback();
-                    transactionConfigurator.getTransactionRepository().delete(transaction);
+            transaction.addRetriedCount();
+
+            if (transaction.getStatus().equals(TransactionStatus.CONFIRMING)) {
+
+                transaction.changeStatus(TransactionStatus.CONFIRMING);
+                transactionConfigurator.getTransactionRepository().update(transaction);
+                transaction.commit(transactionConfigurator.getTransactionManager().getParticipantExecutorService(false));
+                transactionConfigurator.getTransactionRepository().delete(transaction);
+
+            } else if (transaction.getStatus().equals(TransactionStatus.CANCELLING)
+                    || transaction.getTransactionType().equals(TransactionType.ROOT)) {
+
+                transaction.changeStatus(TransactionStatus.CANCELLING);
+                transactionConfigurator.getTransactionRepository().update(transaction);
+                transaction.rollback(transactionConfigurator.getTransactionManager().getParticipantExecutorService(false));
+                transactionConfigurator.getTransactionRepository().delete(transaction);
+            }
+
+        } catch (Throwable throwable) {
+
+            if (transaction.isCompletionChanged()) {
+                try {
+                    transactionConfigurator.getTransactionRepository().updateCompletion(transaction);
+                } catch (Throwable updateException) {
+                    logger.warn(String.format("failed to persist completed participants. txid:%s", transaction.getXid()), updateException);
                 }
+            }
+
+            if (throwable instanceof OptimisticLockException
+                    || ExceptionUtils.getRootCause(throwable) instanceof OptimisticLockException) {
+                logger.warn(String.format("optimisticLockException happened while recover. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
+            } else {
+                logger.error(String.format("recover failed, txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
+            }
+        }
+    }
 
-            } catch (Throwable throwable) {
+    /**
+     * virtual threads if enabled and supported, otherwise a platform pool; null means recovering one by one.
+     */
+    private ExecutorService getRecoverExecutorService() {
 
-                if (throwable instanceof OptimisticLockException
-                        || ExceptionUtils.getRootCause(throwable) instanceof OptimisticLockException) {
-                    logger.warn(String.format("optimisticLockException happened while recover. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
-                } else {
-                    logger.error(String.format("recover failed, txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
+        RecoverConfig recoverConfig = transactionConfigurator.getRecoverConfig();
+
+        if (recoverExecutorService == null && recoverConfig.getRecoverConcurrency() > 1) {
+
+            synchronized (this) {
+
+                if (recoverExecutorService == null) {
+
+                    ExecutorService executorService = null;
+
+                    if (recoverConfig.isVirtualThreadEnabled()) {
+                        executorService = VirtualThreadExecutors.newVirtualThreadPerTaskExecutor("tcc-recovery");
+                    }
+
+                    if (executorService == null) {
+                        executorService = new TerminateThreadPoolExecutor("tcc-recovery",
+                                recoverConfig.getRecoverConcurrency(),
+                                recoverConfig.getRecoverConcurrency(),
+                                TerminateThreadPoolExecutor.RejectPolicy.CALLER_RUNS);
+                    }
+
+                    recoverExecutorService = executorService;
                 }
             }
         }
+
+        return recoverExecutorService;
+    }
+
+    public void destroy() {
+        if (recoverExecutorService != null) {
+            recoverExecutorService.shutdown();
+        }
     }
 
     public void setTransactionConfigurator(TransactionConfigurator transactionConfigurator) {
@@ -1,17 +1,19 @@
 package org.mengyun.tcctransaction.repository;
 
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import org.mengyun.tcctransaction.ConcurrentTransactionException;
 import org.mengyun.tcctransaction.OptimisticLockException;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.TransactionRepository;
 import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.repository.cache.CaffeineTransactionCache;
+import org.mengyun.tcctransaction.repository.cache.TransactionCache;
+import org.mengyun.tcctransaction.repository.cache.TransactionCacheStats;
 
 import javax.transaction.xa.Xid;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -21,11 +23,23 @@ public abstract class CachableTransactionRepository implements TransactionReposi
 
     private int expireDuration = 120;
 
-    private Cache<Xid, Transaction> transactionXidCompensableTransactionCache;
+    private TransactionCache transactionCache = new CaffeineTransactionCache();
 
     @Override
     public int create(Transaction transaction) {
-        int result = doCreate(transaction);
+
+        boolean contentChanged = transaction.clearContentChanged();
+
+        int result = 0;
+
+        try {
+            result = doCreate(transaction);
+        } finally {
+            if (result <= 0 && contentChanged) {
+                transaction.markContentChanged();
+            }
+        }
+
         if (result > 0) {
             putToCache(transaction);
         } else {
@@ -35,12 +49,18 @@ public abstract class CachableTransactionRepository implements TransactionReposi
         return result;
     }
 
+    /**
+     * rewrites the whole content only if participants or attachments changed since it was last written,
+     * otherwise only status, version, retried count and last update time.
+     */
     @Override
     public int update(Transaction transaction) {
         int result = 0;
 
+        boolean contentChanged = transaction.clearContentChanged();
+
         try {
-            result = doUpdate(transaction);
+            result = contentChanged ? doUpdate(transaction) : doUpdateStatus(transaction);
             if (result > 0) {
                 putToCache(transaction);
             } else {
@@ -48,6 +68,9 @@ public abstract class CachableTransactionRepository implements TransactionReposi
             }
         } finally {
             if (result <= 0) {
+                if (contentChanged) {
+                    transaction.markContentChanged();
+                }
                 removeFromCache(transaction);
             }
         }
@@ -55,6 +78,22 @@ public abstract class CachableTransactionRepository implements TransactionReposi
         return result;
     }
 
+    @Override
+    public int updateCompletion(Transaction transaction) {
+
+        if (!transaction.isCompletionChanged()) {
+            return 1;
+        }
+
+        int result = doUpdateCompletion(transaction);
+
+        if (result > 0) {
+            transaction.markCompletionPersisted();
+        }
+
+        return result;
+    }
+
     @Override
     public int delete(Transaction transaction) {
         int result = 0;
@@ -69,18 +108,30 @@ public abstract class CachableTransactionRepository implements TransactionReposi
     }
 
     @Override
-    public Transaction findByXid(TransactionXid transactionXid) {
-        Transaction transaction = findFromCache(transactionXid);
-
-        if (transaction == null) {
-            transaction = doFindOne(transactionXid);
+    public int deleteAll(List<Transaction> transactions) {
+        int result = 0;
 
-            if (transaction != null) {
-                putToCache(transaction);
+        try {
+            result = doDeleteAll(transactions);
+        } finally {
+            for (Transaction transaction : transactions) {
+                removeFromCache(transaction);
             }
         }
+        return result;
+    }
 
-        return transaction;
+    /**
+     * concurrent misses on the same xid share one doFindOne, the others wait for its result.
+     */
+    @Override
+    public Transaction findByXid(final TransactionXid transactionXid) {
+        return transactionCache.get(transactionXid, new Callable<Transaction>() {
+            @Override
+            public Transaction call() throws Exception {
+                return doFindOne(transactionXid);
+            }
+        });
     }
 
     @Override
@@ -95,33 +146,95 @@ public abstract class CachableTransactionRepository implements TransactionReposi
         return transactions;
     }
 
-    public CachableTransactionRepository() {
-        transactionXidCompensableTransactionCache = CacheBuilder.newBuilder().expireAfterAccess(expireDuration, TimeUnit.SECONDS).maximumSize(1000).build();
+    @Override
+    public Page<Transaction> findAllUnmodifiedSince(Date date, String offset, int pageSize) {
+
+        Page<Transaction> page = doFindAllUnmodifiedSince(date, offset, pageSize);
+
+        for (Transaction transaction : page.getData()) {
+            putToCache(transaction);
+        }
+
+        return page;
     }
 
     protected void putToCache(Transaction transaction) {
-        transactionXidCompensableTransactionCache.put(transaction.getXid(), transaction);
+        transactionCache.put(transaction);
     }
 
     protected void removeFromCache(Transaction transaction) {
-        transactionXidCompensableTransactionCache.invalidate(transaction.getXid());
+        transactionCache.invalidate(transaction.getXid());
     }
 
     protected Transaction findFromCache(TransactionXid transactionXid) {
-        return transactionXidCompensableTransactionCache.getIfPresent(transactionXid);
+        return transactionCache.getIfPresent(transactionXid);
+    }
+
+    /**
+     * replaces the default CaffeineTransactionCache.
+     */
+    public void setTransactionCache(TransactionCache transactionCache) {
+        this.transactionCache = transactionCache;
+        this.transactionCache.setExpireDuration(expireDuration, TimeUnit.SECONDS);
+    }
+
+    public TransactionCache getTransactionCache() {
+        return transactionCache;
+    }
+
+    /**
+     * hits and misses of findByXid, with the count and total time of the backend loads behind the misses.
+     */
+    public TransactionCacheStats getCacheStats() {
+        return transactionCache.stats();
     }
 
     public void setExpireDuration(int durationInSeconds) {
         this.expireDuration = durationInSeconds;
+        this.transactionCache.setExpireDuration(durationInSeconds, TimeUnit.SECONDS);
     }
 
     protected abstract int doCreate(Transaction transaction);
 
     protected abstract int doUpdate(Transaction transaction);
 
+    /**
+     * writes the whole record unless overridden with a narrower write of status, version, retried count and last update time,
+     * only called while the content stored is still current.
+     */
+    protected int doUpdateStatus(Transaction transaction) {
+        return doUpdate(transaction);
+    }
+
+    /**
+     * writes the whole record unless overridden with a narrower write of the completion bits.
+     */
+    protected int doUpdateCompletion(Transaction transaction) {
+        return update(transaction);
+    }
+
     protected abstract int doDelete(Transaction transaction);
 
+    /**
+     * deletes one by one unless overridden with a batched delete.
+     */
+    protected int doDeleteAll(List<Transaction> transactions) {
+        int result = 0;
+
+        for (Transaction transaction : transactions) {
+            result += doDelete(transaction);
+        }
+        return result;
+    }
+
     protected abstract Transaction doFindOne(Xid xid);
 
     protected abstract List<Transaction> doFindAllUnmodifiedSince(Date date);
+
+    /**
+     * all of them as one page unless overridden with a paginated query.
+     */
+    protected Page<Transaction> doFindAllUnmodifiedSince(Date date, String offset, int pageSize) {
+        return new Page<Transaction>(doFindAllUnmodifiedSince(date), null);
+    }
 }
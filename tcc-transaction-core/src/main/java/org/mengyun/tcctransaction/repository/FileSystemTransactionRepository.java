@@ -2,6 +2,7 @@ package org.mengyun.tcctransaction.repository;
 
 import org.mengyun.tcctransaction.ConcurrentTransactionException;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
 import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
 import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
@@ -24,6 +25,8 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
 
     private volatile boolean initialized;
 
+    private boolean legacyKeyLookup = true;
+
     private ObjectSerializer serializer = new KryoPoolSerializer();
 
     public void setSerializer(ObjectSerializer serializer) {
@@ -34,6 +37,22 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
         this.rootPath = rootPath;
     }
 
+    /**
+     * when on, a record not found by its hex file name is looked up (and renamed) by its legacy file name.
+     * on by default, so records written before an upgrade are still found. can be turned off once migrateLegacyKeys has run.
+     */
+    public void setLegacyKeyLookup(boolean legacyKeyLookup) {
+        this.legacyKeyLookup = legacyKeyLookup;
+    }
+
+    /**
+     * one-time step after upgrading: renames every file still under its legacy name to the hex name.
+     * the recovery scan renames the legacy files it meets as well.
+     */
+    public void migrateLegacyKeys() {
+        doFindAll();
+    }
+
     @Override
     protected int doCreate(Transaction transaction) {
         return createFile(transaction);
@@ -66,6 +85,10 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
         String fullFileName = getFullFileName(xid);
         File file = new File(fullFileName);
 
+        if (legacyKeyLookup && !file.exists()) {
+            migrateLegacyFile(new File(getLegacyFullFileName(xid)), file);
+        }
+
         if (file.exists()) {
             return readTransaction(file);
         }
@@ -81,7 +104,7 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
         List<Transaction> allUnmodifiedSince = new ArrayList<Transaction>();
 
         for (Transaction transaction : allTransactions) {
-            if (transaction.getLastUpdateTime().compareTo(date) < 0) {
+            if (transaction.getLastUpdateTimeMillis() < date.getTime()) {
                 allUnmodifiedSince.add(transaction);
             }
         }
@@ -98,6 +121,11 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
 
         for (File file : files) {
             Transaction transaction = readTransaction(file);
+
+            if (!file.getName().equals(transaction.getXid().toString())) {
+                migrateLegacyFile(file, new File(getFullFileName(transaction.getXid())));
+            }
+
             transactions.add(transaction);
         }
 
@@ -105,7 +133,20 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
     }
 
     private String getFullFileName(Xid xid) {
-        return String.format("%s/%s", rootPath, xid);
+        return rootPath + "/" + xid;
+    }
+
+    /**
+     * file name of records written before xids were hex encoded, they are renamed to getFullFileName when found.
+     */
+    private String getLegacyFullFileName(Xid xid) {
+        return rootPath + "/" + TransactionXid.toLegacyString(xid);
+    }
+
+    private void migrateLegacyFile(File legacyFile, File file) {
+        if (legacyFile.exists() && !file.exists() && !legacyFile.renameTo(file)) {
+            throw new TransactionIOException("cannot rename legacy transaction file " + legacyFile.getName() + " to " + file.getName());
+        }
     }
 
     private void makeDirIfNecessary() {
@@ -0,0 +1,335 @@
+package org.mengyun.tcctransaction.repository;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * group commit for JdbcTransactionRepository: the writes of concurrent callers are queued and one writer thread
+ * flushes whatever queued up as JDBC batches (one per statement) in a single database transaction,
+ * then releases each caller with the update count of its own row.
+ * if the batch fails (e.g. on one duplicate key) it is rolled back and its writes are replayed one by one,
+ * so every caller gets its own outcome and never the error of another. so is a batch in which the driver reports
+ * SUCCESS_NO_INFO for a version checked write, whose caller must learn whether its row matched.
+ * the queue is bounded, callers wait for room while the writer is behind.
+ */
+class JdbcGroupCommitWriter {
+
+    static final Logger logger = Logger.getLogger(JdbcGroupCommitWriter.class.getSimpleName());
+
+    private static final long POLL_MILLIS = 100;
+
+    private final JdbcTransactionRepository repository;
+
+    private final int maxBatchSize;
+
+    private final BlockingQueue<Write> queue;
+
+    private final Thread writerThread;
+
+    private volatile boolean running = true;
+
+    JdbcGroupCommitWriter(String name, JdbcTransactionRepository repository, int maxBatchSize, int queueSize) {
+        this.repository = repository;
+        this.maxBatchSize = maxBatchSize;
+        this.queue = new ArrayBlockingQueue<Write>(queueSize);
+
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, name);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * blocks until the write is committed (or has failed) and returns its update count.
+     */
+    int execute(Write write) {
+
+        if (!running) {
+            executeAlone(write);
+        } else {
+            try {
+                queue.put(write);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionIOException(e);
+            }
+
+            if (!running) {
+                //the writer may have stopped before taking it.
+                executeQueuedAlone();
+            }
+        }
+
+        boolean interrupted = false;
+
+        while (true) {
+            try {
+                write.done.await();
+                break;
+            } catch (InterruptedException e) {
+                //the write is on its way, the caller has to learn its outcome.
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (write.failure != null) {
+            throw write.failure instanceof TransactionIOException ? (TransactionIOException) write.failure : new TransactionIOException(write.failure);
+        }
+
+        return write.result;
+    }
+
+    /**
+     * stops the writer once its current batch is done, the writes still queued and the later ones run alone on the caller thread.
+     */
+    void shutdown() {
+        running = false;
+
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        executeQueuedAlone();
+    }
+
+    private void executeQueuedAlone() {
+
+        List<Write> writes = new ArrayList<Write>();
+        queue.drainTo(writes);
+
+        for (Write write : writes) {
+            executeAlone(write);
+        }
+    }
+
+    private void writeLoop() {
+
+        List<Write> batch = new ArrayList<Write>(maxBatchSize);
+
+        while (running) {
+            try {
+                Write first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+
+                if (batch.size() == 1) {
+                    executeAlone(first);
+                } else if (!executeBatch(batch)) {
+                    for (Write write : batch) {
+                        executeAlone(write);
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable e) {
+                for (Write write : batch) {
+                    if (!write.isDone()) {
+                        write.fail(e);
+                    }
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * returns false if the batch was rolled back and has to be replayed.
+     */
+    private boolean executeBatch(List<Write> batch) {
+
+        Map<String, List<Write>> writesBySql = new LinkedHashMap<String, List<Write>>();
+
+        for (Write write : batch) {
+            List<Write> writes = writesBySql.get(write.sql);
+
+            if (writes == null) {
+                writes = new ArrayList<Write>();
+                writesBySql.put(write.sql, writes);
+            }
+            writes.add(write);
+        }
+
+        int[] results = new int[batch.size()];
+        List<Write> ordered = new ArrayList<Write>(batch.size());
+
+        Connection connection = repository.getConnection();
+
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            try {
+                for (Map.Entry<String, List<Write>> entry : writesBySql.entrySet()) {
+
+                    PreparedStatement stmt = connection.prepareStatement(entry.getKey());
+
+                    try {
+                        for (Write write : entry.getValue()) {
+                            write.bind(stmt);
+                            stmt.addBatch();
+                        }
+
+                        int[] counts = stmt.executeBatch();
+
+                        for (int i = 0; i < counts.length; i++) {
+
+                            if (counts[i] == Statement.EXECUTE_FAILED) {
+                                throw new SQLException("write " + i + " of batch failed");
+                            }
+
+                            if (counts[i] == Statement.SUCCESS_NO_INFO && entry.getValue().get(i).versionChecked) {
+                                throw new SQLException("no update count for version checked write " + i + " of batch");
+                            }
+
+                            results[ordered.size()] = counts[i] == Statement.SUCCESS_NO_INFO ? 1 : counts[i];
+                            ordered.add(entry.getValue().get(i));
+                        }
+                    } finally {
+                        stmt.close();
+                    }
+                }
+
+                connection.commit();
+
+            } catch (SQLException e) {
+                logger.debug("group commit of " + batch.size() + " writes failed, replays them one by one.", e);
+                rollbackQuietly(connection);
+                return false;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new TransactionIOException(e);
+        } finally {
+            repository.releaseConnection(connection);
+        }
+
+        for (int i = 0; i < ordered.size(); i++) {
+            ordered.get(i).complete(results[i]);
+        }
+
+        return true;
+    }
+
+    private void executeAlone(Write write) {
+
+        Connection connection = null;
+
+        try {
+            connection = repository.getConnection();
+            write.complete(write.execute(connection));
+        } catch (Throwable e) {
+            write.fail(e);
+        } finally {
+            try {
+                repository.releaseConnection(connection);
+            } catch (Throwable e) {
+                logger.warn("failed to release connection", e);
+            }
+        }
+    }
+
+    private void rollbackQuietly(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            logger.warn("rollback of group commit failed", e);
+        }
+    }
+
+    /**
+     * one row written by one statement.
+     */
+    abstract static class Write {
+
+        private final String sql;
+
+        private final boolean versionChecked;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile int result;
+
+        private volatile Throwable failure;
+
+        Write(String sql) {
+            this(sql, false);
+        }
+
+        /**
+         * @param versionChecked true if the update count tells the caller whether the row matched its version
+         */
+        Write(String sql, boolean versionChecked) {
+            this.sql = sql;
+            this.versionChecked = versionChecked;
+        }
+
+        abstract void bind(PreparedStatement stmt) throws SQLException;
+
+        /**
+         * the update count to report if executing this write alone raised e, rethrows it by default.
+         */
+        int onFailure(SQLException e) throws SQLException {
+            throw e;
+        }
+
+        /**
+         * executes the write alone on the connection.
+         */
+        int execute(Connection connection) throws SQLException {
+
+            PreparedStatement stmt = connection.prepareStatement(sql);
+
+            try {
+                bind(stmt);
+                return stmt.executeUpdate();
+            } catch (SQLException e) {
+                return onFailure(e);
+            } finally {
+                stmt.close();
+            }
+        }
+
+        private boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        private void complete(int result) {
+            this.result = result;
+            done.countDown();
+        }
+
+        private void fail(Throwable failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package org.mengyun.tcctransaction.repository;
 
 
+import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.Participant;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
 import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 import org.mengyun.tcctransaction.utils.CollectionUtils;
@@ -13,13 +16,22 @@ import javax.transaction.xa.Xid;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by changmingxie on 10/30/15.
  */
 public class JdbcTransactionRepository extends CachableTransactionRepository {
 
+    static final Logger logger = Logger.getLogger(JdbcTransactionRepository.class.getSimpleName());
+
+    private static final int PARTICIPANT_LOG_QUERY_SIZE = 100;
+
+    private static final String SELECT_COLUMNS = "SELECT GLOBAL_TX_ID, BRANCH_QUALIFIER, CONTENT,STATUS,TRANSACTION_TYPE,CREATE_TIME,LAST_UPDATE_TIME,RETRIED_COUNT,VERSION";
+
     private String domain;
 
     private String tbSuffix;
@@ -28,6 +40,26 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
     private ObjectSerializer serializer = new KryoPoolSerializer();
 
+    private boolean groupCommit = false;
+
+    private int groupCommitMaxBatchSize = 128;
+
+    private int groupCommitQueueSize = 4096;
+
+    private volatile JdbcGroupCommitWriter groupCommitWriter;
+
+    private volatile boolean shutdown = false;
+
+    private int fetchSize = 100;
+
+    private boolean participantLog = false;
+
+    private int completedParticipantsColumnSize = 128;
+
+    private volatile Boolean completedParticipantsColumn;
+
+    private volatile Boolean leaseColumns;
+
     public String getDomain() {
         return domain;
     }
@@ -56,100 +88,589 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         return dataSource;
     }
 
-    protected int doCreate(Transaction transaction) {
+    /**
+     * when enabled, creates, updates and deletes of concurrent callers are written as JDBC batches in one database
+     * transaction by a single writer thread, each caller still waits for the commit and gets the result of its own row.
+     */
+    public void setGroupCommit(boolean groupCommit) {
+        this.groupCommit = groupCommit;
+    }
 
-        Connection connection = null;
-        PreparedStatement stmt = null;
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
 
-        try {
-            connection = this.getConnection();
+    public void setGroupCommitMaxBatchSize(int groupCommitMaxBatchSize) {
+        this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+    }
 
-            StringBuilder builder = new StringBuilder();
-            builder.append("INSERT INTO " + getTableName() +
-                    "(GLOBAL_TX_ID,BRANCH_QUALIFIER,TRANSACTION_TYPE,CONTENT,STATUS,RETRIED_COUNT,CREATE_TIME,LAST_UPDATE_TIME,VERSION");
-            builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN ) VALUES (?,?,?,?,?,?,?,?,?,?)" : ") VALUES (?,?,?,?,?,?,?,?,?)");
+    /**
+     * writes waiting for the group commit writer at most, callers wait for room beyond it.
+     */
+    public void setGroupCommitQueueSize(int groupCommitQueueSize) {
+        this.groupCommitQueueSize = groupCommitQueueSize;
+    }
 
-            stmt = connection.prepareStatement(builder.toString());
+    /**
+     * rows fetched per round trip by the recovery queries, e.g. MySQL honors it with useCursorFetch=true only.
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
 
-            stmt.setBytes(1, transaction.getXid().getGlobalTransactionId());
-            stmt.setBytes(2, transaction.getXid().getBranchQualifier());
-            stmt.setInt(3, transaction.getTransactionType().getId());
-            stmt.setBytes(4, serializer.serialize(transaction));
-            stmt.setInt(5, transaction.getStatus().getId());
-            stmt.setInt(6, transaction.getRetriedCount());
-            stmt.setTimestamp(7, new java.sql.Timestamp(transaction.getCreateTime().getTime()));
-            stmt.setTimestamp(8, new java.sql.Timestamp(transaction.getLastUpdateTime().getTime()));
-            stmt.setLong(9, transaction.getVersion());
+    public int getFetchSize() {
+        return fetchSize;
+    }
 
-            if (StringUtils.isNotEmpty(domain)) {
-                stmt.setString(10, domain);
-            }
+    /**
+     * when enabled, participants enlisted after the record is written are appended as rows of
+     * TCC_TRANSACTION[tbSuffix]_PARTICIPANT instead of rewriting CONTENT, and are added back to the transaction on read.
+     * appends always run on their own connection, also in group commit mode, as they take two statements.
+     */
+    public void setParticipantLog(boolean participantLog) {
+        this.participantLog = participantLog;
+    }
 
-            stmt.executeUpdate();
-            return 1;
+    public boolean isParticipantLog() {
+        return participantLog;
+    }
+
+    /**
+     * the width in bytes of COMPLETED_PARTICIPANTS, one bit per participant, varbinary(128) in db.sql.
+     * the bits of the participants past it are not persisted, retries invoke those participants again.
+     */
+    public void setCompletedParticipantsColumnSize(int completedParticipantsColumnSize) {
+        this.completedParticipantsColumnSize = completedParticipantsColumnSize;
+    }
+
+    public int getCompletedParticipantsColumnSize() {
+        return completedParticipantsColumnSize;
+    }
+
+    /**
+     * whether the table has the COMPLETED_PARTICIPANTS column, probed until known. tables created before it keep working
+     * without the completion bits until migrated with:
+     * ALTER TABLE TCC_TRANSACTION[tbSuffix] ADD COMPLETED_PARTICIPANTS varbinary(128) DEFAULT NULL
+     * a probe failing for another reason (a timeout, a failover) is not remembered, the next call probes again.
+     */
+    public boolean hasCompletedParticipantsColumn() {
+
+        Boolean present = completedParticipantsColumn;
+
+        if (present == null) {
+            present = probeColumns("completed participants are not persisted",
+                    "COMPLETED_PARTICIPANTS varbinary(" + completedParticipantsColumnSize + ") DEFAULT NULL",
+                    "COMPLETED_PARTICIPANTS");
+            completedParticipantsColumn = present;
+        }
+
+        return Boolean.TRUE.equals(present);
+    }
+
+    /**
+     * whether the table has the LEASE_OWNER and LEASE_EXPIRE_TIME columns, probed until known. without them the owners of
+     * the records queued by DurableTerminationQueue are not persisted and a restarted instance waits for its records to
+     * be idle as for any other's. tables created before them are migrated with the statements in db.sql.
+     */
+    public boolean hasLeaseColumns() {
+
+        Boolean present = leaseColumns;
+
+        if (present == null) {
+            present = probeColumns("the owners of durably queued transactions are not persisted",
+                    "LEASE_OWNER varchar(128) DEFAULT NULL, ADD LEASE_EXPIRE_TIME datetime DEFAULT NULL",
+                    "LEASE_OWNER", "LEASE_EXPIRE_TIME");
+            leaseColumns = present;
+        }
+
+        return Boolean.TRUE.equals(present);
+    }
+
+    /**
+     * TRUE if the table has the columns, FALSE if it has not, null if the probe failed for another reason
+     * (a timeout, a failover), which is not to be remembered.
+     */
+    private Boolean probeColumns(String consequence, String columnDefinitions, String... columns) {
+
+        Connection connection = null;
+        Statement stmt = null;
+
+        String columnList = String.join(",", columns);
+
+        try {
+            connection = this.getConnection();
+            stmt = connection.createStatement();
+            stmt.executeQuery("SELECT " + columnList + " FROM " + getTableName() + " WHERE 1 = 0").close();
+            return Boolean.TRUE;
         } catch (SQLException e) {
-            if (e instanceof SQLIntegrityConstraintViolationException) {
-                return 0;
-            } else {
-                throw new TransactionIOException(e);
+
+            if (isMissingColumn(connection, e, columns)) {
+                logger.warn("no " + columnList + " in " + getTableName() + ", " + consequence + ". add with: " +
+                        "ALTER TABLE " + getTableName() + " ADD " + columnDefinitions, e);
+                return Boolean.FALSE;
             }
-        } catch (Throwable throwable) {
-            throw new TransactionIOException(throwable);
+
+            logger.warn("failed to probe " + columnList + " of " + getTableName() + ", probed again on next use", e);
+            return null;
         } finally {
             closeStatement(stmt);
             this.releaseConnection(connection);
         }
     }
 
-    protected int doUpdate(Transaction transaction) {
-        Connection connection = null;
-        PreparedStatement stmt = null;
+    /**
+     * the SQLState of an unknown column (42S22 on MySQL, H2 and SQL Server, 42703 on PostgreSQL and DB2),
+     * else asks the metadata whether the table is there without one of the columns.
+     */
+    private boolean isMissingColumn(Connection connection, SQLException e, String... columns) {
 
-        java.util.Date lastUpdateTime = transaction.getLastUpdateTime();
-        long currentVersion = transaction.getVersion();
+        if ("42S22".equals(e.getSQLState()) || "42703".equals(e.getSQLState())) {
+            return true;
+        }
+
+        try {
+            DatabaseMetaData metaData = connection.getMetaData();
+
+            String tableName = metaData.storesLowerCaseIdentifiers() ? getTableName().toLowerCase() : getTableName();
+
+            ResultSet resultSet = metaData.getColumns(null, null, tableName, null);
+
+            try {
+                boolean tableFound = false;
+
+                List<String> missing = new ArrayList<String>(Arrays.asList(columns));
+
+                while (resultSet.next()) {
+                    tableFound = true;
+
+                    String columnName = resultSet.getString("COLUMN_NAME");
+
+                    for (String column : columns) {
+                        if (column.equalsIgnoreCase(columnName)) {
+                            missing.remove(column);
+                        }
+                    }
+                }
+
+                return tableFound && !missing.isEmpty();
+            } finally {
+                resultSet.close();
+            }
+        } catch (SQLException metaDataException) {
+            return false;
+        }
+    }
+
+    protected int doCreate(final Transaction transaction) {
+
+        final boolean leaseColumns = hasLeaseColumns();
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("INSERT INTO " + getTableName() +
+                "(GLOBAL_TX_ID,BRANCH_QUALIFIER,TRANSACTION_TYPE,CONTENT,STATUS,RETRIED_COUNT,CREATE_TIME,LAST_UPDATE_TIME,VERSION");
+        builder.append(leaseColumns ? ",LEASE_OWNER,LEASE_EXPIRE_TIME" : "");
+        builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN" : "");
+        builder.append(") VALUES (?,?,?,?,?,?,?,?,?");
+        builder.append(leaseColumns ? ",?,?" : "");
+        builder.append(StringUtils.isNotEmpty(domain) ? ",?)" : ")");
+
+        final byte[] content;
+        final int participantCount;
+
+        synchronized (transaction) {
+            participantCount = transaction.getParticipants().size();
+            content = serialize(transaction);
+        }
+
+        int result = write(new JdbcGroupCommitWriter.Write(builder.toString()) {
+            @Override
+            void bind(PreparedStatement stmt) throws SQLException {
+                stmt.setBytes(1, transaction.getXid().getGlobalTransactionId());
+                stmt.setBytes(2, transaction.getXid().getBranchQualifier());
+                stmt.setInt(3, transaction.getTransactionType().getId());
+                stmt.setBytes(4, content);
+                stmt.setInt(5, transaction.getStatus().getId());
+                stmt.setInt(6, transaction.getRetriedCount());
+                stmt.setTimestamp(7, new java.sql.Timestamp(transaction.getCreateTimeMillis()));
+                stmt.setTimestamp(8, new java.sql.Timestamp(transaction.getLastUpdateTimeMillis()));
+                stmt.setLong(9, transaction.getVersion());
+
+                int i = 9;
+
+                if (leaseColumns) {
+                    i = bindLease(stmt, i, transaction);
+                }
+
+                if (StringUtils.isNotEmpty(domain)) {
+                    stmt.setString(++i, domain);
+                }
+            }
+
+            @Override
+            int onFailure(SQLException e) throws SQLException {
+                if (e instanceof SQLIntegrityConstraintViolationException) {
+                    return 0;
+                }
+                throw e;
+            }
+        });
+
+        if (result > 0) {
+            transaction.markContentPersisted(participantCount);
+        }
+
+        return result;
+    }
+
+    protected int doUpdate(final Transaction transaction) {
+
+        if (participantLog) {
+            int persistedParticipantCount = transaction.getPersistedParticipantCount();
+            List<Participant> participants = transaction.getUnpersistedParticipants();
+
+            //nothing to append, the content changed otherwise and is rewritten.
+            if (participants != null && !participants.isEmpty()) {
+                return doAppendParticipants(transaction, persistedParticipantCount, participants);
+            }
+        }
+
+        long lastUpdateTime = transaction.getLastUpdateTimeMillis();
+        final long currentVersion = transaction.getVersion();
 
         transaction.updateTime();
         transaction.updateVersion();
 
         try {
-            connection = this.getConnection();
+            final boolean leaseColumns = hasLeaseColumns();
 
             StringBuilder builder = new StringBuilder();
             builder.append("UPDATE " + getTableName() + " SET " +
-                    "CONTENT = ?,STATUS = ?,LAST_UPDATE_TIME = ?, RETRIED_COUNT = ?,VERSION = VERSION+1 WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?");
+                    "CONTENT = ?,STATUS = ?,LAST_UPDATE_TIME = ?, RETRIED_COUNT = ?,");
+            builder.append(leaseColumns ? "LEASE_OWNER = ?,LEASE_EXPIRE_TIME = ?," : "");
+            builder.append("VERSION = VERSION+1 WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?");
 
             builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
 
-            stmt = connection.prepareStatement(builder.toString());
+            final byte[] content;
+            final int participantCount;
+
+            synchronized (transaction) {
+                participantCount = transaction.getParticipants().size();
+                content = serialize(transaction);
+            }
 
-            stmt.setBytes(1, serializer.serialize(transaction));
-            stmt.setInt(2, transaction.getStatus().getId());
-            stmt.setTimestamp(3, new Timestamp(transaction.getLastUpdateTime().getTime()));
+            int result = write(new JdbcGroupCommitWriter.Write(builder.toString(), true) {
+                @Override
+                void bind(PreparedStatement stmt) throws SQLException {
+                    stmt.setBytes(1, content);
+                    stmt.setInt(2, transaction.getStatus().getId());
+                    stmt.setTimestamp(3, new Timestamp(transaction.getLastUpdateTimeMillis()));
+                    stmt.setInt(4, transaction.getRetriedCount());
 
-            stmt.setInt(4, transaction.getRetriedCount());
-            stmt.setBytes(5, transaction.getXid().getGlobalTransactionId());
-            stmt.setBytes(6, transaction.getXid().getBranchQualifier());
-            stmt.setLong(7, currentVersion);
+                    int i = 4;
 
-            if (StringUtils.isNotEmpty(domain)) {
-                stmt.setString(8, domain);
-            }
+                    if (leaseColumns) {
+                        i = bindLease(stmt, i, transaction);
+                    }
 
-            int result = stmt.executeUpdate();
+                    stmt.setBytes(++i, transaction.getXid().getGlobalTransactionId());
+                    stmt.setBytes(++i, transaction.getXid().getBranchQualifier());
+                    stmt.setLong(++i, currentVersion);
+
+                    if (StringUtils.isNotEmpty(domain)) {
+                        stmt.setString(++i, domain);
+                    }
+                }
+            });
+
+            if (result > 0) {
+                transaction.markContentPersisted(participantCount);
+            }
 
             return result;
 
         } catch (Throwable e) {
             transaction.setLastUpdateTime(lastUpdateTime);
             transaction.setVersion(currentVersion);
+            throw e instanceof TransactionIOException ? (TransactionIOException) e : new TransactionIOException(e);
+        }
+    }
+
+    /**
+     * leaves CONTENT as it is, its status, version, retried count and last update time are overridden by the columns when read.
+     */
+    @Override
+    protected int doUpdateStatus(final Transaction transaction) {
+
+        long lastUpdateTime = transaction.getLastUpdateTimeMillis();
+        final long currentVersion = transaction.getVersion();
+
+        transaction.updateTime();
+        transaction.updateVersion();
+
+        try {
+            return write(statusWrite(transaction, currentVersion));
+
+        } catch (Throwable e) {
+            transaction.setLastUpdateTime(lastUpdateTime);
+            transaction.setVersion(currentVersion);
+            throw e instanceof TransactionIOException ? (TransactionIOException) e : new TransactionIOException(e);
+        }
+    }
+
+    /**
+     * the status update and the inserts of the new participants, in one database transaction.
+     */
+    private int doAppendParticipants(Transaction transaction, int persistedParticipantCount, List<Participant> participants) {
+
+        long lastUpdateTime = transaction.getLastUpdateTimeMillis();
+        long currentVersion = transaction.getVersion();
+
+        transaction.updateTime();
+        transaction.updateVersion();
+
+        int result = 0;
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+
+        try {
+            connection = this.getConnection();
+
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            try {
+                result = statusWrite(transaction, currentVersion).execute(connection);
+
+                if (result > 0) {
+
+                    stmt = connection.prepareStatement("INSERT INTO " + getParticipantTableName() +
+                            "(GLOBAL_TX_ID,BRANCH_QUALIFIER,PARTICIPANT_INDEX,CONTENT) VALUES (?,?,?,?)");
+
+                    for (int i = 0; i < participants.size(); i++) {
+                        stmt.setBytes(1, transaction.getXid().getGlobalTransactionId());
+                        stmt.setBytes(2, transaction.getXid().getBranchQualifier());
+                        stmt.setInt(3, persistedParticipantCount + i);
+                        stmt.setBytes(4, serializer.serialize(participants.get(i)));
+                        stmt.addBatch();
+                    }
+
+                    stmt.executeBatch();
+                }
+
+                if (result > 0) {
+                    connection.commit();
+                } else {
+                    connection.rollback();
+                }
+
+            } catch (SQLException e) {
+                result = 0;
+                connection.rollback();
+                throw e;
+            } finally {
+                closeStatement(stmt);
+                connection.setAutoCommit(autoCommit);
+            }
+
+        } catch (Throwable e) {
+            throw e instanceof TransactionIOException ? (TransactionIOException) e : new TransactionIOException(e);
+        } finally {
+            if (result > 0) {
+                transaction.markContentPersisted(persistedParticipantCount + participants.size());
+            } else {
+                transaction.setLastUpdateTime(lastUpdateTime);
+                transaction.setVersion(currentVersion);
+            }
+            this.releaseConnection(connection);
+        }
+
+        return result;
+    }
+
+    private JdbcGroupCommitWriter.Write statusWrite(final Transaction transaction, final long currentVersion) {
+
+        final boolean leaseColumns = hasLeaseColumns();
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("UPDATE " + getTableName() + " SET " +
+                "STATUS = ?,LAST_UPDATE_TIME = ?, RETRIED_COUNT = ?,");
+        builder.append(leaseColumns ? "LEASE_OWNER = ?,LEASE_EXPIRE_TIME = ?," : "");
+        builder.append("VERSION = VERSION+1 WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?");
+
+        builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+
+        return new JdbcGroupCommitWriter.Write(builder.toString(), true) {
+            @Override
+            void bind(PreparedStatement stmt) throws SQLException {
+                stmt.setInt(1, transaction.getStatus().getId());
+                stmt.setTimestamp(2, new Timestamp(transaction.getLastUpdateTimeMillis()));
+                stmt.setInt(3, transaction.getRetriedCount());
+
+                int i = 3;
+
+                if (leaseColumns) {
+                    i = bindLease(stmt, i, transaction);
+                }
+
+                stmt.setBytes(++i, transaction.getXid().getGlobalTransactionId());
+                stmt.setBytes(++i, transaction.getXid().getBranchQualifier());
+                stmt.setLong(++i, currentVersion);
+
+                if (StringUtils.isNotEmpty(domain)) {
+                    stmt.setString(++i, domain);
+                }
+            }
+        };
+    }
+
+    /**
+     * binds LEASE_OWNER and LEASE_EXPIRE_TIME after the parameter at index, returns the index of the last one bound.
+     */
+    private static int bindLease(PreparedStatement stmt, int index, Transaction transaction) throws SQLException {
+
+        long leaseExpireTimeMillis = transaction.getLeaseExpireTimeMillis();
+
+        stmt.setString(++index, transaction.getOwner());
+
+        if (leaseExpireTimeMillis > 0) {
+            stmt.setTimestamp(++index, new Timestamp(leaseExpireTimeMillis));
+        } else {
+            stmt.setNull(++index, Types.TIMESTAMP);
+        }
+
+        return index;
+    }
+
+    /**
+     * one statement for all the records of the owner, on IX_LEASE_OWNER. renews nothing without the lease columns.
+     */
+    @Override
+    public int renewLease(final String owner, final java.util.Date leaseExpireTime) {
+
+        if (!hasLeaseColumns()) {
+            return 0;
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("UPDATE " + getTableName() + " SET LEASE_EXPIRE_TIME = ? WHERE LEASE_OWNER = ?");
+
+        builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+
+        return write(new JdbcGroupCommitWriter.Write(builder.toString()) {
+            @Override
+            void bind(PreparedStatement stmt) throws SQLException {
+                stmt.setTimestamp(1, new Timestamp(leaseExpireTime.getTime()));
+                stmt.setString(2, owner);
+
+                if (StringUtils.isNotEmpty(domain)) {
+                    stmt.setString(3, domain);
+                }
+            }
+        });
+    }
+
+    /**
+     * bits set only, so writing them needs no version check. not persisted (0) without the column.
+     */
+    @Override
+    protected int doUpdateCompletion(final Transaction transaction) {
+
+        if (!hasCompletedParticipantsColumn()) {
+            return 0;
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("UPDATE " + getTableName() + " SET COMPLETED_PARTICIPANTS = ? WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?");
+
+        builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+
+        byte[] bits = transaction.getCompletedParticipants();
+
+        if (bits != null && bits.length > completedParticipantsColumnSize) {
+            logger.warn("transaction " + transaction.getXid() + " has more than " + completedParticipantsColumnSize * 8 +
+                    " participants, only the completion of the first ones is persisted.");
+            bits = Arrays.copyOf(bits, completedParticipantsColumnSize);
+        }
+
+        final byte[] completedParticipants = bits;
+
+        return write(new JdbcGroupCommitWriter.Write(builder.toString()) {
+            @Override
+            void bind(PreparedStatement stmt) throws SQLException {
+                stmt.setBytes(1, completedParticipants);
+                stmt.setBytes(2, transaction.getXid().getGlobalTransactionId());
+                stmt.setBytes(3, transaction.getXid().getBranchQualifier());
+
+                if (StringUtils.isNotEmpty(domain)) {
+                    stmt.setString(4, domain);
+                }
+            }
+        });
+    }
+
+    /**
+     * with the participant log, the record and its logged participants are deleted in one database transaction
+     * on their own connection, also in group commit mode.
+     */
+    protected int doDelete(final Transaction transaction) {
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("DELETE FROM " + getTableName() +
+                " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?");
+
+        builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+
+        JdbcGroupCommitWriter.Write delete = new JdbcGroupCommitWriter.Write(builder.toString()) {
+            @Override
+            void bind(PreparedStatement stmt) throws SQLException {
+                stmt.setBytes(1, transaction.getXid().getGlobalTransactionId());
+                stmt.setBytes(2, transaction.getXid().getBranchQualifier());
+
+                if (StringUtils.isNotEmpty(domain)) {
+                    stmt.setString(3, domain);
+                }
+            }
+        };
+
+        if (!participantLog) {
+            return write(delete);
+        }
+
+        Connection connection = null;
+
+        try {
+            connection = this.getConnection();
+
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            try {
+                int result = delete.execute(connection);
+                deleteLoggedParticipants(connection, Collections.singletonList(transaction));
+                connection.commit();
+                return result;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
             throw new TransactionIOException(e);
         } finally {
-            closeStatement(stmt);
             this.releaseConnection(connection);
         }
     }
 
-    protected int doDelete(Transaction transaction) {
+    @Override
+    protected int doDeleteAll(List<Transaction> transactions) {
+
+        if (CollectionUtils.isEmpty(transactions)) {
+            return 0;
+        }
+
         Connection connection = null;
         PreparedStatement stmt = null;
 
@@ -157,21 +678,47 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
             connection = this.getConnection();
 
             StringBuilder builder = new StringBuilder();
-            builder.append("DELETE FROM " + getTableName() +
-                    " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?");
+            builder.append("DELETE FROM " + getTableName() + " WHERE (");
+
+            for (int i = 0; i < transactions.size(); i++) {
+                builder.append(i == 0 ? "" : " OR").append(" ( GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? )");
+            }
 
+            builder.append(" )");
             builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
 
             stmt = connection.prepareStatement(builder.toString());
 
-            stmt.setBytes(1, transaction.getXid().getGlobalTransactionId());
-            stmt.setBytes(2, transaction.getXid().getBranchQualifier());
+            int i = 0;
+
+            for (Transaction transaction : transactions) {
+                stmt.setBytes(++i, transaction.getXid().getGlobalTransactionId());
+                stmt.setBytes(++i, transaction.getXid().getBranchQualifier());
+            }
 
             if (StringUtils.isNotEmpty(domain)) {
-                stmt.setString(3, domain);
+                stmt.setString(++i, domain);
+            }
+
+            if (!participantLog) {
+                return stmt.executeUpdate();
             }
 
-            return stmt.executeUpdate();
+            //the records and their logged participants in one database transaction.
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            try {
+                int result = stmt.executeUpdate();
+                deleteLoggedParticipants(connection, transactions);
+                connection.commit();
+                return result;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
 
         } catch (SQLException e) {
             throw new TransactionIOException(e);
@@ -204,13 +751,14 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
             StringBuilder builder = new StringBuilder();
 
-            builder.append("SELECT GLOBAL_TX_ID, BRANCH_QUALIFIER, CONTENT,STATUS,TRANSACTION_TYPE,CREATE_TIME,LAST_UPDATE_TIME,RETRIED_COUNT,VERSION");
+            builder.append(selectColumns());
             builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN" : "");
             builder.append("  FROM " + getTableName() + " WHERE LAST_UPDATE_TIME < ?");
             builder.append(" AND IS_DELETE = 0 ");
             builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
 
             stmt = connection.prepareStatement(builder.toString());
+            stmt.setFetchSize(fetchSize);
 
             stmt.setTimestamp(1, new Timestamp(date.getTime()));
 
@@ -221,6 +769,10 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
             ResultSet resultSet = stmt.executeQuery();
 
             this.constructTransactions(resultSet, transactions);
+
+            if (participantLog) {
+                appendLoggedParticipants(connection, transactions);
+            }
         } catch (Throwable e) {
             throw new TransactionIOException(e);
         } finally {
@@ -231,6 +783,81 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         return transactions;
     }
 
+    /**
+     * keyset pagination on (LAST_UPDATE_TIME, GLOBAL_TX_ID, BRANCH_QUALIFIER): each page starts strictly after the
+     * last row of the previous one, so it costs the same however deep the scan is and recovered rows
+     * (whose LAST_UPDATE_TIME moves past date) neither shift nor repeat the following pages.
+     */
+    @Override
+    protected Page<Transaction> doFindAllUnmodifiedSince(java.util.Date date, String offset, int pageSize) {
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+
+        try {
+            connection = this.getConnection();
+
+            StringBuilder builder = new StringBuilder();
+
+            builder.append(selectColumns());
+            builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN" : "");
+            builder.append("  FROM " + getTableName() + " WHERE LAST_UPDATE_TIME < ?");
+            builder.append(" AND IS_DELETE = 0 ");
+            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+
+            if (offset != null) {
+                builder.append(" AND ( LAST_UPDATE_TIME > ? OR ( LAST_UPDATE_TIME = ? AND ( GLOBAL_TX_ID > ? OR ( GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER > ? ) ) ) )");
+            }
+
+            builder.append(" ORDER BY LAST_UPDATE_TIME, GLOBAL_TX_ID, BRANCH_QUALIFIER");
+
+            stmt = connection.prepareStatement(builder.toString());
+            stmt.setMaxRows(pageSize);
+            stmt.setFetchSize(Math.min(fetchSize, pageSize));
+
+            int i = 0;
+
+            stmt.setTimestamp(++i, new Timestamp(date.getTime()));
+
+            if (StringUtils.isNotEmpty(domain)) {
+                stmt.setString(++i, domain);
+            }
+
+            if (offset != null) {
+                KeysetOffset keysetOffset = KeysetOffset.parse(offset);
+
+                stmt.setTimestamp(++i, keysetOffset.lastUpdateTime);
+                stmt.setTimestamp(++i, keysetOffset.lastUpdateTime);
+                stmt.setBytes(++i, keysetOffset.globalTransactionId);
+                stmt.setBytes(++i, keysetOffset.globalTransactionId);
+                stmt.setBytes(++i, keysetOffset.branchQualifier);
+            }
+
+            ResultSet resultSet = stmt.executeQuery();
+
+            KeysetOffset last = null;
+
+            while (resultSet.next()) {
+                transactions.add(constructTransaction(resultSet));
+                last = new KeysetOffset(resultSet.getTimestamp(7), resultSet.getBytes(1), resultSet.getBytes(2));
+            }
+
+            if (participantLog) {
+                appendLoggedParticipants(connection, transactions);
+            }
+
+            return new Page<Transaction>(transactions, transactions.size() < pageSize || last == null ? null : last.toString());
+
+        } catch (Throwable e) {
+            throw e instanceof TransactionIOException ? (TransactionIOException) e : new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            this.releaseConnection(connection);
+        }
+    }
+
     protected List<Transaction> doFind(List<Xid> xids) {
 
         List<Transaction> transactions = new ArrayList<Transaction>();
@@ -246,7 +873,7 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
             connection = this.getConnection();
 
             StringBuilder builder = new StringBuilder();
-            builder.append("SELECT GLOBAL_TX_ID, BRANCH_QUALIFIER, CONTENT,STATUS,TRANSACTION_TYPE,CREATE_TIME,LAST_UPDATE_TIME,RETRIED_COUNT,VERSION");
+            builder.append(selectColumns());
             builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN" : "");
             builder.append("  FROM " + getTableName() + " WHERE");
 
@@ -276,6 +903,10 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
             ResultSet resultSet = stmt.executeQuery();
 
             this.constructTransactions(resultSet, transactions);
+
+            if (participantLog) {
+                appendLoggedParticipants(connection, transactions);
+            }
         } catch (Throwable e) {
             throw new TransactionIOException(e);
         } finally {
@@ -286,15 +917,183 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         return transactions;
     }
 
+    /**
+     * runs the write on its own connection, or hands it to the group commit writer and waits for its commit.
+     */
+    private int write(JdbcGroupCommitWriter.Write write) {
+
+        JdbcGroupCommitWriter writer = groupCommit ? getGroupCommitWriter() : null;
+
+        if (writer != null) {
+            return writer.execute(write);
+        }
+
+        Connection connection = null;
+
+        try {
+            connection = this.getConnection();
+            return write.execute(connection);
+        } catch (SQLException e) {
+            throw new TransactionIOException(e);
+        } finally {
+            this.releaseConnection(connection);
+        }
+    }
+
+    private JdbcGroupCommitWriter getGroupCommitWriter() {
+
+        JdbcGroupCommitWriter writer = groupCommitWriter;
+
+        if (writer == null && !shutdown) {
+            synchronized (this) {
+                writer = groupCommitWriter;
+                if (writer == null && !shutdown) {
+                    writer = new JdbcGroupCommitWriter("tcc-group-commit-" + getTableName() + (StringUtils.isNotEmpty(domain) ? "-" + domain : ""),
+                            this, groupCommitMaxBatchSize, groupCommitQueueSize);
+                    groupCommitWriter = writer;
+                }
+            }
+        }
+
+        return writer;
+    }
+
+    /**
+     * stops the group commit writer, e.g. as destroy method of the repository bean. the writes already queued are
+     * committed first, later writes run on their own connection.
+     */
+    public void shutdown() {
+
+        JdbcGroupCommitWriter writer;
+
+        synchronized (this) {
+            shutdown = true;
+            writer = groupCommitWriter;
+        }
+
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    /**
+     * the optional columns follow the fixed ones, COMPLETED_PARTICIPANTS at 10 when present.
+     */
+    private String selectColumns() {
+
+        StringBuilder columns = new StringBuilder(SELECT_COLUMNS);
+
+        if (hasCompletedParticipantsColumn()) {
+            columns.append(",COMPLETED_PARTICIPANTS");
+        }
+
+        if (hasLeaseColumns()) {
+            columns.append(",LEASE_OWNER,LEASE_EXPIRE_TIME");
+        }
+
+        return columns.toString();
+    }
+
+    private byte[] serialize(Transaction transaction) {
+        byte[] content = serializer.serialize(transaction);
+        transaction.setSerializedSize(content.length);
+        return content;
+    }
+
     protected void constructTransactions(ResultSet resultSet, List<Transaction> transactions) throws SQLException {
         while (resultSet.next()) {
-            byte[] transactionBytes = resultSet.getBytes(3);
-            Transaction transaction = (Transaction) serializer.deserialize(transactionBytes);
-            transaction.changeStatus(TransactionStatus.valueOf(resultSet.getInt(4)));
-            transaction.setLastUpdateTime(resultSet.getDate(7));
-            transaction.setVersion(resultSet.getLong(9));
-            transaction.resetRetriedCount(resultSet.getInt(8));
-            transactions.add(transaction);
+            transactions.add(constructTransaction(resultSet));
+        }
+    }
+
+    private Transaction constructTransaction(ResultSet resultSet) throws SQLException {
+        byte[] transactionBytes = resultSet.getBytes(3);
+        Transaction transaction = (Transaction) serializer.deserialize(transactionBytes);
+        transaction.setSerializedSize(transactionBytes.length);
+        transaction.changeStatus(TransactionStatus.valueOf(resultSet.getInt(4)));
+        transaction.setLastUpdateTime(resultSet.getTimestamp(7));
+        transaction.setVersion(resultSet.getLong(9));
+        transaction.resetRetriedCount(resultSet.getInt(8));
+        if (Boolean.TRUE.equals(completedParticipantsColumn)) {
+            transaction.mergeCompletedParticipants(resultSet.getBytes(10));
+        }
+        if (Boolean.TRUE.equals(leaseColumns)) {
+            Timestamp leaseExpireTime = resultSet.getTimestamp("LEASE_EXPIRE_TIME");
+            transaction.setLease(resultSet.getString("LEASE_OWNER"), leaseExpireTime == null ? 0 : leaseExpireTime.getTime());
+        }
+        transaction.markContentPersisted(transaction.getParticipants().size());
+        return transaction;
+    }
+
+    /**
+     * adds the participants logged after CONTENT was written, the rows of participants already inside CONTENT are skipped.
+     */
+    private void appendLoggedParticipants(Connection connection, List<Transaction> transactions) throws SQLException {
+
+        for (int from = 0; from < transactions.size(); from += PARTICIPANT_LOG_QUERY_SIZE) {
+
+            List<Transaction> chunk = transactions.subList(from, Math.min(from + PARTICIPANT_LOG_QUERY_SIZE, transactions.size()));
+
+            Map<TransactionXid, Transaction> transactionsByXid = new HashMap<TransactionXid, Transaction>();
+
+            for (Transaction transaction : chunk) {
+                transactionsByXid.put((TransactionXid) transaction.getXid(), transaction);
+            }
+
+            PreparedStatement stmt = connection.prepareStatement("SELECT GLOBAL_TX_ID, BRANCH_QUALIFIER, PARTICIPANT_INDEX, CONTENT FROM " + getParticipantTableName()
+                    + " WHERE " + xidConditions(chunk.size()) + " ORDER BY GLOBAL_TX_ID, BRANCH_QUALIFIER, PARTICIPANT_INDEX");
+
+            try {
+                bindXids(stmt, chunk);
+
+                ResultSet resultSet = stmt.executeQuery();
+
+                while (resultSet.next()) {
+                    Transaction transaction = transactionsByXid.get(new TransactionXid(resultSet.getBytes(1), resultSet.getBytes(2)));
+
+                    if (transaction != null && resultSet.getInt(3) == transaction.getParticipants().size()) {
+                        transaction.getParticipants().add((Participant) serializer.deserialize(resultSet.getBytes(4)));
+                    }
+                }
+            } finally {
+                closeStatement(stmt);
+            }
+
+            for (Transaction transaction : chunk) {
+                transaction.markContentPersisted(transaction.getParticipants().size());
+            }
+        }
+    }
+
+    private void deleteLoggedParticipants(Connection connection, List<Transaction> transactions) throws SQLException {
+
+        PreparedStatement stmt = connection.prepareStatement("DELETE FROM " + getParticipantTableName() + " WHERE " + xidConditions(transactions.size()));
+
+        try {
+            bindXids(stmt, transactions);
+            stmt.executeUpdate();
+        } finally {
+            closeStatement(stmt);
+        }
+    }
+
+    private String xidConditions(int count) {
+
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "" : " OR").append(" ( GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? )");
+        }
+        return builder.toString();
+    }
+
+    private void bindXids(PreparedStatement stmt, List<Transaction> transactions) throws SQLException {
+
+        int i = 0;
+
+        for (Transaction transaction : transactions) {
+            stmt.setBytes(++i, transaction.getXid().getGlobalTransactionId());
+            stmt.setBytes(++i, transaction.getXid().getBranchQualifier());
         }
     }
 
@@ -330,4 +1129,48 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
     private String getTableName() {
         return StringUtils.isNotEmpty(tbSuffix) ? "TCC_TRANSACTION" + tbSuffix : "TCC_TRANSACTION";
     }
+
+    private String getParticipantTableName() {
+        return getTableName() + "_PARTICIPANT";
+    }
+
+    /**
+     * the key of the last row of a page, written as millis:nanos:hex(GLOBAL_TX_ID):hex(BRANCH_QUALIFIER),
+     * the last two parts being the TransactionXid key.
+     */
+    private static class KeysetOffset {
+
+        private final Timestamp lastUpdateTime;
+
+        private final byte[] globalTransactionId;
+
+        private final byte[] branchQualifier;
+
+        KeysetOffset(Timestamp lastUpdateTime, byte[] globalTransactionId, byte[] branchQualifier) {
+            this.lastUpdateTime = lastUpdateTime;
+            this.globalTransactionId = globalTransactionId;
+            this.branchQualifier = branchQualifier;
+        }
+
+        static KeysetOffset parse(String offset) {
+
+            String[] parts = offset.split(":", 3);
+
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("invalid offset: " + offset);
+            }
+
+            Timestamp lastUpdateTime = new Timestamp(Long.parseLong(parts[0]));
+            lastUpdateTime.setNanos(Integer.parseInt(parts[1]));
+
+            TransactionXid xid = TransactionXid.valueOf(parts[2]);
+
+            return new KeysetOffset(lastUpdateTime, xid.getGlobalTransactionId(), xid.getBranchQualifier());
+        }
+
+        @Override
+        public String toString() {
+            return lastUpdateTime.getTime() + ":" + lastUpdateTime.getNanos() + ":" + new TransactionXid(globalTransactionId, branchQualifier);
+        }
+    }
 }
@@ -0,0 +1,30 @@
+package org.mengyun.tcctransaction.repository;
+
+import java.util.List;
+
+/**
+ * one page of a paginated query: the rows, and the offset to pass for the next page (null after the last page).
+ */
+public class Page<T> {
+
+    private final List<T> data;
+
+    private final String nextOffset;
+
+    public Page(List<T> data, String nextOffset) {
+        this.data = data;
+        this.nextOffset = nextOffset;
+    }
+
+    public List<T> getData() {
+        return data;
+    }
+
+    public String getNextOffset() {
+        return nextOffset;
+    }
+
+    public boolean hasNext() {
+        return nextOffset != null;
+    }
+}
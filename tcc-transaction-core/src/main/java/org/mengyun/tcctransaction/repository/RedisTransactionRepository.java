@@ -34,6 +34,8 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
 
     private boolean isForbiddenKeys = false;
 
+    private boolean legacyKeyLookup = true;
+
     public void setKeyPrefix(String keyPrefix) {
         this.keyPrefix = keyPrefix;
     }
@@ -75,6 +77,22 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
         isForbiddenKeys = forbiddenKeys;
     }
 
+    /**
+     * when on, a record not found by its hex key is looked up (and migrated) by its legacy key, one more round trip per miss.
+     * on by default, so records written before an upgrade are still found. can be turned off once migrateLegacyKeys has run.
+     */
+    public void setLegacyKeyLookup(boolean legacyKeyLookup) {
+        this.legacyKeyLookup = legacyKeyLookup;
+    }
+
+    /**
+     * one-time step after upgrading: renames every record still under its legacy key to the hex key.
+     * the recovery scan migrates the legacy records it meets as well.
+     */
+    public void migrateLegacyKeys() {
+        doFindAll();
+    }
+
     @Override
     protected int doCreate(final Transaction transaction) {
 
@@ -139,6 +157,66 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
         }
     }
 
+    /**
+     * sets the status fields only, CONTENT and CONTENT_VIEW keep the values of the last full write.
+     */
+    @Override
+    protected int doUpdateStatus(final Transaction transaction) {
+
+        try {
+
+            Long statusCode = RedisHelper.execute(jedisPool, new JedisCallback<Long>() {
+                @Override
+                public Long doInJedis(Jedis jedis) {
+
+                    transaction.updateTime();
+                    transaction.updateVersion();
+
+                    List<byte[]> params = new ArrayList<byte[]>();
+
+                    for (Map.Entry<byte[], byte[]> entry : ExpandTransactionSerializer.serializeStatus(transaction).entrySet()) {
+                        params.add(entry.getKey());
+                        params.add(entry.getValue());
+                    }
+
+                    Object result = jedis.eval(String.format("if redis.call('hget',KEYS[1],'VERSION') == '%s' then redis.call('hmset', KEYS[1], unpack(ARGV)); return 1; end; return 0;",
+                            transaction.getVersion() - 1).getBytes(),
+                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid())), params);
+
+                    return (Long) result;
+                }
+            });
+
+            return statusCode.intValue();
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    @Override
+    protected int doUpdateCompletion(final Transaction transaction) {
+
+        final byte[] completedParticipants = transaction.getCompletedParticipants();
+
+        if (completedParticipants == null) {
+            return 1;
+        }
+
+        try {
+            Long statusCode = RedisHelper.execute(jedisPool, new JedisCallback<Long>() {
+                @Override
+                public Long doInJedis(Jedis jedis) {
+                    return (Long) jedis.eval("if redis.call('exists', KEYS[1]) == 1 then redis.call('hset', KEYS[1], 'COMPLETED_PARTICIPANTS', ARGV[1]); return 1; end; return 0;".getBytes(),
+                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid())), Arrays.asList(completedParticipants));
+                }
+            });
+
+            return statusCode.intValue();
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
     @Override
     protected int doDelete(final Transaction transaction) {
         try {
@@ -157,6 +235,38 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
         }
     }
 
+    @Override
+    protected int doDeleteAll(final List<Transaction> transactions) {
+        try {
+
+            List<Object> results = RedisHelper.execute(jedisPool, new JedisCallback<List<Object>>() {
+                @Override
+                public List<Object> doInJedis(Jedis jedis) {
+
+                    Pipeline pipeline = jedis.pipelined();
+
+                    for (Transaction transaction : transactions) {
+                        pipeline.del(RedisHelper.getRedisKey(keyPrefix, transaction.getXid()));
+                    }
+
+                    return pipeline.syncAndReturnAll();
+                }
+            });
+
+            int deleted = 0;
+
+            for (Object result : results) {
+                if (result instanceof Long) {
+                    deleted += ((Long) result).intValue();
+                }
+            }
+
+            return deleted;
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
     @Override
     protected Transaction doFindOne(final Xid xid) {
 
@@ -165,7 +275,16 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
             Map<byte[], byte[]> content = RedisHelper.execute(jedisPool, new JedisCallback<Map<byte[], byte[]>>() {
                 @Override
                 public Map<byte[], byte[]> doInJedis(Jedis jedis) {
-                    return jedis.hgetAll(RedisHelper.getRedisKey(keyPrefix, xid));
+
+                    byte[] key = RedisHelper.getRedisKey(keyPrefix, xid);
+
+                    Map<byte[], byte[]> content = jedis.hgetAll(key);
+
+                    if ((content == null || content.isEmpty()) && legacyKeyLookup) {
+                        content = migrateLegacyKey(jedis, RedisHelper.getLegacyRedisKey(keyPrefix, xid), key);
+                    }
+
+                    return content;
                 }
             });
             logger.info("redis find cost time :" + (System.currentTimeMillis() - startTime));
@@ -187,7 +306,7 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
         List<Transaction> allUnmodifiedSince = new ArrayList<Transaction>();
 
         for (Transaction transaction : allTransactions) {
-            if (transaction.getLastUpdateTime().compareTo(date) < 0) {
+            if (transaction.getLastUpdateTimeMillis() < date.getTime()) {
                 allUnmodifiedSince.add(transaction);
             }
         }
@@ -233,19 +352,31 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
                 @Override
                 public List<Transaction> doInJedis(Jedis jedis) {
 
+                    List<byte[]> keyList = new ArrayList<byte[]>(keys);
+
                     Pipeline pipeline = jedis.pipelined();
 
-                    for (final byte[] key : keys) {
+                    for (final byte[] key : keyList) {
                         pipeline.hgetAll(key);
                     }
                     List<Object> result = pipeline.syncAndReturnAll();
 
                     List<Transaction> list = new ArrayList<Transaction>();
-                    for (Object data : result) {
+                    for (int i = 0; i < result.size(); i++) {
+
+                        Object data = result.get(i);
 
                         if (data != null && ((Map<byte[], byte[]>) data).size() > 0) {
 
-                            list.add(ExpandTransactionSerializer.deserialize(serializer, (Map<byte[], byte[]>) data));
+                            Transaction transaction = ExpandTransactionSerializer.deserialize(serializer, (Map<byte[], byte[]>) data);
+
+                            byte[] key = RedisHelper.getRedisKey(keyPrefix, transaction.getXid());
+
+                            if (!Arrays.equals(keyList.get(i), key)) {
+                                migrateLegacyKey(jedis, keyList.get(i), key);
+                            }
+
+                            list.add(transaction);
                         }
 
                     }
@@ -258,4 +389,27 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
             throw new TransactionIOException(e);
         }
     }
+
+    /**
+     * renames a record written under the legacy key to the hex key, unless another node did it already,
+     * and returns the record under the hex key.
+     */
+    private Map<byte[], byte[]> migrateLegacyKey(Jedis jedis, byte[] legacyKey, byte[] key) {
+
+        List<byte[]> fields = (List<byte[]>) jedis.eval(("if redis.call('exists', KEYS[1]) == 1 then redis.call('renamenx', KEYS[1], KEYS[2]); end; " +
+                        "return redis.call('hgetall', KEYS[2]);").getBytes(),
+                Arrays.asList(legacyKey, key), Collections.<byte[]>emptyList());
+
+        Map<byte[], byte[]> content = new HashMap<byte[], byte[]>();
+
+        for (int i = 0; i + 1 < fields.size(); i += 2) {
+            content.put(fields.get(i), fields.get(i + 1));
+        }
+
+        if (!content.isEmpty()) {
+            logger.info("migrated transaction record from legacy key " + new String(legacyKey) + " to " + new String(key));
+        }
+
+        return content;
+    }
 }
@@ -0,0 +1,290 @@
+package org.mengyun.tcctransaction.repository;
+
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.repository.cache.NoopTransactionCache;
+import org.mengyun.tcctransaction.support.TerminateThreadPoolExecutor;
+
+import javax.transaction.xa.Xid;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * spreads the transaction records over several JdbcTransactionRepository shards, each with its own DataSource and/or tbSuffix.
+ * a record lives on shard hash(GLOBAL_TX_ID) % shardCount, so the operations on one transaction touch its shard only
+ * and all branches of a global transaction land on the same shard. the recovery scans run on all shards in parallel.
+ * the shard count and order must not change while records exist, the records would be looked up on the wrong shard.
+ */
+public class ShardingJdbcTransactionRepository extends CachableTransactionRepository {
+
+    private static final String FINISHED = "*";
+
+    private static final String OFFSET_SEPARATOR = ";";
+
+    private List<JdbcTransactionRepository> shards = new ArrayList<JdbcTransactionRepository>();
+
+    private volatile ExecutorService scanExecutorService;
+
+    /**
+     * the shards, configured as standalone repositories. their own caches are never used and replaced by a NoopTransactionCache.
+     */
+    public void setShards(List<JdbcTransactionRepository> shards) {
+        this.shards = new ArrayList<JdbcTransactionRepository>(shards);
+
+        for (JdbcTransactionRepository shard : this.shards) {
+            shard.setTransactionCache(NoopTransactionCache.INSTANCE);
+        }
+    }
+
+    public List<JdbcTransactionRepository> getShards() {
+        return shards;
+    }
+
+    @Override
+    protected int doCreate(Transaction transaction) {
+        return shardOf(transaction.getXid()).doCreate(transaction);
+    }
+
+    @Override
+    protected int doUpdate(Transaction transaction) {
+        return shardOf(transaction.getXid()).doUpdate(transaction);
+    }
+
+    @Override
+    protected int doUpdateStatus(Transaction transaction) {
+        return shardOf(transaction.getXid()).doUpdateStatus(transaction);
+    }
+
+    @Override
+    protected int doUpdateCompletion(Transaction transaction) {
+        return shardOf(transaction.getXid()).doUpdateCompletion(transaction);
+    }
+
+    @Override
+    protected int doDelete(Transaction transaction) {
+        return shardOf(transaction.getXid()).doDelete(transaction);
+    }
+
+    /**
+     * one batched delete per shard touched.
+     */
+    @Override
+    protected int doDeleteAll(List<Transaction> transactions) {
+
+        Map<JdbcTransactionRepository, List<Transaction>> transactionsByShard = new LinkedHashMap<JdbcTransactionRepository, List<Transaction>>();
+
+        for (Transaction transaction : transactions) {
+            JdbcTransactionRepository shard = shardOf(transaction.getXid());
+
+            List<Transaction> shardTransactions = transactionsByShard.get(shard);
+
+            if (shardTransactions == null) {
+                shardTransactions = new ArrayList<Transaction>();
+                transactionsByShard.put(shard, shardTransactions);
+            }
+            shardTransactions.add(transaction);
+        }
+
+        int result = 0;
+
+        for (Map.Entry<JdbcTransactionRepository, List<Transaction>> entry : transactionsByShard.entrySet()) {
+            result += entry.getKey().doDeleteAll(entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * the records of the owner may be on any shard, each one is renewed.
+     */
+    @Override
+    public int renewLease(String owner, Date leaseExpireTime) {
+
+        int result = 0;
+
+        for (JdbcTransactionRepository shard : shards) {
+            result += shard.renewLease(owner, leaseExpireTime);
+        }
+        return result;
+    }
+
+    @Override
+    protected Transaction doFindOne(Xid xid) {
+        return shardOf(xid).doFindOne(xid);
+    }
+
+    @Override
+    protected List<Transaction> doFindAllUnmodifiedSince(final Date date) {
+
+        List<Callable<List<Transaction>>> scans = new ArrayList<Callable<List<Transaction>>>(shards.size());
+
+        for (final JdbcTransactionRepository shard : shards) {
+            scans.add(new Callable<List<Transaction>>() {
+                @Override
+                public List<Transaction> call() throws Exception {
+                    return shard.doFindAllUnmodifiedSince(date);
+                }
+            });
+        }
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        for (List<Transaction> shardTransactions : fanOut(scans)) {
+            transactions.addAll(shardTransactions);
+        }
+
+        return transactions;
+    }
+
+    /**
+     * the next page of every shard not finished yet, fetched in parallel, each shard bringing its share of pageSize.
+     * the offset holds the keyset offset of each shard, separated by ';', '*' marking the finished ones.
+     */
+    @Override
+    protected Page<Transaction> doFindAllUnmodifiedSince(final Date date, String offset, int pageSize) {
+
+        final String[] shardOffsets = offset == null ? new String[shards.size()] : offset.split(OFFSET_SEPARATOR, -1);
+
+        if (shardOffsets.length != shards.size()) {
+            throw new IllegalArgumentException("invalid offset for " + shards.size() + " shards: " + offset);
+        }
+
+        final List<Integer> pendingShards = new ArrayList<Integer>(shards.size());
+
+        for (int i = 0; i < shardOffsets.length; i++) {
+            if (shardOffsets[i] != null && shardOffsets[i].isEmpty()) {
+                shardOffsets[i] = null;
+            }
+
+            if (!FINISHED.equals(shardOffsets[i])) {
+                pendingShards.add(i);
+            }
+        }
+
+        final int shardPageSize = Math.max(1, (pageSize + pendingShards.size() - 1) / Math.max(1, pendingShards.size()));
+
+        List<Callable<Page<Transaction>>> scans = new ArrayList<Callable<Page<Transaction>>>(pendingShards.size());
+
+        for (final Integer index : pendingShards) {
+            scans.add(new Callable<Page<Transaction>>() {
+                @Override
+                public Page<Transaction> call() throws Exception {
+                    return shards.get(index).doFindAllUnmodifiedSince(date, shardOffsets[index], shardPageSize);
+                }
+            });
+        }
+
+        List<Page<Transaction>> pages = fanOut(scans);
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        boolean finished = true;
+
+        for (int i = 0; i < pendingShards.size(); i++) {
+
+            Page<Transaction> page = pages.get(i);
+
+            transactions.addAll(page.getData());
+
+            shardOffsets[pendingShards.get(i)] = page.hasNext() ? page.getNextOffset() : FINISHED;
+            finished &= !page.hasNext();
+        }
+
+        if (finished) {
+            return new Page<Transaction>(transactions, null);
+        }
+
+        StringBuilder nextOffset = new StringBuilder();
+
+        for (int i = 0; i < shardOffsets.length; i++) {
+            nextOffset.append(i == 0 ? "" : OFFSET_SEPARATOR).append(shardOffsets[i] == null ? "" : shardOffsets[i]);
+        }
+
+        return new Page<Transaction>(transactions, nextOffset.toString());
+    }
+
+    /**
+     * stops the threads of the recovery scans and the group commit writers of the shards.
+     */
+    public void shutdown() {
+        if (scanExecutorService != null) {
+            scanExecutorService.shutdown();
+        }
+
+        for (JdbcTransactionRepository shard : shards) {
+            shard.shutdown();
+        }
+    }
+
+    JdbcTransactionRepository shardOf(Xid xid) {
+
+        if (shards.isEmpty()) {
+            throw new IllegalStateException("no shards configured");
+        }
+
+        //Arrays.hashCode is specified, so every node and every restart maps a xid to the same shard.
+        return shards.get((Arrays.hashCode(xid.getGlobalTransactionId()) & Integer.MAX_VALUE) % shards.size());
+    }
+
+    /**
+     * runs the first call on the caller thread and the others on the scan executor, returns the results in order.
+     */
+    private <T> List<T> fanOut(List<Callable<T>> calls) {
+
+        List<T> results = new ArrayList<T>(calls.size());
+
+        if (calls.isEmpty()) {
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<Future<T>>(calls.size() - 1);
+
+        for (int i = 1; i < calls.size(); i++) {
+            futures.add(getScanExecutorService().submit(calls.get(i)));
+        }
+
+        try {
+            results.add(calls.get(0).call());
+
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof TransactionIOException ? (TransactionIOException) e.getCause() : new TransactionIOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionIOException(e);
+        } catch (TransactionIOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return results;
+    }
+
+    private ExecutorService getScanExecutorService() {
+
+        if (scanExecutorService == null) {
+            synchronized (this) {
+                if (scanExecutorService == null) {
+                    //daemon threads, an unclosed repository must not keep the JVM alive.
+                    scanExecutorService = new TerminateThreadPoolExecutor("tcc-shard-scan", shards.size(), shards.size(),
+                            TerminateThreadPoolExecutor.RejectPolicy.CALLER_RUNS, true);
+                }
+            }
+        }
+
+        return scanExecutorService;
+    }
+}
@@ -3,12 +3,14 @@ package org.mengyun.tcctransaction.repository;
 import org.apache.zookeeper.*;
 import org.apache.zookeeper.data.Stat;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
 import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
 import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 
 import javax.transaction.xa.Xid;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -27,6 +29,8 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
 
     private ObjectSerializer serializer = new KryoPoolSerializer();
 
+    private boolean legacyKeyLookup = true;
+
     public ZooKeeperTransactionRepository() {
         super();
     }
@@ -47,6 +51,22 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
         this.zkTimeout = zkTimeout;
     }
 
+    /**
+     * when on, a record not found by its hex path is looked up (and moved) by its legacy path, one more read per miss.
+     * on by default, so records written before an upgrade are still found. can be turned off once migrateLegacyKeys has run.
+     */
+    public void setLegacyKeyLookup(boolean legacyKeyLookup) {
+        this.legacyKeyLookup = legacyKeyLookup;
+    }
+
+    /**
+     * one-time step after upgrading: moves every node still under its legacy path to the hex path.
+     * the recovery scan moves the legacy nodes it meets as well.
+     */
+    public void migrateLegacyKeys() {
+        doFindAll();
+    }
+
     @Override
     protected int doCreate(Transaction transaction) {
 
@@ -91,6 +111,28 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
         }
     }
 
+    /**
+     * one multi for the batch; if any node has gone or moved on (the multi is all or nothing) falls back to one by one.
+     */
+    @Override
+    protected int doDeleteAll(List<Transaction> transactions) {
+
+        List<Op> ops = new ArrayList<Op>(transactions.size());
+
+        for (Transaction transaction : transactions) {
+            ops.add(Op.delete(getTxidPath(transaction.getXid()), (int) transaction.getVersion() - 1));
+        }
+
+        try {
+            getZk().multi(ops);
+            return transactions.size();
+        } catch (KeeperException e) {
+            return super.doDeleteAll(transactions);
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
     @Override
     protected Transaction doFindOne(Xid xid) {
 
@@ -105,7 +147,16 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
         } catch (Exception e) {
             throw new TransactionIOException(e);
         }
-        return null;
+
+        if (!legacyKeyLookup) {
+            return null;
+        }
+
+        try {
+            return migrateLegacyNode(TransactionXid.toLegacyString(xid));
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
     }
 
     @Override
@@ -116,7 +167,7 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
         List<Transaction> allUnmodifiedSince = new ArrayList<Transaction>();
 
         for (Transaction transaction : allTransactions) {
-            if (transaction.getLastUpdateTime().compareTo(date) < 0) {
+            if (transaction.getLastUpdateTimeMillis() < date.getTime()) {
                 allUnmodifiedSince.add(transaction);
             }
         }
@@ -142,7 +193,14 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
                 Stat stat = new Stat();
                 content = getZk().getData(getTxidPath(znodePath), false, stat);
                 Transaction transaction = TransactionSerializer.deserialize(serializer, content);
-                transactions.add(transaction);
+
+                if (!znodePath.equals(transaction.getXid().toString())) {
+                    transaction = migrateLegacyNode(znodePath);
+                }
+
+                if (transaction != null) {
+                    transactions.add(transaction);
+                }
             } catch (Exception e) {
                 throw new TransactionIOException(e);
             }
@@ -179,11 +237,47 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
     }
 
     private String getTxidPath(Xid xid) {
-        return String.format("%s/%s", zkRootPath, xid);
+        return zkRootPath + "/" + xid;
     }
 
     private String getTxidPath(String znodePath) {
-        return String.format("%s/%s", zkRootPath, znodePath);
+        return zkRootPath + "/" + znodePath;
+    }
+
+    /**
+     * moves a node written before xids were hex encoded to its hex path, in one multi so that only one node wins.
+     * the version is restarted at 1 as the new node's data version starts at 0.
+     */
+    private Transaction migrateLegacyNode(String legacyZnodePath) throws KeeperException, InterruptedException {
+
+        Transaction transaction;
+        Stat stat = new Stat();
+
+        try {
+            transaction = TransactionSerializer.deserialize(serializer, getZk().getData(getTxidPath(legacyZnodePath), false, stat));
+        } catch (KeeperException.NoNodeException e) {
+            transaction = null;
+        }
+
+        if (transaction == null) {
+            return null;
+        }
+
+        transaction.setVersion(1);
+
+        try {
+            getZk().multi(Arrays.asList(
+                    Op.create(getTxidPath(transaction.getXid()), TransactionSerializer.serialize(serializer, transaction), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT),
+                    Op.delete(getTxidPath(legacyZnodePath), stat.getVersion())));
+            return transaction;
+        } catch (KeeperException e) {
+            //migrated by another node meanwhile.
+            try {
+                return TransactionSerializer.deserialize(serializer, getZk().getData(getTxidPath(transaction.getXid()), false, new Stat()));
+            } catch (KeeperException.NoNodeException noNodeException) {
+                return null;
+            }
+        }
     }
 
 
@@ -0,0 +1,122 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.repository.TransactionIOException;
+
+import javax.transaction.xa.Xid;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * default TransactionCache on caffeine, whose W-TinyLFU eviction keeps the transactions read again (e.g. by confirm/cancel)
+ * over the ones only written once, where a plain LRU of the same size thrashes.
+ * bounded either by the total serialized size of the cached transactions (the default, 64MB) or by their count,
+ * the bound and the expiry can be changed at runtime.
+ */
+public class CaffeineTransactionCache implements TransactionCache {
+
+    /**
+     * weight of a transaction the repository has not told the serialized size of.
+     */
+    private static final int UNKNOWN_SIZE_WEIGHT = 1024;
+
+    private final Cache<Xid, Transaction> cache;
+
+    public CaffeineTransactionCache() {
+        this(64L * 1024 * 1024, true, 120, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param maximum              the maximum total serialized bytes if weighBySerializedSize, else the maximum count
+     * @param weighBySerializedSize weighs each transaction by its serialized size instead of counting it as one
+     */
+    public CaffeineTransactionCache(long maximum, boolean weighBySerializedSize, long expireDuration, TimeUnit unit) {
+
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .expireAfterAccess(expireDuration, unit)
+                .recordStats();
+
+        if (weighBySerializedSize) {
+            builder.maximumWeight(maximum).weigher(new Weigher<Object, Object>() {
+                @Override
+                public int weigh(Object key, Object value) {
+                    int serializedSize = ((Transaction) value).getSerializedSize();
+                    return serializedSize > 0 ? serializedSize : UNKNOWN_SIZE_WEIGHT;
+                }
+            });
+        } else {
+            builder.maximumSize(maximum);
+        }
+
+        this.cache = builder.build();
+    }
+
+    @Override
+    public Transaction get(Xid xid, final Callable<Transaction> loader) {
+        return cache.get(xid, new Function<Xid, Transaction>() {
+            @Override
+            public Transaction apply(Xid key) {
+                try {
+                    return loader.call();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new TransactionIOException(e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public Transaction getIfPresent(Xid xid) {
+        return cache.getIfPresent(xid);
+    }
+
+    @Override
+    public void put(Transaction transaction) {
+        cache.put(transaction.getXid(), transaction);
+    }
+
+    @Override
+    public void invalidate(Xid xid) {
+        cache.invalidate(xid);
+    }
+
+    @Override
+    public void setExpireDuration(long duration, TimeUnit unit) {
+        Policy.Expiration<Xid, Transaction> expiration = cache.policy().expireAfterAccess().get();
+        expiration.setExpiresAfter(duration, unit);
+    }
+
+    /**
+     * changes the bound given at construction, in bytes or in transactions.
+     */
+    public void setMaximum(long maximum) {
+        cache.policy().eviction().get().setMaximum(maximum);
+    }
+
+    public long getMaximum() {
+        return cache.policy().eviction().get().getMaximum();
+    }
+
+    /**
+     * the total serialized bytes cached when weighed, else the count.
+     */
+    public long getWeightedSize() {
+        Policy.Eviction<Xid, Transaction> eviction = cache.policy().eviction().get();
+        return eviction.isWeighted() ? eviction.weightedSize().getAsLong() : cache.estimatedSize();
+    }
+
+    @Override
+    public TransactionCacheStats stats() {
+        CacheStats stats = cache.stats();
+        return new TransactionCacheStats(stats.hitCount(), stats.missCount(), stats.loadSuccessCount(),
+                stats.loadFailureCount(), stats.totalLoadTime(), stats.evictionCount());
+    }
+}
@@ -0,0 +1,49 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.repository.TransactionIOException;
+
+import javax.transaction.xa.Xid;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * caches nothing, every get loads. for repositories whose cache is never used, e.g. the shards of a ShardingJdbcTransactionRepository.
+ */
+public class NoopTransactionCache implements TransactionCache {
+
+    public static final NoopTransactionCache INSTANCE = new NoopTransactionCache();
+
+    @Override
+    public Transaction get(Xid xid, Callable<Transaction> loader) {
+        try {
+            return loader.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    @Override
+    public Transaction getIfPresent(Xid xid) {
+        return null;
+    }
+
+    @Override
+    public void put(Transaction transaction) {
+    }
+
+    @Override
+    public void invalidate(Xid xid) {
+    }
+
+    @Override
+    public void setExpireDuration(long duration, TimeUnit unit) {
+    }
+
+    @Override
+    public TransactionCacheStats stats() {
+        return new TransactionCacheStats(0, 0, 0, 0, 0, 0);
+    }
+}
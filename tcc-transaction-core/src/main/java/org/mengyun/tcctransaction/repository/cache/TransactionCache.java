@@ -0,0 +1,32 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+import org.mengyun.tcctransaction.Transaction;
+
+import javax.transaction.xa.Xid;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cache of the transactions a CachableTransactionRepository has read or written, keyed by xid.
+ */
+public interface TransactionCache {
+
+    /**
+     * returns the cached transaction or loads it with loader, concurrent misses on one xid share one load.
+     * returns null and caches nothing if the loader returns null.
+     */
+    Transaction get(Xid xid, Callable<Transaction> loader);
+
+    Transaction getIfPresent(Xid xid);
+
+    void put(Transaction transaction);
+
+    void invalidate(Xid xid);
+
+    /**
+     * how long an entry stays after its last read or write, takes effect at once for new and cached entries.
+     */
+    void setExpireDuration(long duration, TimeUnit unit);
+
+    TransactionCacheStats stats();
+}
@@ -0,0 +1,81 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+/**
+ * snapshot of the counters of a TransactionCache, a load returning no transaction counts as a load exception.
+ */
+public class TransactionCacheStats {
+
+    private final long hitCount;
+
+    private final long missCount;
+
+    private final long loadSuccessCount;
+
+    private final long loadExceptionCount;
+
+    private final long totalLoadTime;
+
+    private final long evictionCount;
+
+    public TransactionCacheStats(long hitCount, long missCount, long loadSuccessCount, long loadExceptionCount, long totalLoadTime, long evictionCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadExceptionCount = loadExceptionCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCount = evictionCount;
+    }
+
+    public long hitCount() {
+        return hitCount;
+    }
+
+    public long missCount() {
+        return missCount;
+    }
+
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * 1.0 while nothing has been requested.
+     */
+    public double hitRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long loadExceptionCount() {
+        return loadExceptionCount;
+    }
+
+    /**
+     * nanoseconds spent loading.
+     */
+    public long totalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * average nanoseconds per load.
+     */
+    public double averageLoadPenalty() {
+        long loadCount = loadSuccessCount + loadExceptionCount;
+        return loadCount == 0 ? 0.0 : (double) totalLoadTime / loadCount;
+    }
+
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hitCount=%d, missCount=%d, hitRate=%.4f, loadSuccessCount=%d, loadExceptionCount=%d, averageLoadPenalty=%.0fns, evictionCount=%d",
+                hitCount, missCount, hitRate(), loadSuccessCount, loadExceptionCount, averageLoadPenalty(), evictionCount);
+    }
+}
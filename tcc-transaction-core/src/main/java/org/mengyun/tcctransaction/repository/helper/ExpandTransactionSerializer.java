@@ -20,18 +20,31 @@ public class ExpandTransactionSerializer {
 
     public static Map<byte[], byte[]> serialize(ObjectSerializer serializer, Transaction transaction) {
 
-        Map<byte[], byte[]> map = new HashMap<byte[], byte[]>();
+        Map<byte[], byte[]> map = serializeStatus(transaction);
 
         map.put("GLOBAL_TX_ID".getBytes(), transaction.getXid().getGlobalTransactionId());
         map.put("BRANCH_QUALIFIER".getBytes(), transaction.getXid().getBranchQualifier());
-        map.put("STATUS".getBytes(), ByteUtils.intToBytes(transaction.getStatus().getId()));
         map.put("TRANSACTION_TYPE".getBytes(), ByteUtils.intToBytes(transaction.getTransactionType().getId()));
-        map.put("RETRIED_COUNT".getBytes(), ByteUtils.intToBytes(transaction.getRetriedCount()));
         map.put("CREATE_TIME".getBytes(), DateFormatUtils.format(transaction.getCreateTime(), "yyyy-MM-dd HH:mm:ss").getBytes());
+
+        byte[] content = serializer.serialize(transaction);
+        transaction.setSerializedSize(content.length);
+        map.put("CONTENT".getBytes(), content);
+        map.put("CONTENT_VIEW".getBytes(), JSON.toJSONString(transaction).getBytes());
+        return map;
+    }
+
+    /**
+     * the fields read over the ones inside CONTENT, i.e. all a status-only update writes.
+     */
+    public static Map<byte[], byte[]> serializeStatus(Transaction transaction) {
+
+        Map<byte[], byte[]> map = new HashMap<byte[], byte[]>();
+
+        map.put("STATUS".getBytes(), ByteUtils.intToBytes(transaction.getStatus().getId()));
+        map.put("RETRIED_COUNT".getBytes(), ByteUtils.intToBytes(transaction.getRetriedCount()));
         map.put("LAST_UPDATE_TIME".getBytes(), DateFormatUtils.format(transaction.getLastUpdateTime(), "yyyy-MM-dd HH:mm:ss").getBytes());
         map.put("VERSION".getBytes(), ByteUtils.longToBytes(transaction.getVersion()));
-        map.put("CONTENT".getBytes(), serializer.serialize(transaction));
-        map.put("CONTENT_VIEW".getBytes(), JSON.toJSONString(transaction).getBytes());
         return map;
     }
 
@@ -45,6 +58,7 @@ public class ExpandTransactionSerializer {
 
         byte[] content = propertyMap.get("CONTENT");
         Transaction transaction = (Transaction) serializer.deserialize(content);
+        transaction.setSerializedSize(content.length);
         transaction.changeStatus(TransactionStatus.valueOf(ByteUtils.bytesToInt(propertyMap.get("STATUS"))));
         transaction.resetRetriedCount(ByteUtils.bytesToInt(propertyMap.get("RETRIED_COUNT")));
 
@@ -55,6 +69,7 @@ public class ExpandTransactionSerializer {
         }
 
         transaction.setVersion(ByteUtils.bytesToLong(propertyMap.get("VERSION")));
+        transaction.mergeCompletedParticipants(propertyMap.get("COMPLETED_PARTICIPANTS"));
         return transaction;
     }
 }
@@ -1,5 +1,6 @@
 package org.mengyun.tcctransaction.repository.helper;
 
+import org.mengyun.tcctransaction.api.TransactionXid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
@@ -24,6 +25,13 @@ public class RedisHelper {
         return new StringBuilder().append(keyPrefix).append(xid.toString()).toString().getBytes();
     }
 
+    /**
+     * key of records written before xids were hex encoded, they are renamed to getRedisKey when found.
+     */
+    public static byte[] getLegacyRedisKey(String keyPrefix, Xid xid) {
+        return new StringBuilder().append(keyPrefix).append(TransactionXid.toLegacyString(xid)).toString().getBytes();
+    }
+
     public static byte[] getRedisKey(String keyPrefix, String globalTransactionId, String branchQualifier) {
 
         if (keyPrefix.startsWith("AGG")) {
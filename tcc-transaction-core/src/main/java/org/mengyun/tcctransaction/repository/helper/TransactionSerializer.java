@@ -23,7 +23,11 @@ public class TransactionSerializer {
         map.put("CREATE_TIME", transaction.getCreateTime());
         map.put("LAST_UPDATE_TIME", transaction.getLastUpdateTime());
         map.put("VERSION", transaction.getVersion());
-        map.put("CONTENT", serializer.serialize(transaction));
+        map.put("COMPLETED_PARTICIPANTS", transaction.getCompletedParticipants());
+
+        byte[] content = serializer.serialize(transaction);
+        transaction.setSerializedSize(content.length);
+        map.put("CONTENT", content);
 
         return serializer.serialize(map);
     }
@@ -34,9 +38,11 @@ public class TransactionSerializer {
 
         byte[] content = (byte[]) map.get("CONTENT");
         Transaction transaction = (Transaction) serializer.deserialize(content);
+        transaction.setSerializedSize(content.length);
         transaction.resetRetriedCount((Integer) map.get("RETRIED_COUNT"));
         transaction.setLastUpdateTime((Date) map.get("LAST_UPDATE_TIME"));
         transaction.setVersion((Long) map.get("VERSION"));
+        transaction.mergeCompletedParticipants((byte[]) map.get("COMPLETED_PARTICIPANTS"));
         return transaction;
     }
 }
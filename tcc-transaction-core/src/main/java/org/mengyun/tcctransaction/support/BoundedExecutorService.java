@@ -0,0 +1,122 @@
+package org.mengyun.tcctransaction.support;
+
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * caps the tasks running or waiting on an unbounded executor, such as a virtual thread per task executor,
+ * a task over the bound is handled by the reject policy as TerminateThreadPoolExecutor does once its queue is full.
+ */
+public class BoundedExecutorService extends AbstractExecutorService {
+
+    static final Logger logger = Logger.getLogger(BoundedExecutorService.class.getSimpleName());
+
+    private final String name;
+
+    private final ExecutorService delegate;
+
+    private final Semaphore permits;
+
+    private final TerminateThreadPoolExecutor.RejectPolicy rejectPolicy;
+
+    private final AtomicLong rejectedTaskCount = new AtomicLong();
+
+    public BoundedExecutorService(String name, ExecutorService delegate, int maxTasks, TerminateThreadPoolExecutor.RejectPolicy rejectPolicy) {
+        this.name = name;
+        this.delegate = delegate;
+        this.permits = new Semaphore(maxTasks);
+        this.rejectPolicy = rejectPolicy;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+
+        if (!permits.tryAcquire()) {
+            reject(command);
+            return;
+        }
+
+        try {
+            delegate.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public long getRejectedTaskCount() {
+        return rejectedTaskCount.get();
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[available=%d, rejected=%d]", name, permits.availablePermits(), rejectedTaskCount.get());
+    }
+
+    private void reject(Runnable command) {
+
+        rejectedTaskCount.incrementAndGet();
+
+        switch (rejectPolicy) {
+            case CALLER_RUNS:
+                if (!isShutdown()) {
+                    command.run();
+                }
+                break;
+            case ABORT:
+                throw new RejectedExecutionException("task rejected by " + this);
+            default:
+                //let anyone waiting on the dropped task know it will not run.
+                if (command instanceof Future) {
+                    ((Future<?>) command).cancel(false);
+                }
+                logger.warn("task rejected, recovery job will terminate the transaction later. " + this);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package org.mengyun.tcctransaction.support;
+
+import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.OptimisticLockException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.repository.Page;
+
+import javax.transaction.xa.Xid;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * confirms/cancels async terminated transactions on a pool of workers, each worker terminates a batch of
+ * whatever queued up and deletes the records of the successful ones with one TransactionRepository.deleteAll.
+ * the queue entries are the CONFIRMING/CANCELLING records already persisted before offer, so nothing is lost on restart:
+ * recoverOrphans picks up the records left by a previous run in one sweep at startup instead of the pages of the periodic recovery job.
+ * with an owner, the records carry it and a lease the instance renews while alive (TransactionRepository.renewLease):
+ * a restarted instance takes its own records back at once, those of others only once their lease has expired
+ * and they are idle long enough. without an owner, or a repository persisting it, every record waits to be idle.
+ */
+public class DurableTerminationQueue {
+
+    static final Logger logger = Logger.getLogger(DurableTerminationQueue.class.getSimpleName());
+
+    private static final long POLL_MILLIS = 100;
+
+    private final String name;
+
+    private final TransactionRepository transactionRepository;
+
+    private final int batchSize;
+
+    private final BlockingQueue<Entry> queue;
+
+    private final Map<Xid, Boolean> pendingXids = new ConcurrentHashMap<Xid, Boolean>();
+
+    private final List<Thread> workers;
+
+    private final String owner;
+
+    private final long leaseMillis;
+
+    private final Thread heartbeatThread;
+
+    private volatile boolean running = true;
+
+    public DurableTerminationQueue(String name, TransactionRepository transactionRepository, int workerCount, int batchSize, int queueSize) {
+        this(name, transactionRepository, workerCount, batchSize, queueSize, null, 0);
+    }
+
+    /**
+     * @param owner       id of this instance, the same across its restarts and unique among the instances sharing the repository
+     * @param leaseMillis how long the records of a stopped owner are left to it, renewed every third of it while it runs
+     */
+    public DurableTerminationQueue(String name, TransactionRepository transactionRepository, int workerCount, int batchSize, int queueSize,
+                                   String owner, long leaseMillis) {
+        this.name = name;
+        this.transactionRepository = transactionRepository;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<Entry>(queueSize);
+        this.workers = new ArrayList<Thread>(workerCount);
+        this.owner = owner;
+        this.leaseMillis = leaseMillis;
+
+        for (int i = 1; i <= workerCount; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    terminateLoop();
+                }
+            }, name + "-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+
+        if (owner != null && leaseMillis > 0) {
+            heartbeatThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    heartbeatLoop();
+                }
+            }, name + "-heartbeat");
+            heartbeatThread.setDaemon(true);
+            heartbeatThread.start();
+        } else {
+            heartbeatThread = null;
+        }
+    }
+
+    /**
+     * marks the transaction as owned by this instance, to be called before its CONFIRMING/CANCELLING status is persisted
+     * so the owner is written with it. does nothing without an owner.
+     */
+    public void lease(Transaction transaction) {
+        if (owner != null) {
+            transaction.setLease(owner, System.currentTimeMillis() + leaseMillis);
+        }
+    }
+
+    /**
+     * queues the CONFIRMING/CANCELLING transaction, whose status must already be persisted.
+     * returns false if the queue is full or stopped, the caller then terminates it another way or leaves it to the recovery job.
+     *
+     * @param participantExecutor executor to fan out the participants on, null to terminate them one by one
+     */
+    public boolean offer(Transaction transaction, ExecutorService participantExecutor) {
+
+        if (!running) {
+            return false;
+        }
+
+        pendingXids.put(transaction.getXid(), Boolean.TRUE);
+
+        if (!queue.offer(new Entry(transaction, participantExecutor))) {
+            pendingXids.remove(transaction.getXid());
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * true while the transaction is queued or being terminated, recovery leaves such records alone.
+     */
+    public boolean isPending(Xid xid) {
+        return pendingXids.containsKey(xid);
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * after delayMillis, queues the CONFIRMING/CANCELLING records last modified before this call that were left behind by
+     * a previous run of this owner, or by an instance that has died: not leased, or their lease expired, and last modified
+     * at least minIdleMillis ago. a live instance without lease does not write the record between offer and delete,
+     * so minIdleMillis must exceed the time a record waits in its queue (the recovery job assumes the same of recoverDuration).
+     * each record is claimed with an optimistic update first so that only one instance terminates it, and leased to this owner.
+     */
+    public void recoverOrphans(final long delayMillis, final long minIdleMillis, final int maxRetryCount) {
+
+        final long startTime = System.currentTimeMillis();
+
+        Thread recoverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                try {
+                    Date date = new Date(owner != null ? startTime : Math.min(startTime, System.currentTimeMillis() - minIdleMillis));
+
+                    int recovered = 0;
+
+                    String offset = null;
+
+                    //a page at a time, the blocking puts keep the loading at the pace of the workers.
+                    do {
+                        Page<Transaction> page = transactionRepository.findAllUnmodifiedSince(date, offset, batchSize);
+
+                        long now = System.currentTimeMillis();
+
+                        for (Transaction transaction : page.getData()) {
+                            if (isOrphan(transaction, now, minIdleMillis) && claim(transaction, maxRetryCount) && putOrphan(transaction)) {
+                                recovered++;
+                            }
+                        }
+
+                        offset = page.getNextOffset();
+
+                    } while (offset != null && running);
+
+                    logger.info(String.format("%s queued %d transactions left by a previous run.", name, recovered));
+                } catch (Throwable e) {
+                    logger.warn(name + " failed to load the transactions left by a previous run, recovery job will terminate them.", e);
+                }
+            }
+        }, name + "-recover");
+
+        recoverThread.setDaemon(true);
+        recoverThread.start();
+    }
+
+    /**
+     * stops the workers once their current batch is done, the records still queued are picked up by the next run.
+     */
+    public void shutdown() {
+        running = false;
+
+        if (heartbeatThread != null) {
+            heartbeatThread.interrupt();
+        }
+
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * a record of this owner is left from its previous run, the records of others are once their lease has expired and idle.
+     */
+    private boolean isOrphan(Transaction transaction, long now, long minIdleMillis) {
+
+        if (owner != null && owner.equals(transaction.getOwner())) {
+            return true;
+        }
+
+        return transaction.getLeaseExpireTimeMillis() <= now
+                && transaction.getLastUpdateTimeMillis() <= now - minIdleMillis;
+    }
+
+    private boolean claim(Transaction transaction, int maxRetryCount) {
+
+        if (!transaction.getStatus().equals(TransactionStatus.CONFIRMING)
+                && !transaction.getStatus().equals(TransactionStatus.CANCELLING)) {
+            return false;
+        }
+
+        if (transaction.getRetriedCount() > maxRetryCount) {
+            return false;
+        }
+
+        try {
+            transaction.addRetriedCount();
+            lease(transaction);
+            transactionRepository.update(transaction);
+            return true;
+        } catch (OptimisticLockException e) {
+            //terminated or claimed by another instance meanwhile.
+            return false;
+        }
+    }
+
+    private boolean putOrphan(Transaction transaction) throws InterruptedException {
+
+        pendingXids.put(transaction.getXid(), Boolean.TRUE);
+
+        //the workers drain the queue at their pace, there is no caller to fall back to.
+        while (running) {
+            if (queue.offer(new Entry(transaction, null), POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+
+        pendingXids.remove(transaction.getXid());
+        return false;
+    }
+
+    private void heartbeatLoop() {
+
+        long interval = Math.max(leaseMillis / 3, 1);
+
+        while (running) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                transactionRepository.renewLease(owner, new Date(System.currentTimeMillis() + leaseMillis));
+            } catch (Throwable e) {
+                logger.warn(name + " failed to renew the lease of " + owner + ", retries in " + interval + "ms.", e);
+            }
+        }
+    }
+
+    private void terminateLoop() {
+
+        List<Entry> batch = new ArrayList<Entry>(batchSize);
+
+        while (running) {
+            try {
+                Entry first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+
+                terminate(batch);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void terminate(List<Entry> batch) {
+
+        List<Transaction> terminated = new ArrayList<Transaction>(batch.size());
+
+        try {
+            for (Entry entry : batch) {
+
+                Transaction transaction = entry.transaction;
+
+                try {
+                    if (transaction.getStatus().equals(TransactionStatus.CONFIRMING)) {
+                        transaction.commit(entry.participantExecutor);
+                    } else {
+                        transaction.rollback(entry.participantExecutor);
+                    }
+
+                    terminated.add(transaction);
+
+                } catch (Throwable terminateException) {
+
+                    logger.warn(String.format("compensable transaction %s failed, recovery job will try later.",
+                            transaction.getStatus().equals(TransactionStatus.CONFIRMING) ? "confirm" : "rollback"), terminateException);
+
+                    try {
+                        transactionRepository.updateCompletion(transaction);
+                    } catch (Throwable updateException) {
+                        logger.warn("failed to persist completed participants of transaction " + transaction.getXid(), updateException);
+                    }
+                }
+            }
+
+            delete(terminated);
+
+        } finally {
+            for (Entry entry : batch) {
+                pendingXids.remove(entry.transaction.getXid());
+            }
+        }
+    }
+
+    private void delete(List<Transaction> terminated) {
+
+        if (terminated.isEmpty()) {
+            return;
+        }
+
+        try {
+            transactionRepository.deleteAll(terminated);
+        } catch (Throwable batchException) {
+
+            logger.warn(String.format("batch delete of %d transactions failed, deletes them one by one.", terminated.size()), batchException);
+
+            for (Transaction transaction : terminated) {
+                try {
+                    transactionRepository.delete(transaction);
+                } catch (Throwable deleteException) {
+                    logger.warn("delete of transaction " + transaction.getXid() + " failed, recovery job will delete it.", deleteException);
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final Transaction transaction;
+
+        private final ExecutorService participantExecutor;
+
+        Entry(Transaction transaction, ExecutorService participantExecutor) {
+            this.transaction = transaction;
+            this.participantExecutor = participantExecutor;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.mengyun.tcctransaction.support;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * timer for many short timeouts that are mostly cancelled before they expire: scheduling and cancelling are O(1)
+ * and lock free, one worker thread advances a wheel of buckets every tick and runs the expired tasks,
+ * so tasks must be short and hand any real work to an executor. timeouts fire up to one tick late.
+ * the worker thread is started by the first timeout, an unused timer costs nothing.
+ */
+public class HashedWheelTimer {
+
+    static final Logger logger = Logger.getLogger(HashedWheelTimer.class.getSimpleName());
+
+    private final long tickNanos;
+
+    private final List<Timeout>[] wheel;
+
+    private final int mask;
+
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+    private final Thread workerThread;
+
+    private long startTime;
+
+    private volatile boolean started = false;
+
+    private volatile boolean running = true;
+
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+
+        this.tickNanos = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+
+        int wheelSize = 1;
+        while (wheelSize < ticksPerWheel) {
+            wheelSize <<= 1;
+        }
+
+        this.wheel = new List[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new ArrayList<Timeout>();
+        }
+        this.mask = wheelSize - 1;
+
+        this.workerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tickLoop();
+            }
+        }, name);
+        this.workerThread.setDaemon(true);
+    }
+
+    /**
+     * runs the task on the timer thread once delay has passed, unless the returned timeout is cancelled first.
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+
+        if (!running) {
+            throw new IllegalStateException("timer is stopped");
+        }
+
+        start();
+
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(delay));
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    public void stop() {
+        running = false;
+        workerThread.interrupt();
+    }
+
+    private void start() {
+
+        if (started) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!started) {
+                //the deadlines are relative to it, set before the worker and the volatile write publish it.
+                startTime = System.nanoTime();
+                workerThread.start();
+                started = true;
+            }
+        }
+    }
+
+    private void tickLoop() {
+
+        long tick = 0;
+
+        while (running) {
+
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+
+            transferPendingTimeouts(tick);
+            expireTimeouts(wheel[(int) (tick & mask)], deadline);
+
+            tick++;
+        }
+    }
+
+    private void transferPendingTimeouts(long currentTick) {
+
+        Timeout timeout;
+
+        while ((timeout = pendingTimeouts.poll()) != null) {
+
+            if (timeout.isCancelled()) {
+                continue;
+            }
+
+            long expireTick = Math.max(timeout.deadline / tickNanos, currentTick);
+            timeout.remainingRounds = (expireTick - currentTick) / wheel.length;
+            wheel[(int) (expireTick & mask)].add(timeout);
+        }
+    }
+
+    private void expireTimeouts(List<Timeout> bucket, long deadline) {
+
+        Iterator<Timeout> iterator = bucket.iterator();
+
+        while (iterator.hasNext()) {
+
+            Timeout timeout = iterator.next();
+
+            if (timeout.isCancelled()) {
+                iterator.remove();
+            } else if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                iterator.remove();
+                timeout.expire();
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    public static class Timeout {
+
+        private static final int INIT = 0;
+
+        private static final int CANCELLED = 1;
+
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+
+        private final long deadline;
+
+        private final AtomicInteger state = new AtomicInteger(INIT);
+
+        private long remainingRounds;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * returns false if the task has already run (or is running).
+         */
+        public boolean cancel() {
+            return state.compareAndSet(INIT, CANCELLED);
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        private void expire() {
+
+            if (!state.compareAndSet(INIT, EXPIRED)) {
+                return;
+            }
+
+            try {
+                task.run();
+            } catch (Throwable e) {
+                logger.warn("timer task failed.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.mengyun.tcctransaction.support;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * bounded thread pool for confirming/cancelling transactions, one instance per domain so that
+ * a confirm storm of one domain cannot starve the others.
+ * it reports queue depth, active workers, rejected tasks and task latency (from submit to finish).
+ */
+public class TerminateThreadPoolExecutor extends ThreadPoolExecutor {
+
+    static final Logger logger = Logger.getLogger(TerminateThreadPoolExecutor.class.getSimpleName());
+
+    public enum RejectPolicy {
+        /**
+         * drop the task, the transaction record is left to the recovery job.
+         */
+        RECOVERY,
+        /**
+         * run the task on the submitting thread.
+         */
+        CALLER_RUNS,
+        /**
+         * throw RejectedExecutionException to the submitter.
+         */
+        ABORT
+    }
+
+    private final String name;
+
+    private final AtomicLong rejectedTaskCount = new AtomicLong();
+
+    private final AtomicLong timedTaskCount = new AtomicLong();
+
+    private final AtomicLong totalTaskLatencyNanos = new AtomicLong();
+
+    private final AtomicLong maxTaskLatencyNanos = new AtomicLong();
+
+    public TerminateThreadPoolExecutor(String name, int poolSize, int queueSize, RejectPolicy rejectPolicy) {
+        this(name, poolSize, queueSize, rejectPolicy, false);
+    }
+
+    /**
+     * @param daemon whether the threads are daemon threads, which do not keep the JVM alive without a shutdown
+     */
+    public TerminateThreadPoolExecutor(String name, int poolSize, int queueSize, RejectPolicy rejectPolicy, boolean daemon) {
+        super(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new NamedThreadFactory(name, daemon));
+        this.name = name;
+        this.allowCoreThreadTimeOut(true);
+        this.setRejectedExecutionHandler(new CountingRejectedExecutionHandler(rejectPolicy));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(new TimedRunnable(command));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    public long getRejectedTaskCount() {
+        return rejectedTaskCount.get();
+    }
+
+    public double getAverageTaskLatencyMillis() {
+        long count = timedTaskCount.get();
+        return count == 0 ? 0 : totalTaskLatencyNanos.get() / (double) count / 1000000;
+    }
+
+    public double getMaxTaskLatencyMillis() {
+        return maxTaskLatencyNanos.get() / 1000000d;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[poolSize=%d, activeWorkers=%d, queueDepth=%d, completed=%d, rejected=%d, avgLatency=%.2fms, maxLatency=%.2fms]",
+                name, getPoolSize(), getActiveCount(), getQueueDepth(), getCompletedTaskCount(), getRejectedTaskCount(),
+                getAverageTaskLatencyMillis(), getMaxTaskLatencyMillis());
+    }
+
+    private void recordLatency(long latencyNanos) {
+        timedTaskCount.incrementAndGet();
+        totalTaskLatencyNanos.addAndGet(latencyNanos);
+
+        long max = maxTaskLatencyNanos.get();
+        while (latencyNanos > max && !maxTaskLatencyNanos.compareAndSet(max, latencyNanos)) {
+            max = maxTaskLatencyNanos.get();
+        }
+    }
+
+    private class TimedRunnable implements Runnable {
+
+        private final Runnable delegate;
+
+        private final long submitTime = System.nanoTime();
+
+        TimedRunnable(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            try {
+                delegate.run();
+            } finally {
+                recordLatency(System.nanoTime() - submitTime);
+            }
+        }
+    }
+
+    private class CountingRejectedExecutionHandler implements RejectedExecutionHandler {
+
+        private final RejectPolicy rejectPolicy;
+
+        CountingRejectedExecutionHandler(RejectPolicy rejectPolicy) {
+            this.rejectPolicy = rejectPolicy;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+
+            rejectedTaskCount.incrementAndGet();
+
+            switch (rejectPolicy) {
+                case CALLER_RUNS:
+                    if (!executor.isShutdown()) {
+                        runnable.run();
+                    }
+                    break;
+                case ABORT:
+                    throw new RejectedExecutionException("task rejected by " + executor);
+                default:
+                    //let anyone waiting on the dropped task know it will not run.
+                    if (runnable instanceof TimedRunnable && ((TimedRunnable) runnable).delegate instanceof Future) {
+                        ((Future<?>) ((TimedRunnable) runnable).delegate).cancel(false);
+                    }
+                    logger.warn("task rejected, recovery job will terminate the transaction later. " + executor);
+            }
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+
+        private final boolean daemon;
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        NamedThreadFactory(String name, boolean daemon) {
+            this.namePrefix = name + "-";
+            this.daemon = daemon;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+            thread.setDaemon(daemon);
+            return thread;
+        }
+    }
+}
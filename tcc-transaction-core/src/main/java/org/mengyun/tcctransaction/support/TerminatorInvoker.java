@@ -0,0 +1,162 @@
+package org.mengyun.tcctransaction.support;
+
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * precompiled confirm/cancel dispatch, the method handle and the transaction context editor are resolved once
+ * per (target class, method name, parameter types, editor) and reused by every invocation.
+ * the target itself is resolved on every call through FactoryBuilder, so a replaced bean is not served stale.
+ */
+public final class TerminatorInvoker {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private static ConcurrentHashMap<InvokerKey, TerminatorInvoker> invokerMap = new ConcurrentHashMap<InvokerKey, TerminatorInvoker>();
+
+    private final Class<?> targetClass;
+
+    private final String methodName;
+
+    private final Class<?>[] parameterTypes;
+
+    private final TransactionContextEditor transactionContextEditor;
+
+    private volatile ResolvedMethod resolvedMethod;
+
+    private TerminatorInvoker(Class<?> targetClass, String methodName, Class<?>[] parameterTypes, TransactionContextEditor transactionContextEditor) {
+        this.targetClass = targetClass;
+        this.methodName = methodName;
+        this.parameterTypes = parameterTypes;
+        this.transactionContextEditor = transactionContextEditor;
+    }
+
+    public static TerminatorInvoker invokerOf(Class<?> targetClass, String methodName, Class<?>[] parameterTypes,
+                                              Class<? extends TransactionContextEditor> transactionContextEditorClass) {
+
+        InvokerKey key = new InvokerKey(targetClass, methodName, parameterTypes, transactionContextEditorClass);
+
+        TerminatorInvoker invoker = invokerMap.get(key);
+
+        if (invoker == null) {
+
+            invoker = new TerminatorInvoker(targetClass, methodName, parameterTypes,
+                    FactoryBuilder.factoryOf(transactionContextEditorClass).getInstance());
+
+            TerminatorInvoker existing = invokerMap.putIfAbsent(key, invoker);
+
+            if (existing != null) {
+                invoker = existing;
+            }
+        }
+
+        return invoker;
+    }
+
+    public Object invoke(TransactionContext transactionContext, Object[] args)
+            throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+
+        Object target = FactoryBuilder.factoryOf(targetClass).getInstance();
+
+        ResolvedMethod resolved = resolvedMethod;
+
+        //resolved again if the target is now of another class, e.g. a proxy of a refreshed context.
+        if (resolved == null || resolved.targetType != target.getClass()) {
+            resolved = new ResolvedMethod(target.getClass(), target.getClass().getMethod(methodName, parameterTypes));
+            resolvedMethod = resolved;
+        }
+
+        transactionContextEditor.set(transactionContext, target, resolved.method, args);
+
+        Object[] arguments = args == null ? NO_ARGS : args;
+
+        try {
+            return (Object) resolved.methodHandle.invokeExact(target, arguments);
+        } catch (Throwable throwable) {
+            //thrown by the method itself, wrapped as Method.invoke did.
+            throw new InvocationTargetException(throwable);
+        }
+    }
+
+    public TransactionContextEditor getTransactionContextEditor() {
+        return transactionContextEditor;
+    }
+
+    private static final class ResolvedMethod {
+
+        private final Class<?> targetType;
+
+        private final Method method;
+
+        /**
+         * (Object target, Object[] args)Object, spreads the args and boxes a primitive result.
+         */
+        private final MethodHandle methodHandle;
+
+        ResolvedMethod(Class<?> targetType, Method method) throws IllegalAccessException {
+            this.targetType = targetType;
+            this.method = method;
+
+            //the declaring class may not be public, e.g. a proxy class.
+            method.setAccessible(true);
+
+            int parameterCount = method.getParameterTypes().length;
+
+            this.methodHandle = MethodHandles.lookup().unreflect(method)
+                    .asType(MethodType.genericMethodType(parameterCount + 1))
+                    .asSpreader(Object[].class, parameterCount);
+        }
+    }
+
+    private static final class InvokerKey {
+
+        private final Class<?> targetClass;
+
+        private final String methodName;
+
+        private final Class<?>[] parameterTypes;
+
+        private final Class<?> transactionContextEditorClass;
+
+        private final int hashCode;
+
+        InvokerKey(Class<?> targetClass, String methodName, Class<?>[] parameterTypes, Class<?> transactionContextEditorClass) {
+            this.targetClass = targetClass;
+            this.methodName = methodName;
+            this.parameterTypes = parameterTypes == null ? new Class<?>[0] : parameterTypes;
+            this.transactionContextEditorClass = transactionContextEditorClass;
+
+            int result = targetClass.hashCode();
+            result = 31 * result + methodName.hashCode();
+            result = 31 * result + Arrays.hashCode(this.parameterTypes);
+            result = 31 * result + transactionContextEditorClass.hashCode();
+            this.hashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (other == null || getClass() != other.getClass()) return false;
+
+            InvokerKey that = (InvokerKey) other;
+
+            return targetClass.equals(that.targetClass)
+                    && methodName.equals(that.methodName)
+                    && Arrays.equals(parameterTypes, that.parameterTypes)
+                    && transactionContextEditorClass.equals(that.transactionContextEditorClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.mengyun.tcctransaction.support;
+
+import org.mengyun.tcctransaction.TransactionManager;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * forks the try phase: every task submitted runs bound to the compensable transaction of the submitting thread,
+ * so independent try calls can run at the same time and still enlist into one transaction, e.g.
+ * CompletableFuture.supplyAsync(supplier, new TransactionContextExecutorService(transactionManager, executor)).
+ * the forked tasks must be done before the try phase ends, either joined by the root method or composed into the future it returns.
+ */
+public class TransactionContextExecutorService extends AbstractExecutorService {
+
+    private final TransactionManager transactionManager;
+
+    private final ExecutorService delegate;
+
+    public TransactionContextExecutorService(TransactionManager transactionManager, ExecutorService delegate) {
+        this.transactionManager = transactionManager;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        delegate.execute(transactionManager.wrap(command));
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,146 @@
+package org.mengyun.tcctransaction.support;
+
+import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionRepository;
+
+import javax.transaction.xa.Xid;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * deletes the records of finished transactions off the caller thread, in batches of whatever queued up
+ * while the previous batch was written (TransactionRepository.deleteAll).
+ * nothing is written on the caller thread, a record whose delete is lost (crash, repository down) stays behind
+ * as CONFIRMING/CANCELLING and recovery confirms/cancels it again, confirm and cancel are idempotent.
+ */
+public class TransactionDeleteQueue {
+
+    static final Logger logger = Logger.getLogger(TransactionDeleteQueue.class.getSimpleName());
+
+    private final TransactionRepository transactionRepository;
+
+    private final int batchSize;
+
+    private final BlockingQueue<Transaction> queue;
+
+    private final Map<Xid, Boolean> pendingXids = new ConcurrentHashMap<Xid, Boolean>();
+
+    private final Thread deleteThread;
+
+    private volatile boolean running = true;
+
+    public TransactionDeleteQueue(String name, TransactionRepository transactionRepository, int batchSize, int queueSize) {
+        this.transactionRepository = transactionRepository;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<Transaction>(queueSize);
+
+        this.deleteThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                deleteLoop();
+            }
+        }, name);
+        this.deleteThread.setDaemon(true);
+        this.deleteThread.start();
+    }
+
+    /**
+     * queues the record for deletion, returns false if the queue is full or stopped, the caller should delete it itself.
+     */
+    public boolean offer(Transaction transaction) {
+
+        if (!running) {
+            return false;
+        }
+
+        pendingXids.put(transaction.getXid(), Boolean.TRUE);
+
+        if (!queue.offer(transaction)) {
+            pendingXids.remove(transaction.getXid());
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * true while the record is finished but not deleted yet, recovery leaves such records alone.
+     */
+    public boolean isPending(Xid xid) {
+        return pendingXids.containsKey(xid);
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * stops taking records and deletes the ones already queued.
+     */
+    public void shutdown() {
+        running = false;
+        deleteThread.interrupt();
+
+        try {
+            deleteThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Transaction> batch = new ArrayList<Transaction>();
+        queue.drainTo(batch);
+        delete(batch);
+    }
+
+    private void deleteLoop() {
+
+        List<Transaction> batch = new ArrayList<Transaction>(batchSize);
+
+        while (running) {
+            try {
+                Transaction first = queue.take();
+
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+
+                delete(batch);
+            } catch (InterruptedException e) {
+                //shutdown, the remaining records are deleted by the shutting down thread.
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void delete(List<Transaction> batch) {
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            transactionRepository.deleteAll(batch);
+        } catch (Throwable batchException) {
+
+            logger.warn(String.format("batch delete of %d transactions failed, deletes them one by one.", batch.size()), batchException);
+
+            for (Transaction transaction : batch) {
+                try {
+                    transactionRepository.delete(transaction);
+                } catch (Throwable deleteException) {
+                    logger.warn("delete of transaction " + transaction.getXid() + " failed, recovery job will delete it.", deleteException);
+                }
+            }
+        } finally {
+            for (Transaction transaction : batch) {
+                pendingXids.remove(transaction.getXid());
+            }
+        }
+    }
+}
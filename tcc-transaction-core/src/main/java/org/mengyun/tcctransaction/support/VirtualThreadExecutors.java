@@ -0,0 +1,85 @@
+package org.mengyun.tcctransaction.support;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * creates thread-per-task executors on virtual threads when the running JVM supports them (java 21+),
+ * looked up by reflection so the project still builds and runs on older JVMs.
+ */
+public final class VirtualThreadExecutors {
+
+    static final Logger logger = Logger.getLogger(VirtualThreadExecutors.class.getSimpleName());
+
+    private static final Method OF_VIRTUAL;
+
+    private static final Method BUILDER_NAME;
+
+    private static final Method BUILDER_FACTORY;
+
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderFactory = null;
+        Method newThreadPerTaskExecutor = null;
+
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderName = builderClass.getMethod("name", String.class, long.class);
+            builderFactory = builderClass.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (Exception e) {
+            ofVirtual = null;
+        }
+
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_FACTORY = builderFactory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private VirtualThreadExecutors() {
+
+    }
+
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * returns an executor starting one virtual thread named "name-N" per task, or null if virtual threads are not supported.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+
+        if (!isSupported()) {
+            return null;
+        }
+
+        try {
+            Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 1L);
+            ThreadFactory threadFactory = (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+        } catch (Exception e) {
+            logger.warn("failed to create virtual thread executor " + name + ", falls back to platform threads.", e);
+            return null;
+        }
+    }
+
+    /**
+     * as newVirtualThreadPerTaskExecutor, with at most maxTasks tasks running at a time, the others handled by the reject policy.
+     */
+    public static ExecutorService newBoundedVirtualThreadPerTaskExecutor(String name, int maxTasks, TerminateThreadPoolExecutor.RejectPolicy rejectPolicy) {
+
+        ExecutorService executorService = newVirtualThreadPerTaskExecutor(name);
+
+        return executorService == null ? null : new BoundedExecutorService(name, executorService, maxTasks, rejectPolicy);
+    }
+}
@@ -7,8 +7,9 @@ import org.aspectj.lang.ProceedingJoinPoint;
 import org.mengyun.tcctransaction.api.Compensable;
 import org.mengyun.tcctransaction.api.Propagation;
 import org.mengyun.tcctransaction.dubbo.context.DubboTransactionContextEditor;
-import org.mengyun.tcctransaction.interceptor.ResourceCoordinatorAspect;
+import org.mengyun.tcctransaction.interceptor.ResourceCoordinatorInterceptor;
 import org.mengyun.tcctransaction.support.FactoryBuilder;
+import org.mengyun.tcctransaction.support.TransactionConfigurator;
 import org.mengyun.tcctransaction.utils.ReflectionUtils;
 
 import java.lang.reflect.Method;
@@ -18,6 +19,8 @@ import java.lang.reflect.Method;
  */
 public class TccInvokerInvocationHandler extends InvokerInvocationHandler {
 
+    private static volatile ResourceCoordinatorInterceptor resourceCoordinatorInterceptor;
+
     private Object target;
 
     public TccInvokerInvocationHandler(Invoker<?> handler) {
@@ -43,11 +46,28 @@ public class TccInvokerInvocationHandler extends InvokerInvocationHandler {
             }
 
             ProceedingJoinPoint pjp = new MethodProceedingJoinPoint(proxy, target, method, args);
-            return FactoryBuilder.factoryOf(ResourceCoordinatorAspect.class).getInstance().interceptTransactionContextMethod(pjp);
+            return getResourceCoordinatorInterceptor().interceptTransactionContextMethod(pjp);
         } else {
             return super.invoke(target, method, args);
         }
     }
 
+    /**
+     * built from the transaction configurator rather than looked up from the coordinator aspect,
+     * which is not declared when the fused compensable aspect is used.
+     */
+    private static ResourceCoordinatorInterceptor getResourceCoordinatorInterceptor() {
 
+        if (resourceCoordinatorInterceptor == null) {
+            synchronized (TccInvokerInvocationHandler.class) {
+                if (resourceCoordinatorInterceptor == null) {
+                    ResourceCoordinatorInterceptor interceptor = new ResourceCoordinatorInterceptor();
+                    interceptor.setTransactionManager(FactoryBuilder.factoryOf(TransactionConfigurator.class).getInstance().getTransactionManager());
+                    resourceCoordinatorInterceptor = interceptor;
+                }
+            }
+        }
+
+        return resourceCoordinatorInterceptor;
+    }
 }
@@ -2,6 +2,7 @@ package org.mengyun.tcctransaction.server.dao;
 
 import org.apache.commons.lang3.time.DateUtils;
 import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.api.TransactionXid;
 import org.mengyun.tcctransaction.repository.TransactionIOException;
 import org.mengyun.tcctransaction.repository.helper.JedisCallback;
 import org.mengyun.tcctransaction.repository.helper.RedisHelper;
@@ -13,6 +14,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.*;
 
+import javax.xml.bind.DatatypeConverter;
 import java.text.ParseException;
 import java.util.*;
 
@@ -59,7 +61,7 @@ public class RedisTransactionDao implements TransactionDao {
             @Override
             public Boolean doInJedis(Jedis jedis) {
 
-                byte[] key = RedisHelper.getRedisKey(getKeyPrefix(), globalTxId, branchQualifier);
+                byte[] key = getRedisKey(jedis, getKeyPrefix(), globalTxId, branchQualifier);
 
                 Long result = (Long) jedis.eval(LuaScriptConstant.HSET_KEY2_IF_KKEY1_EXISTS.getBytes(),
                         3, key, key, "STATUS".getBytes(), ByteUtils.intToBytes(2));
@@ -75,7 +77,7 @@ public class RedisTransactionDao implements TransactionDao {
             @Override
             public Boolean doInJedis(Jedis jedis) {
 
-                byte[] key = RedisHelper.getRedisKey(getKeyPrefix(), globalTxId, branchQualifier);
+                byte[] key = getRedisKey(jedis, getKeyPrefix(), globalTxId, branchQualifier);
 
                 Long result = (Long) jedis.eval(LuaScriptConstant.HSET_KEY2_IF_KKEY1_EXISTS.getBytes(),
                         3, key, key, "STATUS".getBytes(), ByteUtils.intToBytes(3));
@@ -90,7 +92,7 @@ public class RedisTransactionDao implements TransactionDao {
         RedisHelper.execute(jedisPool, new JedisCallback<Boolean>() {
             @Override
             public Boolean doInJedis(Jedis jedis) {
-                String key = new String(RedisHelper.getRedisKey(getKeyPrefix(), globalTxId, branchQualifier));
+                String key = new String(getRedisKey(jedis, getKeyPrefix(), globalTxId, branchQualifier));
                 String delKeyName = DELETE_KEY_PREIFX + key;
                 if (jedis.del(delKeyName) > 0) {
                     return true;
@@ -107,8 +109,8 @@ public class RedisTransactionDao implements TransactionDao {
         RedisHelper.execute(jedisPool, new JedisCallback<Boolean>() {
             @Override
             public Boolean doInJedis(Jedis jedis) {
-                String restoreKeyName = new String(RedisHelper.getRedisKey(getKeyPrefix(), globalTxId, branchQualifier));
-                String deleteKeyName = DELETE_KEY_PREIFX + restoreKeyName;
+                String deleteKeyName = new String(getRedisKey(jedis, DELETE_KEY_PREIFX + getKeyPrefix(), globalTxId, branchQualifier));
+                String restoreKeyName = deleteKeyName.substring(DELETE_KEY_PREIFX.length());
                 Long result = jedis.renamenx(deleteKeyName, restoreKeyName);
                 jedis.persist(restoreKeyName);
                 return result > 0;
@@ -123,7 +125,7 @@ public class RedisTransactionDao implements TransactionDao {
             @Override
             public Boolean doInJedis(Jedis jedis) {
 
-                byte[] key = RedisHelper.getRedisKey(getKeyPrefix(), globalTxId, branchQualifier);
+                byte[] key = getRedisKey(jedis, getKeyPrefix(), globalTxId, branchQualifier);
 
 
                 Long result = (Long) jedis.eval(LuaScriptConstant.HSET_KEY2_IF_KKEY1_EXISTS.getBytes(),
@@ -135,6 +137,25 @@ public class RedisTransactionDao implements TransactionDao {
     }
 
 
+    /**
+     * the hex key of the transaction, or its legacy key if the record has not been migrated by the application yet.
+     */
+    private byte[] getRedisKey(Jedis jedis, String keyPrefix, String globalTxId, String branchQualifier) {
+
+        TransactionXid xid = TransactionXid.valueOf(globalTxId + ":" + branchQualifier);
+
+        byte[] key = RedisHelper.getRedisKey(keyPrefix, xid);
+
+        if (!jedis.exists(key)) {
+            byte[] legacyKey = RedisHelper.getLegacyRedisKey(keyPrefix, xid);
+            if (jedis.exists(legacyKey)) {
+                return legacyKey;
+            }
+        }
+
+        return key;
+    }
+
     public PageDto<TransactionVo> findTransactions(Integer pageNum, int pageSize) {
         return findTransactionByKey(pageNum, pageSize, getKeyPrefix() + "*");
     }
@@ -243,12 +264,12 @@ public class RedisTransactionDao implements TransactionDao {
                 TransactionVo transactionVo = new TransactionVo();
                 transactionVo.setDomain(domain);
                 if (propertyMap.get("GLOBAL_TX_ID") != null) {
-                    transactionVo.setGlobalTxId(UUID.nameUUIDFromBytes(propertyMap.get("GLOBAL_TX_ID")).toString());
+                    transactionVo.setGlobalTxId(DatatypeConverter.printHexBinary(propertyMap.get("GLOBAL_TX_ID")));
                 } else {
                     continue;
                 }
                 if (propertyMap.get("BRANCH_QUALIFIER") != null) {
-                    transactionVo.setBranchQualifier(UUID.nameUUIDFromBytes(propertyMap.get("BRANCH_QUALIFIER")).toString());
+                    transactionVo.setBranchQualifier(DatatypeConverter.printHexBinary(propertyMap.get("BRANCH_QUALIFIER")));
                 } else {
                     continue;
                 }
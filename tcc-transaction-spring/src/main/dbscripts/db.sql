@@ -15,3 +15,25 @@ CREATE TABLE `TCC_TRANSACTION` (
 ) ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=utf8;
 
 ALTER TABLE `TCC_TRANSACTION` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+
+-- required by the completion tracking of JdbcTransactionRepository, one bit per participant: up to 1024 participants in 128 bytes.
+-- without it the repository logs a warning and retries invoke the participants already completed again.
+ALTER TABLE `TCC_TRANSACTION` ADD `COMPLETED_PARTICIPANTS` varbinary(128) DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION` ADD INDEX `IX_LAST_UPDATE_TIME_TX_BQ` (`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`);
+
+-- required by the ownership of the records queued by the durable async terminate: a restarted instance resumes its own
+-- at once and leaves the ones of live instances, whose lease they renew, alone. without them queued records are recovered once idle.
+ALTER TABLE `TCC_TRANSACTION` ADD `LEASE_OWNER` varchar(128) DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION` ADD `LEASE_EXPIRE_TIME` datetime DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION` ADD INDEX `IX_LEASE_OWNER` (`LEASE_OWNER`);
+
+CREATE TABLE `TCC_TRANSACTION_PARTICIPANT` (
+  `GLOBAL_TX_ID` varbinary(32) NOT NULL,
+  `BRANCH_QUALIFIER` varbinary(32) NOT NULL,
+  `PARTICIPANT_INDEX` int(11) NOT NULL,
+  `CONTENT` varbinary(8000) DEFAULT NULL,
+  PRIMARY KEY (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`,`PARTICIPANT_INDEX`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
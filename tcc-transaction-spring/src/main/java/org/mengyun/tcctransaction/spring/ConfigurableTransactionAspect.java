@@ -4,6 +4,7 @@ import org.aspectj.lang.annotation.Aspect;
 import org.mengyun.tcctransaction.TransactionManager;
 import org.mengyun.tcctransaction.interceptor.CompensableTransactionAspect;
 import org.mengyun.tcctransaction.interceptor.CompensableTransactionInterceptor;
+import org.mengyun.tcctransaction.interceptor.ResourceCoordinatorInterceptor;
 import org.mengyun.tcctransaction.support.TransactionConfigurator;
 import org.springframework.core.Ordered;
 
@@ -15,6 +16,8 @@ public class ConfigurableTransactionAspect extends CompensableTransactionAspect
 
     private TransactionConfigurator transactionConfigurator;
 
+    private boolean fuseResourceCoordinator = false;
+
     public void init() {
 
         TransactionManager transactionManager = transactionConfigurator.getTransactionManager();
@@ -23,6 +26,12 @@ public class ConfigurableTransactionAspect extends CompensableTransactionAspect
         compensableTransactionInterceptor.setTransactionManager(transactionManager);
         compensableTransactionInterceptor.setDelayCancelExceptions(transactionConfigurator.getRecoverConfig().getDelayCancelExceptions());
 
+        if (fuseResourceCoordinator) {
+            ResourceCoordinatorInterceptor resourceCoordinatorInterceptor = new ResourceCoordinatorInterceptor();
+            resourceCoordinatorInterceptor.setTransactionManager(transactionManager);
+            compensableTransactionInterceptor.setResourceCoordinatorInterceptor(resourceCoordinatorInterceptor);
+        }
+
         this.setCompensableTransactionInterceptor(compensableTransactionInterceptor);
     }
 
@@ -34,4 +43,11 @@ public class ConfigurableTransactionAspect extends CompensableTransactionAspect
     public void setTransactionConfigurator(TransactionConfigurator transactionConfigurator) {
         this.transactionConfigurator = transactionConfigurator;
     }
+
+    /**
+     * enlists participants in this aspect as well, use it without ConfigurableCoordinatorAspect, see tcc-transaction-fused.xml.
+     */
+    public void setFuseResourceCoordinator(boolean fuseResourceCoordinator) {
+        this.fuseResourceCoordinator = fuseResourceCoordinator;
+    }
 }
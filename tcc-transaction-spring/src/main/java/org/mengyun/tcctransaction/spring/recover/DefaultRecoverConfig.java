@@ -2,6 +2,7 @@ package org.mengyun.tcctransaction.spring.recover;
 
 import org.mengyun.tcctransaction.OptimisticLockException;
 import org.mengyun.tcctransaction.recover.RecoverConfig;
+import org.mengyun.tcctransaction.support.TerminateThreadPoolExecutor;
 
 import java.net.SocketTimeoutException;
 import java.util.HashSet;
@@ -22,6 +23,40 @@ public class DefaultRecoverConfig implements RecoverConfig {
 
     private int asyncTerminateThreadPoolSize = 1024;
 
+    private int asyncTerminateQueueSize = 1024;
+
+    private TerminateThreadPoolExecutor.RejectPolicy asyncTerminateRejectPolicy = TerminateThreadPoolExecutor.RejectPolicy.RECOVERY;
+
+    private boolean parallelTerminate = false;
+
+    private int parallelTerminateThreadPoolSize = Runtime.getRuntime().availableProcessors() * 8;
+
+    private boolean coalesceEnlistment = false;
+
+    private boolean virtualThreadEnabled = false;
+
+    private int recoverConcurrency = 1;
+
+    private boolean asyncDelete = false;
+
+    private int asyncDeleteBatchSize = 100;
+
+    private int asyncDeleteQueueSize = 4096;
+
+    private boolean durableAsyncTerminate = false;
+
+    private int durableTerminateWorkerCount = Runtime.getRuntime().availableProcessors() * 2;
+
+    private int durableTerminateBatchSize = 100;
+
+    private int durableTerminateRecoverDelay = 10; //10 seconds
+
+    private String durableTerminateOwner;
+
+    private int durableTerminateLeaseDuration = 30; //30 seconds
+
+    private int recoverPageSize = 500;
+
     private Set<Class<? extends Exception>> delayCancelExceptions = new HashSet<Class<? extends Exception>>();
 
     public DefaultRecoverConfig() {
@@ -74,4 +109,160 @@ public class DefaultRecoverConfig implements RecoverConfig {
     public void setAsyncTerminateThreadPoolSize(int asyncTerminateThreadPoolSize) {
         this.asyncTerminateThreadPoolSize = asyncTerminateThreadPoolSize;
     }
+
+    @Override
+    public int getAsyncTerminateQueueSize() {
+        return asyncTerminateQueueSize;
+    }
+
+    public void setAsyncTerminateQueueSize(int asyncTerminateQueueSize) {
+        this.asyncTerminateQueueSize = asyncTerminateQueueSize;
+    }
+
+    @Override
+    public TerminateThreadPoolExecutor.RejectPolicy getAsyncTerminateRejectPolicy() {
+        return asyncTerminateRejectPolicy;
+    }
+
+    public void setAsyncTerminateRejectPolicy(TerminateThreadPoolExecutor.RejectPolicy asyncTerminateRejectPolicy) {
+        this.asyncTerminateRejectPolicy = asyncTerminateRejectPolicy;
+    }
+
+    @Override
+    public boolean isParallelTerminate() {
+        return parallelTerminate;
+    }
+
+    public void setParallelTerminate(boolean parallelTerminate) {
+        this.parallelTerminate = parallelTerminate;
+    }
+
+    @Override
+    public int getParallelTerminateThreadPoolSize() {
+        return parallelTerminateThreadPoolSize;
+    }
+
+    public void setParallelTerminateThreadPoolSize(int parallelTerminateThreadPoolSize) {
+        this.parallelTerminateThreadPoolSize = parallelTerminateThreadPoolSize;
+    }
+
+    @Override
+    public boolean isCoalesceEnlistment() {
+        return coalesceEnlistment;
+    }
+
+    public void setCoalesceEnlistment(boolean coalesceEnlistment) {
+        this.coalesceEnlistment = coalesceEnlistment;
+    }
+
+    @Override
+    public boolean isVirtualThreadEnabled() {
+        return virtualThreadEnabled;
+    }
+
+    public void setVirtualThreadEnabled(boolean virtualThreadEnabled) {
+        this.virtualThreadEnabled = virtualThreadEnabled;
+    }
+
+    @Override
+    public int getRecoverConcurrency() {
+        return recoverConcurrency;
+    }
+
+    public void setRecoverConcurrency(int recoverConcurrency) {
+        this.recoverConcurrency = recoverConcurrency;
+    }
+
+    @Override
+    public boolean isAsyncDelete() {
+        return asyncDelete;
+    }
+
+    public void setAsyncDelete(boolean asyncDelete) {
+        this.asyncDelete = asyncDelete;
+    }
+
+    @Override
+    public int getAsyncDeleteBatchSize() {
+        return asyncDeleteBatchSize;
+    }
+
+    public void setAsyncDeleteBatchSize(int asyncDeleteBatchSize) {
+        this.asyncDeleteBatchSize = asyncDeleteBatchSize;
+    }
+
+    @Override
+    public int getAsyncDeleteQueueSize() {
+        return asyncDeleteQueueSize;
+    }
+
+    public void setAsyncDeleteQueueSize(int asyncDeleteQueueSize) {
+        this.asyncDeleteQueueSize = asyncDeleteQueueSize;
+    }
+
+    @Override
+    public boolean isDurableAsyncTerminate() {
+        return durableAsyncTerminate;
+    }
+
+    public void setDurableAsyncTerminate(boolean durableAsyncTerminate) {
+        this.durableAsyncTerminate = durableAsyncTerminate;
+    }
+
+    @Override
+    public int getDurableTerminateWorkerCount() {
+        return durableTerminateWorkerCount;
+    }
+
+    public void setDurableTerminateWorkerCount(int durableTerminateWorkerCount) {
+        this.durableTerminateWorkerCount = durableTerminateWorkerCount;
+    }
+
+    @Override
+    public int getDurableTerminateBatchSize() {
+        return durableTerminateBatchSize;
+    }
+
+    public void setDurableTerminateBatchSize(int durableTerminateBatchSize) {
+        this.durableTerminateBatchSize = durableTerminateBatchSize;
+    }
+
+    @Override
+    public int getDurableTerminateRecoverDelay() {
+        return durableTerminateRecoverDelay;
+    }
+
+    public void setDurableTerminateRecoverDelay(int durableTerminateRecoverDelay) {
+        this.durableTerminateRecoverDelay = durableTerminateRecoverDelay;
+    }
+
+    @Override
+    public String getDurableTerminateOwner() {
+        return durableTerminateOwner;
+    }
+
+    /**
+     * to be set when several instances of a domain run on one host, they would take each other's records back at start otherwise.
+     */
+    public void setDurableTerminateOwner(String durableTerminateOwner) {
+        this.durableTerminateOwner = durableTerminateOwner;
+    }
+
+    @Override
+    public int getDurableTerminateLeaseDuration() {
+        return durableTerminateLeaseDuration;
+    }
+
+    public void setDurableTerminateLeaseDuration(int durableTerminateLeaseDuration) {
+        this.durableTerminateLeaseDuration = durableTerminateLeaseDuration;
+    }
+
+    @Override
+    public int getRecoverPageSize() {
+        return recoverPageSize;
+    }
+
+    public void setRecoverPageSize(int recoverPageSize) {
+        this.recoverPageSize = recoverPageSize;
+    }
 }
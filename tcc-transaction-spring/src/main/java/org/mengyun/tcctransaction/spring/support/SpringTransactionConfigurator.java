@@ -1,22 +1,35 @@
 package org.mengyun.tcctransaction.spring.support;
 
+import org.apache.log4j.Logger;
 import org.mengyun.tcctransaction.TransactionManager;
 import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.api.XidGenerator;
 import org.mengyun.tcctransaction.recover.RecoverConfig;
 import org.mengyun.tcctransaction.repository.CachableTransactionRepository;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.mengyun.tcctransaction.repository.ShardingJdbcTransactionRepository;
 import org.mengyun.tcctransaction.spring.recover.DefaultRecoverConfig;
+import org.mengyun.tcctransaction.support.DurableTerminationQueue;
+import org.mengyun.tcctransaction.support.HashedWheelTimer;
+import org.mengyun.tcctransaction.support.TerminateThreadPoolExecutor;
 import org.mengyun.tcctransaction.support.TransactionConfigurator;
+import org.mengyun.tcctransaction.support.TransactionDeleteQueue;
+import org.mengyun.tcctransaction.support.VirtualThreadExecutors;
+import org.mengyun.tcctransaction.utils.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by changmingxie on 11/11/15.
  */
 public class SpringTransactionConfigurator implements TransactionConfigurator {
 
-    private static volatile ExecutorService executorService = null;
+    static final Logger logger = Logger.getLogger(SpringTransactionConfigurator.class.getSimpleName());
 
     @Autowired
     private TransactionRepository transactionRepository;
@@ -24,34 +37,180 @@ public class SpringTransactionConfigurator implements TransactionConfigurator {
     @Autowired(required = false)
     private RecoverConfig recoverConfig = DefaultRecoverConfig.INSTANCE;
 
+    /**
+     * replaces the default TimeOrderedXidGenerator when declared as a bean.
+     */
+    @Autowired(required = false)
+    private XidGenerator xidGenerator;
+
+    private String domain;
 
     private TransactionManager transactionManager;
 
+    private ExecutorService asyncTerminateExecutor;
+
+    private ExecutorService parallelTerminateExecutor;
+
+    private TransactionDeleteQueue transactionDeleteQueue;
+
+    private DurableTerminationQueue durableTerminationQueue;
+
+    private HashedWheelTimer tryTimeoutTimer;
+
     public void init() {
+
+        if (xidGenerator != null) {
+            TransactionXid.setXidGenerator(xidGenerator);
+        }
+
         transactionManager = new TransactionManager();
         transactionManager.setTransactionRepository(transactionRepository);
 
-        if (executorService == null) {
+        //each domain owns its executors, a confirm storm in one domain does not starve the others.
+        String executorDomain = getDomain();
 
-            synchronized (SpringTransactionConfigurator.class) {
+        if (recoverConfig.isVirtualThreadEnabled()) {
+            //no pool to bound them, the task counts are capped as the platform pools would, with the same reject policies.
+            asyncTerminateExecutor = VirtualThreadExecutors.newBoundedVirtualThreadPerTaskExecutor("tcc-async-terminate-" + executorDomain,
+                    recoverConfig.getAsyncTerminateThreadPoolSize() + recoverConfig.getAsyncTerminateQueueSize(),
+                    recoverConfig.getAsyncTerminateRejectPolicy());
+            parallelTerminateExecutor = VirtualThreadExecutors.newBoundedVirtualThreadPerTaskExecutor("tcc-parallel-terminate-" + executorDomain,
+                    recoverConfig.getParallelTerminateThreadPoolSize() * 2,
+                    TerminateThreadPoolExecutor.RejectPolicy.CALLER_RUNS);
 
-                if (executorService == null) {
-//                    executorService = new ThreadPoolExecutor(recoverConfig.getAsyncTerminateThreadPoolSize(),
-//                            recoverConfig.getAsyncTerminateThreadPoolSize(),
-//                            0L, TimeUnit.SECONDS,
-//                            new SynchronousQueue<Runnable>());
-                    executorService = Executors.newCachedThreadPool();
-                }
+            if (asyncTerminateExecutor == null) {
+                logger.warn("virtual threads are not supported by this JVM, falls back to platform thread pools.");
             }
         }
 
-        transactionManager.setExecutorService(executorService);
+        if (asyncTerminateExecutor == null) {
+            asyncTerminateExecutor = new TerminateThreadPoolExecutor("tcc-async-terminate-" + executorDomain,
+                    recoverConfig.getAsyncTerminateThreadPoolSize(),
+                    recoverConfig.getAsyncTerminateQueueSize(),
+                    recoverConfig.getAsyncTerminateRejectPolicy());
+        }
+
+        if (parallelTerminateExecutor == null) {
+            //once saturated the caller confirms/cancels the participant itself.
+            parallelTerminateExecutor = new TerminateThreadPoolExecutor("tcc-parallel-terminate-" + executorDomain,
+                    recoverConfig.getParallelTerminateThreadPoolSize(),
+                    recoverConfig.getParallelTerminateThreadPoolSize(),
+                    TerminateThreadPoolExecutor.RejectPolicy.CALLER_RUNS);
+        }
+
+        transactionManager.setExecutorService(asyncTerminateExecutor);
+        transactionManager.setParticipantExecutorService(parallelTerminateExecutor);
+        transactionManager.setParallelTerminate(recoverConfig.isParallelTerminate());
+        transactionManager.setCoalesceEnlistment(recoverConfig.isCoalesceEnlistment());
+
+        //10ms ticks over a 512 slot wheel, longer timeouts just go round more than once.
+        //its thread is started by the first try timeout, applications without tryTimeout never tick.
+        tryTimeoutTimer = new HashedWheelTimer("tcc-try-timeout-" + executorDomain, 10, TimeUnit.MILLISECONDS, 512);
+        transactionManager.setTryTimeoutTimer(tryTimeoutTimer);
+
+        if (recoverConfig.isAsyncDelete()) {
+            transactionDeleteQueue = new TransactionDeleteQueue("tcc-batch-delete-" + executorDomain,
+                    transactionRepository,
+                    recoverConfig.getAsyncDeleteBatchSize(),
+                    recoverConfig.getAsyncDeleteQueueSize());
+            transactionManager.setTransactionDeleteQueue(transactionDeleteQueue);
+        }
+
+        if (recoverConfig.isDurableAsyncTerminate()) {
+            durableTerminationQueue = new DurableTerminationQueue("tcc-durable-terminate-" + executorDomain,
+                    transactionRepository,
+                    recoverConfig.getDurableTerminateWorkerCount(),
+                    recoverConfig.getDurableTerminateBatchSize(),
+                    recoverConfig.getAsyncTerminateQueueSize(),
+                    getDurableTerminateOwner(executorDomain),
+                    TimeUnit.SECONDS.toMillis(recoverConfig.getDurableTerminateLeaseDuration()));
+            durableTerminationQueue.recoverOrphans(TimeUnit.SECONDS.toMillis(recoverConfig.getDurableTerminateRecoverDelay()),
+                    TimeUnit.SECONDS.toMillis(recoverConfig.getRecoverDuration()),
+                    recoverConfig.getMaxRetryCount());
+            transactionManager.setDurableTerminationQueue(durableTerminationQueue);
+        }
 
         if (transactionRepository instanceof CachableTransactionRepository) {
             ((CachableTransactionRepository) transactionRepository).setExpireDuration(recoverConfig.getRecoverDuration());
         }
     }
 
+    public void destroy() {
+        if (tryTimeoutTimer != null) {
+            tryTimeoutTimer.stop();
+        }
+
+        if (durableTerminationQueue != null) {
+            durableTerminationQueue.shutdown();
+        }
+
+        if (asyncTerminateExecutor != null) {
+            asyncTerminateExecutor.shutdown();
+        }
+
+        if (parallelTerminateExecutor != null) {
+            parallelTerminateExecutor.shutdown();
+        }
+
+        //deletes what is queued, terminations finishing afterwards find the queue stopped and delete their records themselves.
+        if (transactionDeleteQueue != null) {
+            transactionDeleteQueue.shutdown();
+        }
+
+        //last, the queues above still write through it.
+        if (transactionRepository instanceof JdbcTransactionRepository) {
+            ((JdbcTransactionRepository) transactionRepository).shutdown();
+        } else if (transactionRepository instanceof ShardingJdbcTransactionRepository) {
+            ((ShardingJdbcTransactionRepository) transactionRepository).shutdown();
+        }
+    }
+
+    public String getDomain() {
+
+        if (StringUtils.isNotEmpty(domain)) {
+            return domain;
+        }
+
+        if (transactionRepository instanceof JdbcTransactionRepository
+                && StringUtils.isNotEmpty(((JdbcTransactionRepository) transactionRepository).getDomain())) {
+            return ((JdbcTransactionRepository) transactionRepository).getDomain();
+        }
+
+        return "default";
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    /**
+     * the configured owner, else the host name and domain, which a restart keeps. null without either, the records are then not owned.
+     */
+    private String getDurableTerminateOwner(String executorDomain) {
+
+        if (StringUtils.isNotEmpty(recoverConfig.getDurableTerminateOwner())) {
+            return recoverConfig.getDurableTerminateOwner();
+        }
+
+        try {
+            return InetAddress.getLocalHost().getHostName() + "/" + executorDomain;
+        } catch (UnknownHostException e) {
+            logger.warn("no host name for the owner of the durable terminate queue, its records are recovered once idle.", e);
+            return null;
+        }
+    }
+
+    /**
+     * a TerminateThreadPoolExecutor exposing queue and latency metrics, or a virtual thread executor.
+     */
+    public ExecutorService getAsyncTerminateExecutor() {
+        return asyncTerminateExecutor;
+    }
+
+    public ExecutorService getParallelTerminateExecutor() {
+        return parallelTerminateExecutor;
+    }
+
     @Override
     public TransactionManager getTransactionManager() {
         return transactionManager;
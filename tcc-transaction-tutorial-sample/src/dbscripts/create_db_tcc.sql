@@ -18,6 +18,16 @@ CREATE TABLE `TCC_TRANSACTION_CAP` (
 
 ALTER TABLE `TCC_TRANSACTION_CAP` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
 
+ALTER TABLE `TCC_TRANSACTION_CAP` ADD `COMPLETED_PARTICIPANTS` varbinary(128) DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION_CAP` ADD INDEX `IX_LAST_UPDATE_TIME_TX_BQ` (`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`);
+
+ALTER TABLE `TCC_TRANSACTION_CAP` ADD `LEASE_OWNER` varchar(128) DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION_CAP` ADD `LEASE_EXPIRE_TIME` datetime DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION_CAP` ADD INDEX `IX_LEASE_OWNER` (`LEASE_OWNER`);
+
 CREATE TABLE `TCC_TRANSACTION_ORD` (
   `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
   `DOMAIN` varchar(100) DEFAULT NULL,
@@ -36,6 +46,16 @@ CREATE TABLE `TCC_TRANSACTION_ORD` (
 
 ALTER TABLE `TCC_TRANSACTION_ORD` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
 
+ALTER TABLE `TCC_TRANSACTION_ORD` ADD `COMPLETED_PARTICIPANTS` varbinary(128) DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION_ORD` ADD INDEX `IX_LAST_UPDATE_TIME_TX_BQ` (`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`);
+
+ALTER TABLE `TCC_TRANSACTION_ORD` ADD `LEASE_OWNER` varchar(128) DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION_ORD` ADD `LEASE_EXPIRE_TIME` datetime DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION_ORD` ADD INDEX `IX_LEASE_OWNER` (`LEASE_OWNER`);
+
 CREATE TABLE `TCC_TRANSACTION_RED` (
   `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
   `DOMAIN` varchar(100) DEFAULT NULL,
@@ -54,6 +74,16 @@ CREATE TABLE `TCC_TRANSACTION_RED` (
 
 ALTER TABLE `TCC_TRANSACTION_RED` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
 
+ALTER TABLE `TCC_TRANSACTION_RED` ADD `COMPLETED_PARTICIPANTS` varbinary(128) DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION_RED` ADD INDEX `IX_LAST_UPDATE_TIME_TX_BQ` (`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`);
+
+ALTER TABLE `TCC_TRANSACTION_RED` ADD `LEASE_OWNER` varchar(128) DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION_RED` ADD `LEASE_EXPIRE_TIME` datetime DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION_RED` ADD INDEX `IX_LEASE_OWNER` (`LEASE_OWNER`);
+
 CREATE TABLE `TCC_TRANSACTION_UT` (
   `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
   `DOMAIN` varchar(100) DEFAULT NULL,
@@ -70,4 +100,14 @@ CREATE TABLE `TCC_TRANSACTION_UT` (
   UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
-ALTER TABLE `TCC_TRANSACTION_UT` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
\ No newline at end of file
+ALTER TABLE `TCC_TRANSACTION_UT` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+
+ALTER TABLE `TCC_TRANSACTION_UT` ADD `COMPLETED_PARTICIPANTS` varbinary(128) DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION_UT` ADD INDEX `IX_LAST_UPDATE_TIME_TX_BQ` (`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`);
+
+ALTER TABLE `TCC_TRANSACTION_UT` ADD `LEASE_OWNER` varchar(128) DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION_UT` ADD `LEASE_EXPIRE_TIME` datetime DEFAULT NULL;
+
+ALTER TABLE `TCC_TRANSACTION_UT` ADD INDEX `IX_LEASE_OWNER` (`LEASE_OWNER`);
\ No newline at end of file
@@ -0,0 +1,180 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.UniqueIdentity;
+import org.mengyun.tcctransaction.recover.RecoverConfig;
+import org.mengyun.tcctransaction.spring.ConfigurableCoordinatorAspect;
+import org.mengyun.tcctransaction.spring.ConfigurableTransactionAspect;
+import org.mengyun.tcctransaction.spring.recover.DefaultRecoverConfig;
+import org.mengyun.tcctransaction.support.TransactionConfigurator;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a root try returning a CompletableFuture is confirmed when the future completes, including the participants
+ * enlisted by tasks bound with TransactionManager.wrap. a future returned as Object is confirmed on return.
+ */
+public class AsyncTryingTest {
+
+    private static final AtomicInteger ROOT_CONFIRM_COUNT = new AtomicInteger();
+
+    private static final AtomicInteger BRANCH_CONFIRM_COUNT = new AtomicInteger();
+
+    private static TransactionManager transactionManager;
+
+    private static ExecutorService executorService;
+
+    private static BranchService branchService;
+
+    private LatencyTransactionRepository transactionRepository;
+
+    private RootService rootService;
+
+    @Before
+    public void setUp() {
+
+        ROOT_CONFIRM_COUNT.set(0);
+        BRANCH_CONFIRM_COUNT.set(0);
+
+        transactionRepository = new LatencyTransactionRepository(0);
+
+        transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(transactionRepository);
+
+        executorService = Executors.newSingleThreadExecutor();
+
+        TransactionConfigurator transactionConfigurator = newTransactionConfigurator();
+
+        rootService = proxy(new RootService(), transactionConfigurator);
+        branchService = proxy(new BranchService(), transactionConfigurator);
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdown();
+    }
+
+    @Test
+    public void confirmedWhenCompletedTest() throws Exception {
+
+        CompletableFuture<Void> result = rootService.asyncRecord(1);
+
+        result.get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(1, ROOT_CONFIRM_COUNT.get());
+        Assert.assertEquals(1, BRANCH_CONFIRM_COUNT.get());
+        Assert.assertTrue(transactionRepository.transactions.isEmpty());
+    }
+
+    @Test
+    public void futureAsObjectTest() {
+
+        CompletableFuture<Object> pending = new CompletableFuture<Object>();
+
+        Assert.assertSame(pending, rootService.recordAsObject(1, pending));
+
+        //not an async try, confirmed although the future never completes.
+        Assert.assertEquals(1, ROOT_CONFIRM_COUNT.get());
+        Assert.assertTrue(transactionRepository.transactions.isEmpty());
+    }
+
+    private <T> T proxy(T target, TransactionConfigurator transactionConfigurator) {
+
+        ConfigurableTransactionAspect transactionAspect = new ConfigurableTransactionAspect();
+        transactionAspect.setTransactionConfigurator(transactionConfigurator);
+        transactionAspect.init();
+
+        ConfigurableCoordinatorAspect coordinatorAspect = new ConfigurableCoordinatorAspect();
+        coordinatorAspect.setTransactionConfigurator(transactionConfigurator);
+        coordinatorAspect.init();
+
+        AspectJProxyFactory proxyFactory = new AspectJProxyFactory(target);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAspect(transactionAspect);
+        proxyFactory.addAspect(coordinatorAspect);
+        return proxyFactory.getProxy();
+    }
+
+    private TransactionConfigurator newTransactionConfigurator() {
+
+        return new TransactionConfigurator() {
+            @Override
+            public TransactionManager getTransactionManager() {
+                return transactionManager;
+            }
+
+            @Override
+            public TransactionRepository getTransactionRepository() {
+                return transactionRepository;
+            }
+
+            @Override
+            public RecoverConfig getRecoverConfig() {
+                return DefaultRecoverConfig.INSTANCE;
+            }
+        };
+    }
+
+    public static class RootService {
+
+        @Compensable(confirmMethod = "asyncRecordConfirm", cancelMethod = "asyncRecordCancel")
+        public CompletableFuture<Void> asyncRecord(@UniqueIdentity final long id) {
+
+            //enlists on the executor thread, before the returned stage completes.
+            return CompletableFuture.runAsync(transactionManager.wrap(new Runnable() {
+                @Override
+                public void run() {
+                    branchService.record(id);
+                }
+            }), executorService);
+        }
+
+        public void asyncRecordConfirm(long id) {
+            ROOT_CONFIRM_COUNT.incrementAndGet();
+        }
+
+        public void asyncRecordCancel(long id) {
+
+        }
+
+        @Compensable(confirmMethod = "recordAsObjectConfirm", cancelMethod = "recordAsObjectCancel")
+        public Object recordAsObject(@UniqueIdentity long id, CompletableFuture<Object> future) {
+            return future;
+        }
+
+        public void recordAsObjectConfirm(long id, CompletableFuture<Object> future) {
+            ROOT_CONFIRM_COUNT.incrementAndGet();
+        }
+
+        public void recordAsObjectCancel(long id, CompletableFuture<Object> future) {
+
+        }
+    }
+
+    public static class BranchService {
+
+        @Compensable(confirmMethod = "recordConfirm", cancelMethod = "recordCancel")
+        public void record(long id) {
+
+        }
+
+        public void recordConfirm(long id) {
+            BRANCH_CONFIRM_COUNT.incrementAndGet();
+        }
+
+        public void recordCancel(long id) {
+
+        }
+    }
+}
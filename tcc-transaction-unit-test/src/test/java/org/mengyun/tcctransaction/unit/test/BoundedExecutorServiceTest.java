@@ -0,0 +1,106 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.support.BoundedExecutorService;
+import org.mengyun.tcctransaction.support.TerminateThreadPoolExecutor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * an unbounded executor wrapped with a bound rejects the tasks over it by the configured policy.
+ */
+public class BoundedExecutorServiceTest {
+
+    private static final int MAX_TASKS = 2;
+
+    @Test
+    public void recoveryPolicyTest() throws Exception {
+
+        BoundedExecutorService executorService = new BoundedExecutorService("test", Executors.newCachedThreadPool(),
+                MAX_TASKS, TerminateThreadPoolExecutor.RejectPolicy.RECOVERY);
+
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<?>[] running = new Future<?>[MAX_TASKS];
+
+        for (int i = 0; i < MAX_TASKS; i++) {
+            running[i] = executorService.submit(await(release));
+        }
+
+        //over the bound, dropped and left to the recovery job.
+        Future<?> dropped = executorService.submit(await(release));
+
+        Assert.assertTrue(dropped.isCancelled());
+        Assert.assertEquals(1, executorService.getRejectedTaskCount());
+
+        release.countDown();
+
+        for (Future<?> future : running) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        //the permits are released right after the futures complete.
+        awaitPermits(executorService, MAX_TASKS);
+
+        executorService.submit(await(release)).get(5, TimeUnit.SECONDS);
+
+        executorService.shutdown();
+    }
+
+    @Test
+    public void callerRunsPolicyTest() throws Exception {
+
+        BoundedExecutorService executorService = new BoundedExecutorService("test", Executors.newCachedThreadPool(),
+                MAX_TASKS, TerminateThreadPoolExecutor.RejectPolicy.CALLER_RUNS);
+
+        CountDownLatch release = new CountDownLatch(1);
+
+        for (int i = 0; i < MAX_TASKS; i++) {
+            executorService.submit(await(release));
+        }
+
+        final AtomicReference<Thread> runner = new AtomicReference<Thread>();
+
+        executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                runner.set(Thread.currentThread());
+            }
+        });
+
+        Assert.assertSame(Thread.currentThread(), runner.get());
+
+        release.countDown();
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    private void awaitPermits(BoundedExecutorService executorService, int permits) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (executorService.getAvailablePermits() < permits && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        Assert.assertEquals(permits, executorService.getAvailablePermits());
+    }
+
+    private Runnable await(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+}
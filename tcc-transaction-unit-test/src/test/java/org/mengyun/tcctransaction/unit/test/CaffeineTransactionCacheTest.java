@@ -0,0 +1,92 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.cache.CaffeineTransactionCache;
+import org.mengyun.tcctransaction.repository.cache.TransactionCacheStats;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the default transaction cache is bounded by serialized bytes, its expiry and bound change at runtime, and it counts hits.
+ */
+public class CaffeineTransactionCacheTest {
+
+    @Test
+    public void weighedBySerializedSizeTest() throws InterruptedException {
+
+        CaffeineTransactionCache transactionCache = new CaffeineTransactionCache(100 * 1000, true, 60, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 1000; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            transaction.setSerializedSize(1000);
+            transactionCache.put(transaction);
+        }
+
+        awaitWeightedSizeAtMost(transactionCache, 100 * 1000);
+
+        transactionCache.setMaximum(10 * 1000);
+
+        awaitWeightedSizeAtMost(transactionCache, 10 * 1000);
+        Assert.assertEquals(10 * 1000, transactionCache.getMaximum());
+    }
+
+    @Test
+    public void runtimeExpiryTest() throws InterruptedException {
+
+        CaffeineTransactionCache transactionCache = new CaffeineTransactionCache(1000, false, 60, TimeUnit.SECONDS);
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transactionCache.put(transaction);
+
+        transactionCache.setExpireDuration(50, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(200);
+
+        Assert.assertNull(transactionCache.getIfPresent(transaction.getXid()));
+    }
+
+    @Test
+    public void statsTest() {
+
+        CaffeineTransactionCache transactionCache = new CaffeineTransactionCache();
+
+        final Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        Callable<Transaction> loader = new Callable<Transaction>() {
+            @Override
+            public Transaction call() {
+                return transaction;
+            }
+        };
+
+        transactionCache.get(transaction.getXid(), loader);
+
+        for (int i = 0; i < 9; i++) {
+            transactionCache.get(transaction.getXid(), loader);
+        }
+
+        TransactionCacheStats stats = transactionCache.stats();
+
+        Assert.assertEquals(9, stats.hitCount());
+        Assert.assertEquals(1, stats.missCount());
+        Assert.assertEquals(1, stats.loadSuccessCount());
+        Assert.assertEquals(0.9, stats.hitRate(), 0.0001);
+    }
+
+    private void awaitWeightedSizeAtMost(CaffeineTransactionCache transactionCache, long maximum) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        //eviction is amortized over later operations, each read helps it along.
+        while (transactionCache.getWeightedSize() > maximum && System.currentTimeMillis() < deadline) {
+            transactionCache.getIfPresent(new Transaction(TransactionType.ROOT).getXid());
+            Thread.sleep(10);
+        }
+
+        Assert.assertTrue(transactionCache.getWeightedSize() <= maximum);
+    }
+}
@@ -0,0 +1,101 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionXid;
+
+/**
+ * with coalesced enlistment the record is created on the first flush and local participants ride along with it,
+ * every try call carrying the transaction context still costs one write.
+ */
+public class CoalesceEnlistmentTest {
+
+    private static final int REMOTE_PARTICIPANT_COUNT = 4;
+
+    @Test
+    public void enlistPerWriteTest() {
+        //create, one update per enlistment, confirming update, delete.
+        Assert.assertEquals(1 + (1 + REMOTE_PARTICIPANT_COUNT) + 1 + 1, runTransaction(false));
+    }
+
+    @Test
+    public void coalescedEnlistmentTest() {
+        //the create is deferred to the first flush and the local participant is written with it.
+        Assert.assertEquals(REMOTE_PARTICIPANT_COUNT + 1 + 1, runTransaction(true));
+    }
+
+    @Test
+    public void localOnlyTransactionTest() {
+
+        LatencyTransactionRepository repository = new LatencyTransactionRepository(0);
+
+        TransactionManager transactionManager = newTransactionManager(repository, true);
+
+        Transaction transaction = transactionManager.begin();
+
+        try {
+            transactionManager.enlistParticipant(newParticipant(transaction));
+            transactionManager.flushEnlistment();
+
+            Assert.assertEquals(1, repository.writeCount.get());
+
+            //nothing left to write.
+            transactionManager.flushEnlistment();
+            Assert.assertEquals(1, repository.writeCount.get());
+
+            transactionManager.commit(false);
+        } finally {
+            transactionManager.cleanAfterCompletion(transaction);
+        }
+
+        Assert.assertTrue(repository.transactions.isEmpty());
+    }
+
+    private int runTransaction(boolean coalesceEnlistment) {
+
+        LatencyTransactionRepository repository = new LatencyTransactionRepository(0);
+
+        TransactionManager transactionManager = newTransactionManager(repository, coalesceEnlistment);
+
+        Transaction transaction = transactionManager.begin();
+
+        try {
+            //the root method itself, its try runs locally.
+            transactionManager.enlistParticipant(newParticipant(transaction));
+
+            for (int j = 0; j < REMOTE_PARTICIPANT_COUNT; j++) {
+                transactionManager.enlistParticipant(newParticipant(transaction));
+                //what ResourceCoordinatorInterceptor does before a try call carrying the transaction context.
+                transactionManager.flushEnlistment();
+
+                Assert.assertTrue(repository.transactions.containsKey(transaction.getXid()));
+            }
+
+            transactionManager.commit(false);
+        } finally {
+            transactionManager.cleanAfterCompletion(transaction);
+        }
+
+        Assert.assertTrue(repository.transactions.isEmpty());
+
+        return repository.writeCount.get();
+    }
+
+    private TransactionManager newTransactionManager(LatencyTransactionRepository repository, boolean coalesceEnlistment) {
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(repository);
+        transactionManager.setCoalesceEnlistment(coalesceEnlistment);
+        return transactionManager;
+    }
+
+    private Participant newParticipant(Transaction transaction) {
+        TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
+        InvocationContext noop = new InvocationContext(Object.class, "", new Class[0]);
+        return new Participant(xid, noop, noop, Compensable.NullableTransactionContextEditor.class);
+    }
+}
@@ -0,0 +1,137 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * the completion bits are persisted up to the width of COMPLETED_PARTICIPANTS,
+ * a table created before the column still reads and writes its records, a probe failing for another reason is retried.
+ */
+public class CompletedParticipantsColumnTest {
+
+    private final InvocationContext noop = new InvocationContext(Object.class, "", new Class[0]);
+
+    @Test
+    public void missingColumnTest() {
+
+        DriverManagerDataSource dataSource = newDataSource("DROP COLUMN COMPLETED_PARTICIPANTS");
+
+        JdbcTransactionRepository transactionRepository = newRepository(dataSource);
+
+        Assert.assertFalse(transactionRepository.hasCompletedParticipantsColumn());
+
+        Transaction transaction = newTransaction(2);
+        transactionRepository.create(transaction);
+
+        transaction.markParticipantCompleted(0);
+
+        Assert.assertEquals(0, transactionRepository.updateCompletion(transaction));
+        Assert.assertTrue(transaction.isCompletionChanged());
+
+        transaction.addRetriedCount();
+        Assert.assertEquals(1, transactionRepository.update(transaction));
+
+        Transaction found = newRepository(dataSource).findByXid((TransactionXid) transaction.getXid());
+
+        Assert.assertEquals(2, found.getParticipants().size());
+        Assert.assertEquals(1, found.getRetriedCount());
+        Assert.assertFalse(found.isParticipantCompleted(0));
+    }
+
+    @Test
+    public void bitsCappedAtColumnSizeTest() {
+
+        DriverManagerDataSource dataSource = newDataSource("ALTER COLUMN COMPLETED_PARTICIPANTS VARBINARY(1)");
+
+        JdbcTransactionRepository transactionRepository = newRepository(dataSource);
+        transactionRepository.setCompletedParticipantsColumnSize(1);
+
+        Assert.assertTrue(transactionRepository.hasCompletedParticipantsColumn());
+
+        Transaction transaction = newTransaction(10);
+        transactionRepository.create(transaction);
+
+        for (int i = 0; i < 10; i++) {
+            transaction.markParticipantCompleted(i);
+        }
+
+        Assert.assertEquals(1, transactionRepository.updateCompletion(transaction));
+
+        Transaction found = newRepository(dataSource).findByXid((TransactionXid) transaction.getXid());
+
+        for (int i = 0; i < 8; i++) {
+            Assert.assertTrue(found.isParticipantCompleted(i));
+        }
+
+        //past the column, invoked again by the retries.
+        Assert.assertFalse(found.isParticipantCompleted(8));
+        Assert.assertFalse(found.isParticipantCompleted(9));
+    }
+
+    @Test
+    public void failedProbeRetriedTest() {
+
+        final AtomicBoolean broken = new AtomicBoolean(true);
+
+        //the first connection is unusable, as after a failover.
+        JdbcTransactionRepository transactionRepository = newRepository(new DelegatingDataSource(H2TransactionDatabase.newDataSource("tcc-completed")) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                Connection connection = super.getConnection();
+
+                if (broken.compareAndSet(true, false)) {
+                    connection.close();
+                }
+                return connection;
+            }
+        });
+
+        Assert.assertFalse(transactionRepository.hasCompletedParticipantsColumn());
+        Assert.assertTrue(transactionRepository.hasCompletedParticipantsColumn());
+    }
+
+    /**
+     * the shipped table, with COMPLETED_PARTICIPANTS altered by the given statement.
+     */
+    private DriverManagerDataSource newDataSource(String alterCompletedParticipants) {
+
+        DriverManagerDataSource dataSource = H2TransactionDatabase.newDataSource("tcc-completed");
+
+        new JdbcTemplate(dataSource).execute("ALTER TABLE TCC_TRANSACTION " + alterCompletedParticipants);
+
+        return dataSource;
+    }
+
+    private JdbcTransactionRepository newRepository(DataSource dataSource) {
+        JdbcTransactionRepository repository = new JdbcTransactionRepository();
+        repository.setDataSource(dataSource);
+        return repository;
+    }
+
+    private Transaction newTransaction(int participantCount) {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        for (int i = 0; i < participantCount; i++) {
+            TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
+            transaction.enlistParticipant(new Participant(xid, noop, noop, Compensable.NullableTransactionContextEditor.class));
+        }
+
+        return transaction;
+    }
+}
@@ -0,0 +1,252 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.mengyun.tcctransaction.support.DurableTerminationQueue;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * async confirms go through the durable termination queue, and the CONFIRMING records left by a previous run
+ * are confirmed and deleted shortly after start, the ones a live instance is still terminating are left alone.
+ * a restarted owner takes its records back at once, the ones of others wait for their lease to expire and to be idle.
+ */
+public class DurableTerminationQueueTest {
+
+    private static final int TRANSACTION_COUNT = 1000;
+
+    private final InvocationContext noop = new InvocationContext(Object.class, "", new Class[0]);
+
+    @Test
+    public void asyncCommitTest() throws InterruptedException {
+
+        LatencyTransactionRepository transactionRepository = new LatencyTransactionRepository(0);
+
+        DurableTerminationQueue durableTerminationQueue = new DurableTerminationQueue("tcc-durable-terminate-test", transactionRepository, 4, 100, 4096);
+
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(transactionRepository);
+        transactionManager.setDurableTerminationQueue(durableTerminationQueue);
+
+        for (int i = 0; i < TRANSACTION_COUNT; i++) {
+
+            Transaction transaction = begin(transactionManager);
+
+            try {
+                transactionManager.commit(true);
+            } finally {
+                transactionManager.cleanAfterCompletion(transaction);
+            }
+        }
+
+        awaitEmpty(transactionRepository);
+
+        durableTerminationQueue.shutdown();
+
+        Assert.assertTrue(transactionRepository.transactions.isEmpty());
+    }
+
+    @Test
+    public void recoverOrphansTest() throws InterruptedException {
+
+        LatencyTransactionRepository transactionRepository = new LatencyTransactionRepository(0);
+
+        TransactionManager previousRun = new TransactionManager();
+        previousRun.setTransactionRepository(transactionRepository);
+
+        for (int i = 0; i < 10; i++) {
+            Transaction transaction = begin(previousRun);
+            transaction.changeStatus(i % 2 == 0 ? TransactionStatus.CONFIRMING : TransactionStatus.CANCELLING);
+            transactionRepository.update(transaction);
+            previousRun.cleanAfterCompletion(transaction);
+        }
+
+        //a transaction still trying is left to the recovery job.
+        Transaction trying = begin(previousRun);
+        previousRun.cleanAfterCompletion(trying);
+
+        Thread.sleep(10);
+
+        DurableTerminationQueue durableTerminationQueue = new DurableTerminationQueue("tcc-durable-terminate-test", transactionRepository, 2, 100, 4096);
+        durableTerminationQueue.recoverOrphans(0, 0, 30);
+
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (transactionRepository.transactions.size() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        durableTerminationQueue.shutdown();
+
+        Assert.assertEquals(1, transactionRepository.transactions.size());
+        Assert.assertTrue(transactionRepository.transactions.containsKey(trying.getXid()));
+    }
+
+    @Test
+    public void liveTerminationNotClaimedTest() throws InterruptedException {
+
+        LatencyTransactionRepository transactionRepository = new LatencyTransactionRepository(0);
+
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(transactionRepository);
+
+        //left by a previous run a minute ago.
+        Transaction orphan = begin(transactionManager);
+        orphan.changeStatus(TransactionStatus.CONFIRMING);
+        transactionRepository.update(orphan);
+        orphan.setLastUpdateTime(new Date(System.currentTimeMillis() - 60 * 1000));
+        transactionManager.cleanAfterCompletion(orphan);
+
+        //queued on a live instance just now, not written again until its delete.
+        Transaction live = begin(transactionManager);
+        live.changeStatus(TransactionStatus.CONFIRMING);
+        transactionRepository.update(live);
+        transactionManager.cleanAfterCompletion(live);
+
+        long liveVersion = live.getVersion();
+
+        Thread.sleep(10);
+
+        DurableTerminationQueue durableTerminationQueue = new DurableTerminationQueue("tcc-durable-terminate-test", transactionRepository, 2, 100, 4096);
+        durableTerminationQueue.recoverOrphans(0, 30 * 1000, 30);
+
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (transactionRepository.transactions.containsKey(orphan.getXid()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        durableTerminationQueue.shutdown();
+
+        Assert.assertFalse(transactionRepository.transactions.containsKey(orphan.getXid()));
+        Assert.assertTrue(transactionRepository.transactions.containsKey(live.getXid()));
+        Assert.assertEquals(liveVersion, live.getVersion());
+    }
+
+    @Test
+    public void ownRecordsReclaimedTest() throws InterruptedException {
+
+        DriverManagerDataSource dataSource = H2TransactionDatabase.newDataSource("tcc-durable-owner");
+
+        JdbcTransactionRepository transactionRepository = new JdbcTransactionRepository();
+        transactionRepository.setDataSource(dataSource);
+
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(transactionRepository);
+
+        long now = System.currentTimeMillis();
+
+        //queued by this instance before its restart, the lease has not expired yet.
+        Transaction own = leased(transactionManager, transactionRepository, "node-a", now + 60 * 1000);
+        //queued by a live instance.
+        Transaction live = leased(transactionManager, transactionRepository, "node-b", now + 60 * 1000);
+        //left by a dead instance, its lease expired a while ago.
+        Transaction dead = leased(transactionManager, transactionRepository, "node-c", now - 30 * 1000);
+        //the lease of a stopped instance just expired, the record is not idle long enough yet.
+        Transaction recent = leased(transactionManager, transactionRepository, "node-d", now - 1000);
+
+        new JdbcTemplate(dataSource).update("UPDATE TCC_TRANSACTION SET LAST_UPDATE_TIME = ? WHERE LEASE_OWNER = ?",
+                new Timestamp(now - 60 * 1000), "node-c");
+
+        Thread.sleep(10);
+
+        DurableTerminationQueue durableTerminationQueue = new DurableTerminationQueue("tcc-durable-terminate-test", transactionRepository, 2, 100, 4096,
+                "node-a", 60 * 1000);
+        durableTerminationQueue.recoverOrphans(0, 30 * 1000, 30);
+
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while ((exists(dataSource, own) || exists(dataSource, dead)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        durableTerminationQueue.shutdown();
+
+        Assert.assertFalse(exists(dataSource, own));
+        Assert.assertFalse(exists(dataSource, dead));
+        Assert.assertTrue(exists(dataSource, live));
+        Assert.assertTrue(exists(dataSource, recent));
+    }
+
+    @Test
+    public void leaseRenewedTest() throws InterruptedException {
+
+        DriverManagerDataSource dataSource = H2TransactionDatabase.newDataSource("tcc-durable-lease");
+
+        JdbcTransactionRepository transactionRepository = new JdbcTransactionRepository();
+        transactionRepository.setDataSource(dataSource);
+
+        DurableTerminationQueue durableTerminationQueue = new DurableTerminationQueue("tcc-durable-terminate-test", transactionRepository, 1, 100, 16,
+                "node-a", 300);
+
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(transactionRepository);
+
+        Transaction transaction = begin(transactionManager);
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        durableTerminationQueue.lease(transaction);
+        transactionRepository.update(transaction);
+        transactionManager.cleanAfterCompletion(transaction);
+
+        long leasedUntil = transaction.getLeaseExpireTimeMillis();
+
+        Thread.sleep(500);
+
+        durableTerminationQueue.shutdown();
+
+        //another node, without the cache.
+        JdbcTransactionRepository recoveryRepository = new JdbcTransactionRepository();
+        recoveryRepository.setDataSource(dataSource);
+
+        Transaction found = recoveryRepository.findByXid((TransactionXid) transaction.getXid());
+
+        Assert.assertEquals("node-a", found.getOwner());
+        Assert.assertTrue(found.getLeaseExpireTimeMillis() > leasedUntil);
+    }
+
+    private Transaction leased(TransactionManager transactionManager, JdbcTransactionRepository transactionRepository, String owner, long leaseExpireTimeMillis) {
+
+        Transaction transaction = begin(transactionManager);
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        transaction.setLease(owner, leaseExpireTimeMillis);
+        transactionRepository.update(transaction);
+        transactionManager.cleanAfterCompletion(transaction);
+
+        return transaction;
+    }
+
+    private boolean exists(DriverManagerDataSource dataSource, Transaction transaction) {
+        return new JdbcTemplate(dataSource).queryForObject("SELECT COUNT(*) FROM TCC_TRANSACTION WHERE GLOBAL_TX_ID = ?",
+                Integer.class, transaction.getXid().getGlobalTransactionId()) > 0;
+    }
+
+    private Transaction begin(TransactionManager transactionManager) {
+
+        Transaction transaction = transactionManager.begin();
+
+        TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
+        transactionManager.enlistParticipant(new Participant(xid, noop, noop, Compensable.NullableTransactionContextEditor.class));
+
+        return transaction;
+    }
+
+    private void awaitEmpty(LatencyTransactionRepository transactionRepository) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (!transactionRepository.transactions.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
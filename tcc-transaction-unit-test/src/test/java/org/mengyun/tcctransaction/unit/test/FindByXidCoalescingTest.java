@@ -0,0 +1,95 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+
+import javax.transaction.xa.Xid;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * threads missing the cache on the same xid at the same time share one backend read.
+ */
+public class FindByXidCoalescingTest {
+
+    private static final int THREAD_COUNT = 16;
+
+    @Test
+    public void concurrentMissesShareOneReadTest() throws Exception {
+
+        final SlowFindTransactionRepository transactionRepository = new SlowFindTransactionRepository();
+
+        Transaction transaction = new Transaction(TransactionType.BRANCH);
+        //written behind the cache, as by another node.
+        transactionRepository.transactions.put(transaction.getXid(), transaction);
+
+        final TransactionXid xid = (TransactionXid) transaction.getXid();
+
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT);
+
+        try {
+            List<Future<Transaction>> futures = new ArrayList<Future<Transaction>>();
+
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                futures.add(executorService.submit(new Callable<Transaction>() {
+                    @Override
+                    public Transaction call() throws Exception {
+                        start.await();
+                        return transactionRepository.findByXid(xid);
+                    }
+                }));
+            }
+
+            start.countDown();
+
+            for (Future<Transaction> future : futures) {
+                Assert.assertSame(transaction, future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        Assert.assertEquals(1, transactionRepository.findCount.get());
+        Assert.assertEquals(1, transactionRepository.getCacheStats().loadSuccessCount());
+
+        Assert.assertSame(transaction, transactionRepository.findByXid(xid));
+        Assert.assertTrue(transactionRepository.getCacheStats().hitCount() > 0);
+
+        Assert.assertNull(transactionRepository.findByXid(new TransactionXid()));
+        Assert.assertEquals(2, transactionRepository.findCount.get());
+    }
+
+    static class SlowFindTransactionRepository extends LatencyTransactionRepository {
+
+        final AtomicInteger findCount = new AtomicInteger();
+
+        SlowFindTransactionRepository() {
+            super(0);
+        }
+
+        @Override
+        protected Transaction doFindOne(Xid xid) {
+            findCount.incrementAndGet();
+
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return super.doFindOne(xid);
+        }
+    }
+}
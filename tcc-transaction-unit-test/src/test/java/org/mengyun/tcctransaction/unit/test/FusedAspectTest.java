@@ -0,0 +1,86 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.UniqueIdentity;
+import org.mengyun.tcctransaction.spring.ConfigurableCoordinatorAspect;
+import org.mengyun.tcctransaction.support.TransactionConfigurator;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * with tcc-transaction-fused.xml the transaction aspect enlists the participant itself,
+ * the coordinator aspect is not there to enlist it a second time.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {
+        "classpath:/fused-aspect-test.xml", "classpath:/tcc-transaction-fused.xml"})
+public class FusedAspectTest {
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private CompensableService compensableService;
+
+    @Autowired
+    private LatencyTransactionRepository transactionRepository;
+
+    @Test
+    public void enlistOnceTest() {
+
+        Assert.assertTrue(applicationContext.getBeansOfType(ConfigurableCoordinatorAspect.class).isEmpty());
+        Assert.assertTrue(AopUtils.isAopProxy(compensableService));
+
+        compensableService.record(1);
+
+        //fields of the target, not of the proxy.
+        Assert.assertEquals(1, compensableService.getParticipantCount());
+        Assert.assertEquals(1, compensableService.getConfirmCount());
+
+        //create, enlist, confirming, delete.
+        Assert.assertEquals(4, transactionRepository.writeCount.get());
+        Assert.assertTrue(transactionRepository.transactions.isEmpty());
+    }
+
+    public static class CompensableService {
+
+        private TransactionConfigurator transactionConfigurator;
+
+        private final AtomicInteger confirmCount = new AtomicInteger();
+
+        private volatile int participantCount;
+
+        public void setTransactionConfigurator(TransactionConfigurator transactionConfigurator) {
+            this.transactionConfigurator = transactionConfigurator;
+        }
+
+        @Compensable(confirmMethod = "recordConfirm", cancelMethod = "recordCancel")
+        public void record(@UniqueIdentity long id) {
+            participantCount = transactionConfigurator.getTransactionManager().getCurrentTransaction().getParticipants().size();
+        }
+
+        public void recordConfirm(long id) {
+            confirmCount.incrementAndGet();
+        }
+
+        public void recordCancel(long id) {
+
+        }
+
+        public int getParticipantCount() {
+            return participantCount;
+        }
+
+        public int getConfirmCount() {
+            return confirmCount.get();
+        }
+    }
+}
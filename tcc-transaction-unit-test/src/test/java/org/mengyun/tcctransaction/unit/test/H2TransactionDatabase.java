@@ -0,0 +1,65 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * in-memory H2 databases in MySQL mode with the tables of the shipped db.sql, run as is,
+ * so the tests cover the schema the users create.
+ */
+public class H2TransactionDatabase {
+
+    private static final File DB_SCRIPT = new File("../tcc-transaction-spring/src/main/dbscripts/db.sql");
+
+    private static final AtomicInteger DATABASE_SEQUENCE = new AtomicInteger();
+
+    private H2TransactionDatabase() {
+    }
+
+    public static DriverManagerDataSource newDataSource(String name) {
+        return newDataSource(name, "");
+    }
+
+    /**
+     * a new database, named after name, with the tables suffixed by tbSuffix as JdbcTransactionRepository.setTbSuffix expects.
+     */
+    public static DriverManagerDataSource newDataSource(String name, String tbSuffix) {
+
+        DriverManagerDataSource dataSource = new DriverManagerDataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:" + name + DATABASE_SEQUENCE.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        for (String statement : readScript().split(";")) {
+            if (!statement.trim().isEmpty()) {
+                jdbcTemplate.execute(statement.replace("`TCC_TRANSACTION", "`TCC_TRANSACTION" + tbSuffix));
+            }
+        }
+
+        return dataSource;
+    }
+
+    private static String readScript() {
+
+        StringBuilder script = new StringBuilder();
+
+        try {
+            for (String line : Files.readAllLines(DB_SCRIPT.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.trim().startsWith("--")) {
+                    script.append(line).append('\n');
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot read " + DB_SCRIPT.getAbsolutePath(), e);
+        }
+
+        return script.toString();
+    }
+}
@@ -0,0 +1,342 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.ConcurrentTransactionException;
+import org.mengyun.tcctransaction.OptimisticLockException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * with group commit, concurrent writes share connections and commits, and each caller still gets the outcome of its own row,
+ * also from a driver reporting no update counts for batches.
+ */
+public class JdbcGroupCommitTest {
+
+    private static final int THREAD_COUNT = 32;
+
+    private static final int TRANSACTION_COUNT_PER_THREAD = 50;
+
+    private CountingDataSource dataSource;
+
+    private JdbcTransactionRepository transactionRepository;
+
+    @Before
+    public void setUp() {
+
+        DriverManagerDataSource h2 = H2TransactionDatabase.newDataSource("tcc");
+
+        dataSource = new CountingDataSource(h2);
+
+        transactionRepository = new JdbcTransactionRepository();
+        transactionRepository.setDataSource(dataSource);
+        transactionRepository.setGroupCommit(true);
+    }
+
+    @After
+    public void tearDown() {
+        transactionRepository.shutdown();
+    }
+
+    @Test
+    public void concurrentWritesTest() throws Exception {
+
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT);
+
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                futures.add(executorService.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+
+                        int written = 0;
+
+                        for (int j = 0; j < TRANSACTION_COUNT_PER_THREAD; j++) {
+                            Transaction transaction = new Transaction(TransactionType.ROOT);
+
+                            written += transactionRepository.create(transaction);
+                            written += transactionRepository.update(transaction);
+                            written += transactionRepository.delete(transaction);
+                        }
+                        return written;
+                    }
+                }));
+            }
+
+            start.countDown();
+
+            for (Future<Integer> future : futures) {
+                Assert.assertEquals(3 * TRANSACTION_COUNT_PER_THREAD, future.get(60, TimeUnit.SECONDS).intValue());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        int writeCount = 3 * THREAD_COUNT * TRANSACTION_COUNT_PER_THREAD;
+
+        Assert.assertEquals(0, new JdbcTemplate(dataSource).queryForObject("SELECT COUNT(*) FROM TCC_TRANSACTION", Integer.class).intValue());
+        Assert.assertTrue(dataSource.connectionCount.get() < writeCount);
+    }
+
+    @Test
+    public void ownOutcomeTest() throws Exception {
+
+        final Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT);
+
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger duplicated = new AtomicInteger();
+
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                final boolean duplicate = i % 2 == 0;
+
+                futures.add(executorService.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        start.await();
+
+                        if (duplicate) {
+                            //the same xid, created by one caller only.
+                            try {
+                                transactionRepository.create(transaction);
+                                created.incrementAndGet();
+                            } catch (ConcurrentTransactionException e) {
+                                duplicated.incrementAndGet();
+                            }
+                        } else {
+                            transactionRepository.create(new Transaction(TransactionType.ROOT));
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            start.countDown();
+
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        Assert.assertEquals(1, created.get());
+        Assert.assertEquals(THREAD_COUNT / 2 - 1, duplicated.get());
+        Assert.assertEquals(THREAD_COUNT / 2 + 1, new JdbcTemplate(dataSource).queryForObject("SELECT COUNT(*) FROM TCC_TRANSACTION", Integer.class).intValue());
+
+        Transaction stale = transactionRepository.findByXid((TransactionXid) transaction.getXid());
+        transactionRepository.update(transaction);
+
+        stale.setVersion(1);
+
+        try {
+            transactionRepository.update(stale);
+            Assert.fail();
+        } catch (OptimisticLockException e) {
+            //the version moved on.
+        }
+    }
+
+    @Test
+    public void noUpdateCountsTest() throws Exception {
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            transactionRepository.create(transaction);
+            transactions.add(transaction);
+        }
+
+        //lost its version to another node.
+        final Transaction stale = transactions.get(0);
+        new JdbcTemplate(dataSource).update("UPDATE TCC_TRANSACTION SET VERSION = VERSION + 1 WHERE GLOBAL_TX_ID = ?", stale.getXid().getGlobalTransactionId());
+
+        dataSource.noUpdateCounts = true;
+
+        //holds the writer on its next connection, so the updates queue up and go in one batch.
+        dataSource.gate = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT + 1);
+
+        try {
+            executorService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return transactionRepository.create(new Transaction(TransactionType.ROOT));
+                }
+            });
+
+            Thread.sleep(100);
+
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+            for (final Transaction transaction : transactions) {
+                futures.add(executorService.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        transaction.addRetriedCount();
+                        return transactionRepository.update(transaction);
+                    }
+                }));
+            }
+
+            Thread.sleep(200);
+
+            dataSource.gate.countDown();
+
+            try {
+                futures.get(0).get(60, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof OptimisticLockException);
+            }
+
+            for (int i = 1; i < futures.size(); i++) {
+                Assert.assertEquals(1, futures.get(i).get(60, TimeUnit.SECONDS).intValue());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        Assert.assertEquals(0, newRepository().findByXid((TransactionXid) stale.getXid()).getRetriedCount());
+    }
+
+    @Test
+    public void shutdownTest() {
+
+        Assert.assertEquals(1, transactionRepository.create(new Transaction(TransactionType.ROOT)));
+        Assert.assertTrue(isWriterAlive());
+
+        transactionRepository.shutdown();
+
+        Assert.assertFalse(isWriterAlive());
+
+        //written on its own connection.
+        Assert.assertEquals(1, transactionRepository.create(new Transaction(TransactionType.ROOT)));
+        Assert.assertFalse(isWriterAlive());
+    }
+
+    private boolean isWriterAlive() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("tcc-group-commit-") && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private JdbcTransactionRepository newRepository() {
+        JdbcTransactionRepository repository = new JdbcTransactionRepository();
+        repository.setDataSource(dataSource);
+        return repository;
+    }
+
+    static class CountingDataSource extends DelegatingDataSource {
+
+        final AtomicInteger connectionCount = new AtomicInteger();
+
+        volatile CountDownLatch gate;
+
+        volatile boolean noUpdateCounts = false;
+
+        CountingDataSource(DriverManagerDataSource dataSource) {
+            super(dataSource);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            connectionCount.incrementAndGet();
+
+            CountDownLatch gate = this.gate;
+
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new SQLException(e);
+                }
+            }
+
+            Connection connection = super.getConnection();
+
+            return noUpdateCounts ? noUpdateCounts(connection) : connection;
+        }
+
+        /**
+         * as some drivers do, executeBatch reports SUCCESS_NO_INFO instead of the row counts.
+         */
+        private Connection noUpdateCounts(final Connection connection) {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+                    final Object result = invokeOn(connection, method, args);
+
+                    if (!method.getName().equals("prepareStatement")) {
+                        return result;
+                    }
+
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{PreparedStatement.class}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+                            Object counts = invokeOn(result, method, args);
+
+                            if (method.getName().equals("executeBatch")) {
+                                Arrays.fill((int[]) counts, Statement.SUCCESS_NO_INFO);
+                            }
+                            return counts;
+                        }
+                    });
+                }
+            });
+        }
+
+        private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.mengyun.tcctransaction.repository.Page;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.transaction.xa.Xid;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * the recovery scan pages through the stuck transactions by key, each one is returned once even when
+ * many share a LAST_UPDATE_TIME or are updated (recovered) while the scan goes on.
+ */
+public class JdbcRecoveryPagingTest {
+
+    private static final int STUCK_COUNT = 50;
+
+    private static final int PAGE_SIZE = 7;
+
+    private JdbcTransactionRepository transactionRepository;
+
+    private Set<Xid> stuckXids;
+
+    private Date recoverDate;
+
+    @Before
+    public void setUp() {
+
+        DriverManagerDataSource dataSource = H2TransactionDatabase.newDataSource("tcc-paging");
+
+        transactionRepository = new JdbcTransactionRepository();
+        transactionRepository.setDataSource(dataSource);
+        transactionRepository.setFetchSize(3);
+
+        long now = System.currentTimeMillis();
+
+        stuckXids = new HashSet<Xid>();
+
+        for (int i = 0; i < STUCK_COUNT; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            //a few distinct times only, the ties are ordered by xid.
+            transaction.setLastUpdateTime(new Date(now - 600 * 1000 - (i % 3) * 1000));
+            transactionRepository.create(transaction);
+            stuckXids.add(transaction.getXid());
+        }
+
+        //modified recently, not stuck.
+        transactionRepository.create(new Transaction(TransactionType.ROOT));
+
+        recoverDate = new Date(now - 120 * 1000);
+    }
+
+    @Test
+    public void pagesCoverAllOnceTest() {
+
+        Set<Xid> found = new HashSet<Xid>();
+
+        int pageCount = 0;
+
+        String offset = null;
+
+        do {
+            Page<Transaction> page = transactionRepository.findAllUnmodifiedSince(recoverDate, offset, PAGE_SIZE);
+
+            Assert.assertTrue(page.getData().size() <= PAGE_SIZE);
+
+            for (Transaction transaction : page.getData()) {
+                Assert.assertTrue(found.add(transaction.getXid()));
+            }
+
+            pageCount++;
+            offset = page.getNextOffset();
+
+        } while (offset != null);
+
+        Assert.assertEquals(stuckXids, found);
+        Assert.assertEquals((STUCK_COUNT + PAGE_SIZE - 1) / PAGE_SIZE, pageCount);
+    }
+
+    @Test
+    public void recoveredWhileScanningTest() {
+
+        Set<Xid> found = new HashSet<Xid>();
+
+        String offset = null;
+
+        do {
+            Page<Transaction> page = transactionRepository.findAllUnmodifiedSince(recoverDate, offset, PAGE_SIZE);
+
+            for (Transaction transaction : page.getData()) {
+                Assert.assertTrue(found.add(transaction.getXid()));
+
+                //as recovery does, this moves the record out of the scanned range.
+                transaction.addRetriedCount();
+                transactionRepository.update(transaction);
+            }
+
+            offset = page.getNextOffset();
+
+        } while (offset != null);
+
+        Assert.assertEquals(stuckXids, found);
+        Assert.assertTrue(transactionRepository.findAllUnmodifiedSince(recoverDate, null, PAGE_SIZE).getData().isEmpty());
+    }
+}
@@ -0,0 +1,72 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.repository.CachableTransactionRepository;
+
+import javax.transaction.xa.Xid;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * in memory repository counting its writes, each write may simulate one store round trip.
+ */
+public class LatencyTransactionRepository extends CachableTransactionRepository {
+
+    private final long roundTripNanos;
+
+    public final Map<Xid, Transaction> transactions = new ConcurrentHashMap<Xid, Transaction>();
+
+    public final AtomicInteger writeCount = new AtomicInteger();
+
+    public LatencyTransactionRepository(long roundTripNanos) {
+        this.roundTripNanos = roundTripNanos;
+    }
+
+    @Override
+    protected int doCreate(Transaction transaction) {
+        roundTrip();
+        return transactions.put(transaction.getXid(), transaction) == null ? 1 : 0;
+    }
+
+    @Override
+    protected int doUpdate(Transaction transaction) {
+        roundTrip();
+        transaction.updateVersion();
+        return transactions.containsKey(transaction.getXid()) ? 1 : 0;
+    }
+
+    @Override
+    protected int doDelete(Transaction transaction) {
+        roundTrip();
+        return transactions.remove(transaction.getXid()) == null ? 0 : 1;
+    }
+
+    @Override
+    protected Transaction doFindOne(Xid xid) {
+        return transactions.get(xid);
+    }
+
+    @Override
+    protected List<Transaction> doFindAllUnmodifiedSince(Date date) {
+        List<Transaction> unmodified = new ArrayList<Transaction>();
+
+        for (Transaction transaction : transactions.values()) {
+            if (transaction.getLastUpdateTimeMillis() < date.getTime()) {
+                unmodified.add(transaction);
+            }
+        }
+        return unmodified;
+    }
+
+    private void roundTrip() {
+        writeCount.incrementAndGet();
+        if (roundTripNanos > 0) {
+            LockSupport.parkNanos(roundTripNanos);
+        }
+    }
+}
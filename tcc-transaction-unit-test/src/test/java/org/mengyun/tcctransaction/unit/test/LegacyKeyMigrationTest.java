@@ -0,0 +1,73 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.FileSystemTransactionRepository;
+
+import java.io.File;
+
+/**
+ * a record still under its legacy key is looked up by it while legacyKeyLookup is on (the default),
+ * and moved to its hex key by the one-time migration.
+ */
+public class LegacyKeyMigrationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Transaction transaction;
+
+    @Before
+    public void setUp() {
+
+        transaction = new Transaction(TransactionType.ROOT);
+
+        newRepository().create(transaction);
+
+        File file = new File(folder.getRoot(), transaction.getXid().toString());
+        Assert.assertTrue(file.renameTo(legacyFile()));
+    }
+
+    @Test
+    public void missWithoutLookupTest() {
+
+        FileSystemTransactionRepository repository = newRepository();
+        repository.setLegacyKeyLookup(false);
+
+        Assert.assertNull(repository.findByXid((TransactionXid) transaction.getXid()));
+        Assert.assertTrue(legacyFile().exists());
+    }
+
+    @Test
+    public void legacyKeyLookupTest() {
+
+        //on by default, an upgraded node finds the records written before.
+        Assert.assertNotNull(newRepository().findByXid((TransactionXid) transaction.getXid()));
+        Assert.assertFalse(legacyFile().exists());
+    }
+
+    @Test
+    public void migrateLegacyKeysTest() {
+
+        newRepository().migrateLegacyKeys();
+
+        Assert.assertFalse(legacyFile().exists());
+        Assert.assertNotNull(newRepository().findByXid((TransactionXid) transaction.getXid()));
+    }
+
+    private File legacyFile() {
+        return new File(folder.getRoot(), TransactionXid.toLegacyString(transaction.getXid()));
+    }
+
+    private FileSystemTransactionRepository newRepository() {
+        FileSystemTransactionRepository repository = new FileSystemTransactionRepository();
+        repository.setRootPath(folder.getRoot().getAbsolutePath());
+        return repository;
+    }
+}
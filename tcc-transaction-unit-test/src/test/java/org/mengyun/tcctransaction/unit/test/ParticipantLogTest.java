@@ -0,0 +1,161 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * with the participant log, an enlistment inserts one row and leaves CONTENT alone,
+ * the transaction read back has all participants in enlistment order.
+ */
+public class ParticipantLogTest {
+
+    private static final int PARTICIPANT_COUNT = 20;
+
+    private DriverManagerDataSource dataSource;
+
+    private JdbcTransactionRepository transactionRepository;
+
+    @Before
+    public void setUp() {
+
+        dataSource = H2TransactionDatabase.newDataSource("tcc-participant-log");
+
+        transactionRepository = newRepository();
+    }
+
+    @Test
+    public void appendedParticipantsTest() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        enlist(transaction, 0);
+
+        transactionRepository.create(transaction);
+
+        byte[] content = readContent(transaction);
+
+        for (int i = 1; i < PARTICIPANT_COUNT; i++) {
+            enlist(transaction, i);
+            transactionRepository.update(transaction);
+        }
+
+        Assert.assertArrayEquals(content, readContent(transaction));
+        Assert.assertEquals(PARTICIPANT_COUNT - 1, countLoggedParticipants());
+
+        assertParticipants(newRepository().findByXid((TransactionXid) transaction.getXid()), PARTICIPANT_COUNT);
+
+        List<Transaction> recovered = newRepository().findAllUnmodifiedSince(new Date(System.currentTimeMillis() + 1000), null, 10).getData();
+
+        Assert.assertEquals(1, recovered.size());
+        assertParticipants(recovered.get(0), PARTICIPANT_COUNT);
+
+        transactionRepository.delete(transaction);
+
+        Assert.assertEquals(0, countLoggedParticipants());
+    }
+
+    @Test
+    public void rewrittenContentTest() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        enlist(transaction, 0);
+        transactionRepository.create(transaction);
+
+        enlist(transaction, 1);
+        transactionRepository.update(transaction);
+
+        //attachments changed, the content is rewritten with the logged participants in it.
+        transaction.getAttachments().put("key", "value");
+        transaction.markContentChanged();
+        transactionRepository.update(transaction);
+
+        Transaction found = newRepository().findByXid((TransactionXid) transaction.getXid());
+
+        assertParticipants(found, 2);
+        Assert.assertEquals("value", found.getAttachments().get("key"));
+
+        //read from the rewritten content this time, the appends continue after it.
+        enlist(found, 2);
+        newRepository().update(found);
+
+        assertParticipants(newRepository().findByXid((TransactionXid) transaction.getXid()), 3);
+    }
+
+    @Test
+    public void atomicDeleteTest() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        enlist(transaction, 0);
+        transactionRepository.create(transaction);
+
+        enlist(transaction, 1);
+        transactionRepository.update(transaction);
+
+        //the logged participants cannot be deleted, the record stays with them.
+        new JdbcTemplate(dataSource).execute("ALTER TABLE TCC_TRANSACTION_PARTICIPANT RENAME TO TCC_TRANSACTION_PARTICIPANT_MOVED");
+
+        try {
+            transactionRepository.delete(transaction);
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertEquals(1, countRecords());
+        }
+
+        new JdbcTemplate(dataSource).execute("ALTER TABLE TCC_TRANSACTION_PARTICIPANT_MOVED RENAME TO TCC_TRANSACTION_PARTICIPANT");
+
+        assertParticipants(newRepository().findByXid((TransactionXid) transaction.getXid()), 2);
+
+        Assert.assertEquals(1, transactionRepository.delete(transaction));
+        Assert.assertEquals(0, countRecords());
+        Assert.assertEquals(0, countLoggedParticipants());
+    }
+
+    private void assertParticipants(Transaction transaction, int count) {
+
+        Assert.assertEquals(count, transaction.getParticipants().size());
+
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals("confirm" + i, transaction.getParticipants().get(i).getConfirmInvocationContext().getMethodName());
+        }
+    }
+
+    private JdbcTransactionRepository newRepository() {
+        JdbcTransactionRepository repository = new JdbcTransactionRepository();
+        repository.setDataSource(dataSource);
+        repository.setParticipantLog(true);
+        return repository;
+    }
+
+    private byte[] readContent(Transaction transaction) {
+        return new JdbcTemplate(dataSource).queryForObject("SELECT CONTENT FROM TCC_TRANSACTION WHERE GLOBAL_TX_ID = ?",
+                byte[].class, transaction.getXid().getGlobalTransactionId());
+    }
+
+    private int countRecords() {
+        return new JdbcTemplate(dataSource).queryForObject("SELECT COUNT(*) FROM TCC_TRANSACTION", Integer.class);
+    }
+
+    private int countLoggedParticipants() {
+        return new JdbcTemplate(dataSource).queryForObject("SELECT COUNT(*) FROM TCC_TRANSACTION_PARTICIPANT", Integer.class);
+    }
+
+    private void enlist(Transaction transaction, int index) {
+        TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
+        transaction.enlistParticipant(new Participant(xid,
+                new InvocationContext(Object.class, "confirm" + index, new Class[0]),
+                new InvocationContext(Object.class, "cancel" + index, new Class[0]),
+                Compensable.NullableTransactionContextEditor.class));
+    }
+}
@@ -0,0 +1,99 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Base64;
+
+/**
+ * records and contexts serialized by 1.2.6 before the hot path changes, under src/test/resources/serialized,
+ * must still be read: the stored transactions of a running system and the contexts sent by not yet upgraded nodes.
+ */
+public class SerializedFormCompatibilityTest {
+
+    private static final long CREATE_TIME = 1792348092167L;
+
+    @Test
+    public void jdkSerializedTransactionTest() throws IOException {
+        assertTransaction(new JdkSerializationSerializer<Transaction>(), "transaction.jdk.base64");
+    }
+
+    @Test
+    public void kryoSerializedTransactionTest() throws IOException {
+        assertTransaction(new KryoPoolSerializer<Transaction>(1), "transaction.kryo.base64");
+    }
+
+    @Test
+    public void jdkSerializedTransactionContextTest() throws IOException {
+
+        TransactionContext transactionContext = new JdkSerializationSerializer<TransactionContext>().deserialize(read("transaction-context.jdk.base64"));
+
+        Assert.assertEquals(TransactionStatus.TRYING.getId(), transactionContext.getStatus());
+        Assert.assertNotNull(transactionContext.getXid());
+        Assert.assertTrue(transactionContext.getAttachments().isEmpty());
+
+        //an older node reads the attachments without a null check, they must be on the wire.
+        TransactionContext sent = new JdkSerializationSerializer<TransactionContext>().deserialize(
+                new JdkSerializationSerializer<TransactionContext>().serialize(new TransactionContext(transactionContext.getXid(), TransactionStatus.TRYING.getId())));
+
+        Assert.assertNotNull(sent.getAttachments());
+    }
+
+    private void assertTransaction(ObjectSerializer<Transaction> serializer, String resource) throws IOException {
+
+        Transaction transaction = serializer.deserialize(read(resource));
+
+        Assert.assertEquals(TransactionType.ROOT, transaction.getTransactionType());
+        Assert.assertEquals(TransactionStatus.CONFIRMING, transaction.getStatus());
+        Assert.assertEquals(1, transaction.getRetriedCount());
+        Assert.assertEquals(2, transaction.getVersion());
+        Assert.assertEquals(CREATE_TIME, transaction.getCreateTime().getTime());
+        Assert.assertEquals(CREATE_TIME, transaction.getCreateTimeMillis());
+        Assert.assertEquals(CREATE_TIME, transaction.getLastUpdateTimeMillis());
+        Assert.assertEquals("value", transaction.getAttachments().get("key"));
+
+        Assert.assertEquals(1, transaction.getParticipants().size());
+
+        Participant participant = transaction.getParticipants().get(0);
+
+        Assert.assertEquals("confirm", participant.getConfirmInvocationContext().getMethodName());
+        Assert.assertEquals("cancel", participant.getCancelInvocationContext().getMethodName());
+        Assert.assertArrayEquals(transaction.getXid().getGlobalTransactionId(), participant.getXid().getGlobalTransactionId());
+
+        //written back and read again by this version.
+        Transaction copy = serializer.deserialize(serializer.serialize(transaction));
+
+        Assert.assertEquals(transaction.getXid(), copy.getXid());
+        Assert.assertEquals(CREATE_TIME, copy.getCreateTimeMillis());
+    }
+
+    private byte[] read(String resource) throws IOException {
+
+        StringBuilder content = new StringBuilder();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                getClass().getResourceAsStream("/serialized/" + resource), "UTF-8"));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                content.append(line.trim());
+            }
+        } finally {
+            reader.close();
+        }
+
+        return Base64.getDecoder().decode(content.toString());
+    }
+}
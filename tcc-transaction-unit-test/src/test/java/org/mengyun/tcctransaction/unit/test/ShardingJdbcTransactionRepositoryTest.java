@@ -0,0 +1,163 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.mengyun.tcctransaction.repository.Page;
+import org.mengyun.tcctransaction.repository.ShardingJdbcTransactionRepository;
+import org.mengyun.tcctransaction.repository.cache.NoopTransactionCache;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.transaction.xa.Xid;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * records are spread over the shards by global transaction id, found again on their shard,
+ * and the recovery scans cover every shard.
+ */
+public class ShardingJdbcTransactionRepositoryTest {
+
+    private static final int SHARD_COUNT = 3;
+
+    private static final int TRANSACTION_COUNT = 60;
+
+    private List<JdbcTemplate> shardTemplates;
+
+    private ShardingJdbcTransactionRepository transactionRepository;
+
+    private List<Transaction> transactions;
+
+    @Before
+    public void setUp() {
+
+        shardTemplates = new ArrayList<JdbcTemplate>();
+
+        List<JdbcTransactionRepository> shards = new ArrayList<JdbcTransactionRepository>();
+
+        for (int i = 0; i < SHARD_COUNT; i++) {
+
+            DriverManagerDataSource dataSource = H2TransactionDatabase.newDataSource("tcc-shard", "_" + i);
+
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+            shardTemplates.add(jdbcTemplate);
+
+            JdbcTransactionRepository shard = new JdbcTransactionRepository();
+            shard.setDataSource(dataSource);
+            shard.setTbSuffix("_" + i);
+            shards.add(shard);
+        }
+
+        transactionRepository = newRepository(shards);
+
+        transactions = new ArrayList<Transaction>();
+
+        for (int i = 0; i < TRANSACTION_COUNT; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            transaction.setLastUpdateTime(new Date(System.currentTimeMillis() - 600 * 1000));
+            transactionRepository.create(transaction);
+            transactions.add(transaction);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        transactionRepository.shutdown();
+    }
+
+    @Test
+    public void routedByGlobalTransactionIdTest() {
+
+        int total = 0;
+
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            int count = shardTemplates.get(i).queryForObject("SELECT COUNT(*) FROM TCC_TRANSACTION_" + i, Integer.class);
+
+            Assert.assertTrue(count > 0);
+            total += count;
+        }
+
+        Assert.assertEquals(TRANSACTION_COUNT, total);
+
+        //another node, no cache.
+        ShardingJdbcTransactionRepository otherRepository = newRepository(transactionRepository.getShards());
+
+        for (Transaction transaction : transactions) {
+            Transaction found = otherRepository.findByXid((TransactionXid) transaction.getXid());
+
+            Assert.assertNotNull(found);
+
+            found.addRetriedCount();
+            Assert.assertEquals(1, otherRepository.update(found));
+        }
+
+        otherRepository.shutdown();
+    }
+
+    @Test
+    public void recoveryScansAllShardsTest() {
+
+        Date date = new Date(System.currentTimeMillis() - 120 * 1000);
+
+        Assert.assertEquals(TRANSACTION_COUNT, transactionRepository.findAllUnmodifiedSince(date).size());
+
+        Set<Xid> found = new HashSet<Xid>();
+
+        String offset = null;
+
+        do {
+            Page<Transaction> page = transactionRepository.findAllUnmodifiedSince(date, offset, 10);
+
+            Assert.assertTrue(page.getData().size() <= 10 + SHARD_COUNT);
+
+            for (Transaction transaction : page.getData()) {
+                Assert.assertTrue(found.add(transaction.getXid()));
+            }
+
+            offset = page.getNextOffset();
+
+        } while (offset != null);
+
+        Assert.assertEquals(TRANSACTION_COUNT, found.size());
+
+        Assert.assertEquals(TRANSACTION_COUNT, transactionRepository.deleteAll(transactions));
+        Assert.assertTrue(transactionRepository.findAllUnmodifiedSince(date).isEmpty());
+    }
+
+    @Test
+    public void shardResourcesTest() {
+
+        for (JdbcTransactionRepository shard : transactionRepository.getShards()) {
+            Assert.assertTrue(shard.getTransactionCache() instanceof NoopTransactionCache);
+        }
+
+        transactionRepository.findAllUnmodifiedSince(new Date());
+
+        int scanThreadCount = 0;
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("tcc-shard-scan")) {
+                Assert.assertTrue(thread.isDaemon());
+                scanThreadCount++;
+            }
+        }
+
+        Assert.assertTrue(scanThreadCount > 0);
+    }
+
+    private ShardingJdbcTransactionRepository newRepository(List<JdbcTransactionRepository> shards) {
+        ShardingJdbcTransactionRepository repository = new ShardingJdbcTransactionRepository();
+        repository.setShards(shards);
+        return repository;
+    }
+}
@@ -0,0 +1,110 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.Arrays;
+
+/**
+ * a status change leaves CONTENT as written, an enlistment since the last write rewrites it.
+ */
+public class StatusOnlyUpdateTest {
+
+    private final InvocationContext noop = new InvocationContext(Object.class, "", new Class[0]);
+
+    private DriverManagerDataSource dataSource;
+
+    private JdbcTransactionRepository transactionRepository;
+
+    @Before
+    public void setUp() {
+
+        dataSource = H2TransactionDatabase.newDataSource("tcc-status");
+
+        transactionRepository = newRepository();
+    }
+
+    @Test
+    public void statusOnlyUpdateTest() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        enlist(transaction);
+
+        transactionRepository.create(transaction);
+
+        byte[] content = readContent(transaction);
+
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        transaction.addRetriedCount();
+        transactionRepository.update(transaction);
+
+        Assert.assertArrayEquals(content, readContent(transaction));
+
+        //read back by another node, without its cache.
+        Transaction found = newRepository().findByXid((TransactionXid) transaction.getXid());
+
+        Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+        Assert.assertEquals(1, found.getRetriedCount());
+        Assert.assertEquals(2, found.getVersion());
+        Assert.assertEquals(1, found.getParticipants().size());
+    }
+
+    @Test
+    public void enlistmentRewritesContentTest() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        enlist(transaction);
+
+        transactionRepository.create(transaction);
+
+        byte[] content = readContent(transaction);
+
+        enlist(transaction);
+        transactionRepository.update(transaction);
+
+        Assert.assertFalse(Arrays.equals(content, readContent(transaction)));
+        Assert.assertFalse(transaction.isContentChanged());
+
+        Transaction found = newRepository().findByXid((TransactionXid) transaction.getXid());
+
+        Assert.assertEquals(2, found.getParticipants().size());
+
+        //the enlistment stays pending when the write is lost on an optimistic lock.
+        found.setVersion(1);
+        enlist(found);
+
+        try {
+            newRepository().update(found);
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertTrue(found.isContentChanged());
+        }
+    }
+
+    private JdbcTransactionRepository newRepository() {
+        JdbcTransactionRepository repository = new JdbcTransactionRepository();
+        repository.setDataSource(dataSource);
+        return repository;
+    }
+
+    private byte[] readContent(Transaction transaction) {
+        return new JdbcTemplate(dataSource).queryForObject("SELECT CONTENT FROM TCC_TRANSACTION WHERE GLOBAL_TX_ID = ?",
+                byte[].class, transaction.getXid().getGlobalTransactionId());
+    }
+
+    private void enlist(Transaction transaction) {
+        TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
+        transaction.enlistParticipant(new Participant(xid, noop, noop, Compensable.NullableTransactionContextEditor.class));
+    }
+}
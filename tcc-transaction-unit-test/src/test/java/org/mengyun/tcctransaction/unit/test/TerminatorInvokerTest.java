@@ -0,0 +1,60 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.Terminator;
+import org.mengyun.tcctransaction.api.Compensable;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * confirm/cancel dispatched through the cached method handles gets the args unboxed and the result boxed,
+ * and an exception of the method arrives wrapped as Method.invoke wrapped it.
+ */
+public class TerminatorInvokerTest {
+
+    private final Terminator terminator = new Terminator();
+
+    @Test
+    public void primitiveArgsTest() {
+
+        InvocationContext invocationContext = new InvocationContext(ConfirmTarget.class, "confirm",
+                new Class[]{int.class, String.class}, 41, "amount");
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(42L, terminator.invoke(null, invocationContext, Compensable.NullableTransactionContextEditor.class));
+        }
+
+        Assert.assertNull(terminator.invoke(null, new InvocationContext(ConfirmTarget.class, "noop", new Class[0]),
+                Compensable.NullableTransactionContextEditor.class));
+    }
+
+    @Test
+    public void methodExceptionTest() {
+
+        try {
+            terminator.invoke(null, new InvocationContext(ConfirmTarget.class, "fail", new Class[0]),
+                    Compensable.NullableTransactionContextEditor.class);
+            Assert.fail();
+        } catch (SystemException e) {
+            Assert.assertTrue(e.getCause() instanceof InvocationTargetException);
+            Assert.assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+        }
+    }
+
+    public static class ConfirmTarget {
+
+        public long confirm(int value, String name) {
+            return value + 1;
+        }
+
+        public void noop() {
+        }
+
+        public void fail() {
+            throw new IllegalStateException("confirm failed");
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * guards the bytes allocated by one begin/enlist/commit cycle of a root transaction against a repository without latency.
+ * the payload, the transaction, xids and participant the caller creates anyway, is measured on its own,
+ * the cycle may only add the bookkeeping of the manager and the repository on top of it.
+ */
+public class TransactionAllocationTest {
+
+    private static final int WARMUP_COUNT = 20000;
+
+    private static final int TRANSACTION_COUNT = 10000;
+
+    /**
+     * the repository map and cache entries and their maintenance, the new last update times, the completion bits
+     * and the pending participant list of the termination, about 470-560 bytes measured.
+     */
+    private static final long MAX_OVERHEAD_BYTES_PER_TRANSACTION = 640;
+
+    private final InvocationContext noop = new InvocationContext(Object.class, "", new Class[0]);
+
+    private final Object[] sink = new Object[2];
+
+    @Test
+    public void allocationPerTransactionTest() {
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported());
+
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(new LatencyTransactionRepository(0));
+
+        runTransactions(transactionManager, WARMUP_COUNT);
+        createPayloads(WARMUP_COUNT);
+
+        long threadId = Thread.currentThread().getId();
+
+        long allocatedBefore = allocationMXBean.getThreadAllocatedBytes(threadId);
+        runTransactions(transactionManager, TRANSACTION_COUNT);
+        long bytesPerTransaction = (allocationMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore) / TRANSACTION_COUNT;
+
+        allocatedBefore = allocationMXBean.getThreadAllocatedBytes(threadId);
+        createPayloads(TRANSACTION_COUNT);
+        long payloadBytes = (allocationMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore) / TRANSACTION_COUNT;
+
+        Assert.assertTrue("allocated " + bytesPerTransaction + " bytes per transaction for a payload of " + payloadBytes + " bytes",
+                bytesPerTransaction - payloadBytes <= MAX_OVERHEAD_BYTES_PER_TRANSACTION);
+    }
+
+    /**
+     * the xid is shared instead of copied, once used as a key it cannot be changed under the maps holding it.
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void sharedXidImmutableTest() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        TransactionXid xid = (TransactionXid) transaction.getXid();
+        xid.hashCode();
+
+        try {
+            xid.setBranchQualifier(new byte[16]);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertSame(xid, transaction.getXid());
+        }
+
+        //not used yet, e.g. filled in by a deserializer.
+        TransactionXid unused = new TransactionXid();
+        unused.setGlobalTransactionId(new byte[16]);
+        Assert.assertArrayEquals(new byte[16], unused.getGlobalTransactionId());
+    }
+
+    private void runTransactions(TransactionManager transactionManager, int count) {
+
+        for (int i = 0; i < count; i++) {
+
+            Transaction transaction = transactionManager.begin();
+
+            try {
+                transactionManager.enlistParticipant(newParticipant(transaction));
+
+                transactionManager.commit(false);
+            } finally {
+                transactionManager.cleanAfterCompletion(transaction);
+            }
+        }
+    }
+
+    /**
+     * the same objects without the manager, kept reachable so they are not scalar replaced.
+     */
+    private void createPayloads(int count) {
+
+        for (int i = 0; i < count; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            sink[0] = transaction;
+            sink[1] = newParticipant(transaction);
+        }
+    }
+
+    private Participant newParticipant(Transaction transaction) {
+        TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
+        return new Participant(xid, noop, noop, Compensable.NullableTransactionContextEditor.class);
+    }
+}
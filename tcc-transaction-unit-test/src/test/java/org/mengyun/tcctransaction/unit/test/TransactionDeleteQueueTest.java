@@ -0,0 +1,188 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.recover.RecoverConfig;
+import org.mengyun.tcctransaction.recover.TransactionRecovery;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.mengyun.tcctransaction.repository.TransactionIOException;
+import org.mengyun.tcctransaction.spring.recover.DefaultRecoverConfig;
+import org.mengyun.tcctransaction.support.TransactionConfigurator;
+import org.mengyun.tcctransaction.support.TransactionDeleteQueue;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the records of committed transactions are deleted by the queue in batches, none is left behind after shutdown.
+ * a record whose queued delete is lost is confirmed again and deleted by recovery.
+ */
+public class TransactionDeleteQueueTest {
+
+    private static final int TRANSACTION_COUNT = 2000;
+
+    @Test
+    public void batchDeleteTest() {
+
+        BatchCountingTransactionRepository transactionRepository = new BatchCountingTransactionRepository();
+
+        TransactionDeleteQueue transactionDeleteQueue = new TransactionDeleteQueue("tcc-batch-delete-test", transactionRepository, 100, 4096);
+
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(transactionRepository);
+        transactionManager.setTransactionDeleteQueue(transactionDeleteQueue);
+
+        InvocationContext noop = new InvocationContext(Object.class, "", new Class[0]);
+
+        for (int i = 0; i < TRANSACTION_COUNT; i++) {
+
+            Transaction transaction = transactionManager.begin();
+
+            try {
+                TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
+                transactionManager.enlistParticipant(new Participant(xid, noop, noop, Compensable.NullableTransactionContextEditor.class));
+
+                transactionManager.commit(false);
+            } finally {
+                transactionManager.cleanAfterCompletion(transaction);
+            }
+        }
+
+        transactionDeleteQueue.shutdown();
+
+        Assert.assertTrue(transactionRepository.transactions.isEmpty());
+        Assert.assertEquals(0, transactionDeleteQueue.getQueueDepth());
+        Assert.assertEquals(TRANSACTION_COUNT, transactionRepository.deletedCount.get());
+        Assert.assertTrue(transactionRepository.batchCount.get() <= TRANSACTION_COUNT);
+    }
+
+    @Test
+    public void lostDeleteTest() {
+
+        DriverManagerDataSource dataSource = H2TransactionDatabase.newDataSource("tcc-lost-delete");
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        FailingDeleteTransactionRepository transactionRepository = new FailingDeleteTransactionRepository();
+        transactionRepository.setDataSource(dataSource);
+
+        TransactionDeleteQueue transactionDeleteQueue = new TransactionDeleteQueue("tcc-lost-delete-test", transactionRepository, 100, 16);
+
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(transactionRepository);
+        transactionManager.setTransactionDeleteQueue(transactionDeleteQueue);
+
+        Transaction transaction = transactionManager.begin();
+
+        try {
+            TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
+            transactionManager.enlistParticipant(new Participant(xid,
+                    new InvocationContext(CountingParticipant.class, "confirm", new Class[0]),
+                    new InvocationContext(CountingParticipant.class, "cancel", new Class[0]),
+                    Compensable.NullableTransactionContextEditor.class));
+
+            transactionManager.commit(false);
+        } finally {
+            transactionManager.cleanAfterCompletion(transaction);
+        }
+
+        transactionDeleteQueue.shutdown();
+
+        Assert.assertEquals(1, CountingParticipant.CONFIRM_COUNT.get());
+        Assert.assertEquals(1, countRecords(jdbcTemplate));
+
+        jdbcTemplate.update("UPDATE TCC_TRANSACTION SET LAST_UPDATE_TIME = ?", new Timestamp(System.currentTimeMillis() - 600 * 1000));
+
+        //another node, without the cache.
+        final JdbcTransactionRepository recoveryRepository = new JdbcTransactionRepository();
+        recoveryRepository.setDataSource(dataSource);
+
+        final TransactionManager recoveryTransactionManager = new TransactionManager();
+        recoveryTransactionManager.setTransactionRepository(recoveryRepository);
+
+        TransactionRecovery transactionRecovery = new TransactionRecovery();
+        transactionRecovery.setTransactionConfigurator(new TransactionConfigurator() {
+            @Override
+            public TransactionManager getTransactionManager() {
+                return recoveryTransactionManager;
+            }
+
+            @Override
+            public TransactionRepository getTransactionRepository() {
+                return recoveryRepository;
+            }
+
+            @Override
+            public RecoverConfig getRecoverConfig() {
+                return DefaultRecoverConfig.INSTANCE;
+            }
+        });
+
+        transactionRecovery.startRecover();
+
+        Assert.assertEquals(0, countRecords(jdbcTemplate));
+        Assert.assertEquals(2, CountingParticipant.CONFIRM_COUNT.get());
+        Assert.assertEquals(0, CountingParticipant.CANCEL_COUNT.get());
+    }
+
+    private int countRecords(JdbcTemplate jdbcTemplate) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM TCC_TRANSACTION", Integer.class);
+    }
+
+    public static class CountingParticipant {
+
+        static final AtomicInteger CONFIRM_COUNT = new AtomicInteger();
+
+        static final AtomicInteger CANCEL_COUNT = new AtomicInteger();
+
+        public void confirm() {
+            CONFIRM_COUNT.incrementAndGet();
+        }
+
+        public void cancel() {
+            CANCEL_COUNT.incrementAndGet();
+        }
+    }
+
+    static class FailingDeleteTransactionRepository extends JdbcTransactionRepository {
+
+        @Override
+        protected int doDelete(Transaction transaction) {
+            throw new TransactionIOException("repository down");
+        }
+
+        @Override
+        protected int doDeleteAll(List<Transaction> transactions) {
+            throw new TransactionIOException("repository down");
+        }
+    }
+
+    static class BatchCountingTransactionRepository extends LatencyTransactionRepository {
+
+        final AtomicInteger batchCount = new AtomicInteger();
+
+        final AtomicInteger deletedCount = new AtomicInteger();
+
+        BatchCountingTransactionRepository() {
+            super(0);
+        }
+
+        @Override
+        protected int doDeleteAll(List<Transaction> transactions) {
+            batchCount.incrementAndGet();
+            int deleted = super.doDeleteAll(transactions);
+            deletedCount.addAndGet(deleted);
+            return deleted;
+        }
+    }
+}
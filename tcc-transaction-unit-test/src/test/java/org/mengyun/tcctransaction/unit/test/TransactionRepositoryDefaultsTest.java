@@ -0,0 +1,79 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.Page;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * a repository implementing only the original methods gets the completion write as an update,
+ * the batch delete as single deletes and all the transactions as the only page.
+ */
+public class TransactionRepositoryDefaultsTest {
+
+    @Test
+    public void fallbackTest() {
+
+        MapTransactionRepository repository = new MapTransactionRepository();
+
+        Transaction first = new Transaction(TransactionType.ROOT);
+        Transaction second = new Transaction(TransactionType.ROOT);
+        repository.create(first);
+        repository.create(second);
+
+        Assert.assertEquals(1, repository.updateCompletion(first));
+        Assert.assertEquals(1, repository.updates);
+
+        Page<Transaction> page = repository.findAllUnmodifiedSince(new Date(), null, 1);
+        Assert.assertEquals(2, page.getData().size());
+        Assert.assertFalse(page.hasNext());
+        Assert.assertTrue(repository.findAllUnmodifiedSince(new Date(), "offset", 1).getData().isEmpty());
+
+        Assert.assertEquals(2, repository.deleteAll(Arrays.asList(first, second)));
+        Assert.assertTrue(repository.transactions.isEmpty());
+    }
+
+    private static class MapTransactionRepository implements TransactionRepository {
+
+        private final Map<Object, Transaction> transactions = new LinkedHashMap<Object, Transaction>();
+
+        private int updates;
+
+        @Override
+        public int create(Transaction transaction) {
+            transactions.put(transaction.getXid(), transaction);
+            return 1;
+        }
+
+        @Override
+        public int update(Transaction transaction) {
+            updates++;
+            return transactions.containsKey(transaction.getXid()) ? 1 : 0;
+        }
+
+        @Override
+        public int delete(Transaction transaction) {
+            return transactions.remove(transaction.getXid()) == null ? 0 : 1;
+        }
+
+        @Override
+        public Transaction findByXid(TransactionXid xid) {
+            return transactions.get(xid);
+        }
+
+        @Override
+        public List<Transaction> findAllUnmodifiedSince(Date date) {
+            return new ArrayList<Transaction>(transactions.values());
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.TryTimeoutException;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.interceptor.CompensableMethodMetadata;
+import org.mengyun.tcctransaction.interceptor.ResourceCoordinatorInterceptor;
+import org.mengyun.tcctransaction.support.HashedWheelTimer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a root transaction still trying after its tryTimeout is cancelled by the timer, its late enlistments and commit fail;
+ * a try phase ending in time stops the timeout. a participant whose try call is in flight is cancelled once it returns,
+ * the root method is cancelled while its body still runs.
+ */
+public class TryTimeoutTest {
+
+    private final InvocationContext noop = new InvocationContext(Object.class, "", new Class[0]);
+
+    private HashedWheelTimer tryTimeoutTimer;
+
+    private LatencyTransactionRepository transactionRepository;
+
+    private ExecutorService executorService;
+
+    private TransactionManager transactionManager;
+
+    @Before
+    public void setUp() {
+        tryTimeoutTimer = new HashedWheelTimer("tcc-try-timeout-test", 10, TimeUnit.MILLISECONDS, 64);
+
+        transactionRepository = new LatencyTransactionRepository(0);
+
+        executorService = Executors.newSingleThreadExecutor();
+
+        transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(transactionRepository);
+        transactionManager.setExecutorService(executorService);
+        transactionManager.setTryTimeoutTimer(tryTimeoutTimer);
+    }
+
+    @After
+    public void tearDown() {
+        tryTimeoutTimer.stop();
+        executorService.shutdown();
+    }
+
+    @Test
+    public void timedOutTryIsCancelledTest() throws InterruptedException {
+
+        Transaction transaction = transactionManager.begin();
+
+        try {
+            transactionManager.scheduleTryTimeout(transaction, 50, false);
+            enlist(transaction);
+
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (transactionRepository.transactions.containsKey(transaction.getXid()) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            Assert.assertFalse(transactionRepository.transactions.containsKey(transaction.getXid()));
+            Assert.assertEquals(TransactionStatus.CANCELLING, transaction.getStatus());
+            Assert.assertTrue(transaction.isTryTimedOut());
+
+            try {
+                enlist(transaction);
+                Assert.fail();
+            } catch (TryTimeoutException e) {
+                //the try call must not be made.
+            }
+
+            try {
+                transactionManager.commit(false);
+                Assert.fail();
+            } catch (TryTimeoutException e) {
+                //the caller learns the transaction was cancelled.
+            }
+
+            //the rollback of the timed out try is a no-op.
+            transactionManager.rollback(false);
+
+        } finally {
+            transactionManager.cleanAfterCompletion(transaction);
+        }
+    }
+
+    @Test
+    public void tryInTimeTest() throws InterruptedException {
+
+        Transaction transaction = transactionManager.begin();
+
+        try {
+            transactionManager.scheduleTryTimeout(transaction, 50, false);
+            enlist(transaction);
+
+            transactionManager.commit(false);
+        } finally {
+            transactionManager.cleanAfterCompletion(transaction);
+        }
+
+        Thread.sleep(150);
+
+        Assert.assertEquals(TransactionStatus.CONFIRMING, transaction.getStatus());
+        Assert.assertFalse(transaction.isTryTimedOut());
+        Assert.assertTrue(transactionRepository.transactions.isEmpty());
+    }
+
+    @Test
+    public void inFlightTryTest() throws InterruptedException {
+
+        Transaction transaction = transactionManager.begin();
+
+        try {
+            transactionManager.scheduleTryTimeout(transaction, 50, false);
+
+            TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
+            transactionManager.enlistParticipant(new Participant(xid, noop,
+                    new InvocationContext(CancelCountingParticipant.class, "cancel", new Class[0]),
+                    Compensable.NullableTransactionContextEditor.class));
+
+            //a slow try call, still in flight when the timeout fires.
+            transactionManager.beginTryCall(transaction);
+
+            Thread.sleep(200);
+
+            Assert.assertTrue(transaction.isTryTimedOut());
+            Assert.assertEquals(0, CancelCountingParticipant.CANCEL_COUNT.get());
+            Assert.assertTrue(transactionRepository.transactions.containsKey(transaction.getXid()));
+
+            transactionManager.endTryCall(transaction);
+
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (transactionRepository.transactions.containsKey(transaction.getXid()) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            Assert.assertFalse(transactionRepository.transactions.containsKey(transaction.getXid()));
+            Assert.assertEquals(1, CancelCountingParticipant.CANCEL_COUNT.get());
+
+            try {
+                transactionManager.beginTryCall(transaction);
+                Assert.fail();
+            } catch (TryTimeoutException e) {
+                //the try call must not be made.
+            }
+
+        } finally {
+            transactionManager.cleanAfterCompletion(transaction);
+        }
+    }
+
+    @Test
+    public void rootBodyNotWaitedTest() throws Exception {
+
+        final ResourceCoordinatorInterceptor resourceCoordinatorInterceptor = new ResourceCoordinatorInterceptor();
+        resourceCoordinatorInterceptor.setTransactionManager(transactionManager);
+
+        final CountDownLatch rootBodyReturn = new CountDownLatch(1);
+
+        final ProceedingJoinPoint pjp = newJoinPoint(new RootService(), RootService.class.getMethod("tryRoot"), rootBodyReturn);
+
+        final Transaction transaction = transactionManager.begin();
+
+        try {
+            transactionManager.scheduleTryTimeout(transaction, 50, false);
+
+            //the root method, stuck in its body past the timeout.
+            Thread rootThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        resourceCoordinatorInterceptor.interceptTransactionContextMethod(pjp, CompensableMethodMetadata.of(pjp), transaction);
+                    } catch (Throwable e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            rootThread.start();
+
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (transactionRepository.transactions.containsKey(transaction.getXid()) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            Assert.assertFalse(transactionRepository.transactions.containsKey(transaction.getXid()));
+            Assert.assertEquals(1, RootService.CANCEL_COUNT.get());
+            Assert.assertTrue(rootThread.isAlive());
+
+            try {
+                transactionManager.beginTryCall(transaction);
+                Assert.fail();
+            } catch (TryTimeoutException e) {
+                //a participant called after the cancel must not be tried.
+            }
+
+            rootBodyReturn.countDown();
+            rootThread.join(5000);
+
+        } finally {
+            transactionManager.cleanAfterCompletion(transaction);
+        }
+    }
+
+    @Test
+    public void timerStartedByFirstTimeoutTest() {
+
+        HashedWheelTimer timer = new HashedWheelTimer("tcc-try-timeout-lazy-test", 10, TimeUnit.MILLISECONDS, 64);
+
+        try {
+            Assert.assertFalse(isThreadAlive("tcc-try-timeout-lazy-test"));
+
+            timer.newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }, 1, TimeUnit.SECONDS).cancel();
+
+            Assert.assertTrue(isThreadAlive("tcc-try-timeout-lazy-test"));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private boolean isThreadAlive(String name) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name) && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static class CancelCountingParticipant {
+
+        static final AtomicInteger CANCEL_COUNT = new AtomicInteger();
+
+        public void cancel() {
+            CANCEL_COUNT.incrementAndGet();
+        }
+    }
+
+    public static class RootService {
+
+        static final AtomicInteger CANCEL_COUNT = new AtomicInteger();
+
+        @Compensable(confirmMethod = "confirmRoot", cancelMethod = "cancelRoot", transactionContextEditor = Compensable.NullableTransactionContextEditor.class)
+        public void tryRoot() {
+        }
+
+        public void confirmRoot() {
+        }
+
+        public void cancelRoot() {
+            CANCEL_COUNT.incrementAndGet();
+        }
+    }
+
+    /**
+     * a join point of method on target whose proceed blocks until bodyReturn opens.
+     */
+    private ProceedingJoinPoint newJoinPoint(final Object target, final Method method, final CountDownLatch bodyReturn) {
+
+        final MethodSignature signature = (MethodSignature) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{MethodSignature.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method invoked, Object[] args) {
+                if (invoked.getName().equals("getMethod")) {
+                    return method;
+                }
+                throw new UnsupportedOperationException(invoked.getName());
+            }
+        });
+
+        return (ProceedingJoinPoint) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{ProceedingJoinPoint.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method invoked, Object[] args) throws Throwable {
+                String name = invoked.getName();
+
+                if (name.equals("getSignature")) {
+                    return signature;
+                } else if (name.equals("getTarget")) {
+                    return target;
+                } else if (name.equals("getArgs")) {
+                    return new Object[0];
+                } else if (name.equals("proceed")) {
+                    bodyReturn.await();
+                    return null;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    private void enlist(Transaction transaction) {
+        TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
+        transactionManager.enlistParticipant(new Participant(xid, noop, noop, Compensable.NullableTransactionContextEditor.class));
+    }
+}
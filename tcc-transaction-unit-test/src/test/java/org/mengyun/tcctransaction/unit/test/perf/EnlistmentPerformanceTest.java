@@ -0,0 +1,73 @@
+package org.mengyun.tcctransaction.unit.test.perf;
+
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.unit.test.LatencyTransactionRepository;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * elapsed time of the try phase with and without coalesced enlistment, against a repository simulating
+ * one store round trip per write. run with -Pperf, it is not part of the unit suite.
+ */
+public class EnlistmentPerformanceTest {
+
+    private static final int TRANSACTION_COUNT = 200;
+
+    private static final int REMOTE_PARTICIPANT_COUNT = 4;
+
+    @Test
+    public void coalesceEnlistmentTest() {
+
+        LatencyTransactionRepository repository = new LatencyTransactionRepository(TimeUnit.MICROSECONDS.toNanos(500));
+
+        long before = runTransactions(repository, false);
+        int writesBefore = repository.writeCount.getAndSet(0);
+
+        long after = runTransactions(repository, true);
+        int writesAfter = repository.writeCount.getAndSet(0);
+
+        System.out.println(String.format("enlist per write: %d writes, %d ms; coalesced: %d writes, %d ms",
+                writesBefore, before, writesAfter, after));
+    }
+
+    private long runTransactions(LatencyTransactionRepository repository, boolean coalesceEnlistment) {
+
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(repository);
+        transactionManager.setCoalesceEnlistment(coalesceEnlistment);
+
+        long startTime = System.currentTimeMillis();
+
+        for (int i = 0; i < TRANSACTION_COUNT; i++) {
+
+            Transaction transaction = transactionManager.begin();
+
+            try {
+                transactionManager.enlistParticipant(newParticipant(transaction));
+
+                for (int j = 0; j < REMOTE_PARTICIPANT_COUNT; j++) {
+                    transactionManager.enlistParticipant(newParticipant(transaction));
+                    transactionManager.flushEnlistment();
+                }
+
+                transactionManager.commit(false);
+            } finally {
+                transactionManager.cleanAfterCompletion(transaction);
+            }
+        }
+
+        return System.currentTimeMillis() - startTime;
+    }
+
+    private Participant newParticipant(Transaction transaction) {
+        TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
+        InvocationContext noop = new InvocationContext(Object.class, "", new Class[0]);
+        return new Participant(xid, noop, noop, Compensable.NullableTransactionContextEditor.class);
+    }
+}
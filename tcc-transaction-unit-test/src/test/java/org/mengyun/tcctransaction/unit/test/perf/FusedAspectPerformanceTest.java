@@ -0,0 +1,135 @@
+package org.mengyun.tcctransaction.unit.test.perf;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.UniqueIdentity;
+import org.mengyun.tcctransaction.recover.RecoverConfig;
+import org.mengyun.tcctransaction.spring.ConfigurableCoordinatorAspect;
+import org.mengyun.tcctransaction.spring.ConfigurableTransactionAspect;
+import org.mengyun.tcctransaction.spring.recover.DefaultRecoverConfig;
+import org.mengyun.tcctransaction.support.TransactionConfigurator;
+import org.mengyun.tcctransaction.unit.test.LatencyTransactionRepository;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * per call overhead of the two around-advices (transaction aspect + coordinator aspect) against the fused aspect,
+ * measured on root compensable calls against a repository without latency. run with -Pperf, it is not part of the unit suite.
+ */
+public class FusedAspectPerformanceTest {
+
+    private static final int WARMUP_COUNT = 20000;
+
+    private static final int CALL_COUNT = 100000;
+
+    @Test
+    public void fusedAspectTest() {
+
+        TransactionConfigurator transactionConfigurator = newTransactionConfigurator();
+
+        CompensableService separated = separatedProxy(transactionConfigurator);
+        CompensableService fused = fusedProxy(transactionConfigurator);
+
+        run(separated, WARMUP_COUNT);
+        run(fused, WARMUP_COUNT);
+
+        CompensableService.CONFIRM_COUNT.set(0);
+
+        long separatedNanos = run(separated, CALL_COUNT);
+        long fusedNanos = run(fused, CALL_COUNT);
+
+        System.out.println(String.format("two aspects: %.0f ns/call, fused aspect: %.0f ns/call",
+                separatedNanos / (double) CALL_COUNT, fusedNanos / (double) CALL_COUNT));
+
+        //same semantics, every root call enlisted and confirmed itself exactly once.
+        Assert.assertEquals(CALL_COUNT * 2, CompensableService.CONFIRM_COUNT.get());
+    }
+
+    private long run(CompensableService service, int count) {
+
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            service.record(i);
+        }
+
+        return System.nanoTime() - startTime;
+    }
+
+    private CompensableService separatedProxy(TransactionConfigurator transactionConfigurator) {
+
+        ConfigurableTransactionAspect transactionAspect = new ConfigurableTransactionAspect();
+        transactionAspect.setTransactionConfigurator(transactionConfigurator);
+        transactionAspect.init();
+
+        ConfigurableCoordinatorAspect coordinatorAspect = new ConfigurableCoordinatorAspect();
+        coordinatorAspect.setTransactionConfigurator(transactionConfigurator);
+        coordinatorAspect.init();
+
+        AspectJProxyFactory proxyFactory = new AspectJProxyFactory(new CompensableService());
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAspect(transactionAspect);
+        proxyFactory.addAspect(coordinatorAspect);
+        return proxyFactory.getProxy();
+    }
+
+    private CompensableService fusedProxy(TransactionConfigurator transactionConfigurator) {
+
+        ConfigurableTransactionAspect transactionAspect = new ConfigurableTransactionAspect();
+        transactionAspect.setTransactionConfigurator(transactionConfigurator);
+        transactionAspect.setFuseResourceCoordinator(true);
+        transactionAspect.init();
+
+        AspectJProxyFactory proxyFactory = new AspectJProxyFactory(new CompensableService());
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAspect(transactionAspect);
+        return proxyFactory.getProxy();
+    }
+
+    private TransactionConfigurator newTransactionConfigurator() {
+
+        final LatencyTransactionRepository repository = new LatencyTransactionRepository(0);
+
+        final TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(repository);
+
+        return new TransactionConfigurator() {
+            @Override
+            public TransactionManager getTransactionManager() {
+                return transactionManager;
+            }
+
+            @Override
+            public TransactionRepository getTransactionRepository() {
+                return repository;
+            }
+
+            @Override
+            public RecoverConfig getRecoverConfig() {
+                return DefaultRecoverConfig.INSTANCE;
+            }
+        };
+    }
+
+    public static class CompensableService {
+
+        static final AtomicInteger CONFIRM_COUNT = new AtomicInteger();
+
+        @Compensable(confirmMethod = "recordConfirm", cancelMethod = "recordCancel")
+        public void record(@UniqueIdentity long id) {
+
+        }
+
+        public void recordConfirm(long id) {
+            CONFIRM_COUNT.incrementAndGet();
+        }
+
+        public void recordCancel(long id) {
+
+        }
+    }
+}